@@ -0,0 +1,134 @@
+package com.logandhillon.fptgame.level;
+
+import com.google.protobuf.TextFormat;
+import com.logandhillon.fptgame.networking.proto.LevelProto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles level definitions into a level pack at build time (see the {@code compileLevelPack} Gradle task), which the
+ * game then maps and reads levels from on demand, see {@code LevelPack}.
+ * <p>
+ * Each level is defined in its own file, as a {@link LevelProto.LevelData} in protobuf text format, and a manifest
+ * lists which levels to compile. Each line of the manifest is a campaign: the names of its level files (without
+ * {@code .txtpb}) in the order they are played, so that each level's next level is the one after it. Levels are packed
+ * in the order that they first appear in, and refer to their next level by its index in the pack.
+ * <p>
+ * Pack format (big-endian): {@code [4 magic][4 version][4 level count]}, then an index of every level:
+ * {@code [4 offset][4 length][4 name offset][4 name length]}, then the UTF-8 names and encoded levels that the index
+ * points to (offsets are from the start of the pack).
+ *
+ * @author Logan Dhillon
+ */
+public class LevelPackCompiler {
+    static final int MAGIC       = 0x4650544C; // "FPTL"
+    static final int VERSION     = 1;
+    static final int HEADER_SIZE = 12;
+    static final int ENTRY_SIZE  = 16;
+
+    /**
+     * @param args the manifest, and the file to write the pack to
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: LevelPackCompiler <manifest> <output>");
+            System.exit(1);
+        }
+
+        Path manifest = Path.of(args[0]);
+        Map<String, String> levels = readManifest(manifest); // the next level of every level, by name
+        List<String> names = new ArrayList<>(levels.keySet());
+
+        List<byte[]> encoded = new ArrayList<>(names.size());
+        for (String name: names) {
+            var level = LevelProto.LevelData.newBuilder();
+            Path file = manifest.resolveSibling(name + ".txtpb");
+            try {
+                TextFormat.merge(Files.readString(file), level);
+            } catch (TextFormat.ParseException e) {
+                throw new IOException("Failed to parse level " + file + ": " + e.getMessage(), e);
+            }
+
+            level.clearNextLevel().clearNextLevelIndex();
+            String next = levels.get(name);
+            if (next != null) level.setNextLevelIndex(names.indexOf(next));
+            encoded.add(level.build().toByteArray());
+        }
+
+        Path out = Path.of(args[1]);
+        if (out.getParent() != null) Files.createDirectories(out.getParent());
+        Files.write(out, pack(names, encoded));
+        System.out.println("Compiled " + names.size() + " level(s) into " + out);
+    }
+
+    /**
+     * Reads every campaign in a manifest.
+     *
+     * @return the name of every level, in the order they first appear, mapped to the name of their next level (or
+     * null if they are the last level of their campaign)
+     *
+     * @throws IOException if a level is followed by different levels in different campaigns
+     */
+    private static Map<String, String> readManifest(Path manifest) throws IOException {
+        Map<String, String> levels = new LinkedHashMap<>();
+        Map<String, Integer> lines = new HashMap<>(); // the line that each level's next level was set on
+        int n = 0;
+        for (String line: Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            n++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            line = line.strip();
+            if (line.isEmpty()) continue;
+
+            String[] campaign = line.split("\\s+");
+            for (int i = 0; i < campaign.length; i++) {
+                String next = i + 1 < campaign.length ? campaign[i + 1] : null;
+                String before = levels.get(campaign[i]);
+                if (lines.containsKey(campaign[i]) && (before == null ? next != null : !before.equals(next))) {
+                    throw new IOException(manifest + ":" + n + ": level '" + campaign[i] +
+                                          "' has another next level on line " + lines.get(campaign[i]));
+                }
+                levels.put(campaign[i], next);
+                lines.put(campaign[i], n);
+            }
+        }
+        return levels;
+    }
+
+    private static byte[] pack(List<String> names, List<byte[]> levels) throws IOException {
+        List<byte[]> encodedNames = new ArrayList<>(names.size());
+        for (String name: names) encodedNames.add(name.getBytes(StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(levels.size());
+
+        int offset = HEADER_SIZE + ENTRY_SIZE * levels.size();
+        int nameOffset = offset;
+        for (byte[] name: encodedNames) offset += name.length;
+        for (int i = 0; i < levels.size(); i++) {
+            out.writeInt(offset);
+            out.writeInt(levels.get(i).length);
+            out.writeInt(nameOffset);
+            out.writeInt(encodedNames.get(i).length);
+            offset += levels.get(i).length;
+            nameOffset += encodedNames.get(i).length;
+        }
+
+        for (byte[] name: encodedNames) out.write(name);
+        for (byte[] level: levels) out.write(level);
+        return bytes.toByteArray();
+    }
+}
@@ -1,5 +1,7 @@
 package com.logandhillon.fptgame;
 
+import com.logandhillon.fptgame.networking.ClockSync;
+import com.logandhillon.fptgame.networking.DedicatedServer;
 import com.logandhillon.fptgame.networking.GameClient;
 import com.logandhillon.fptgame.networking.GameServer;
 import com.logandhillon.fptgame.networking.ServerDiscoverer;
@@ -22,7 +24,9 @@ import org.apache.logging.log4j.core.LoggerContext;
 
 import java.io.IOException;
 import java.net.ConnectException;
+import java.util.Arrays;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public class GameHandler extends Application {
     private static final Logger LOG               = LoggerContext.getContext().getLogger(GameHandler.class);
@@ -79,7 +83,7 @@ public class GameHandler extends Application {
 
         String debugMode = System.getenv("LGL_DEBUG_MODE");
         setScene(debugMode != null && debugMode.equalsIgnoreCase("true")
-                 ? new SingleplayerGameScene(Levels.LEVEL_1) // debug scene if LGL_DEBUG_MODE is true
+                 ? new SingleplayerGameScene(Levels.get(Levels.LEVEL_1)) // debug scene if LGL_DEBUG_MODE is true
                  : new MenuHandler());
 
         stage.show();
@@ -88,11 +92,18 @@ public class GameHandler extends Application {
     /**
      * Handles bootstrap and launching the framework + engine.
      *
-     * @param args command-line arguments to the Java program.
+     * @param args command-line arguments to the Java program; {@code --dedicated [port] [shards] [players]} runs a
+     *             {@link DedicatedServer} instead
      *
      * @see GameHandler#start(Stage)
      */
     public static void main(String[] args) {
+        // run a headless dedicated server instead of the game, if asked to
+        if (args.length > 0 && args[0].equals("--dedicated")) {
+            DedicatedServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         String lglSaveFile = System.getenv("LGL_SAVE_FILE");
         if (lglSaveFile != null) UserConfigManager.setManagedFile(lglSaveFile);
 
@@ -132,6 +143,16 @@ public class GameHandler extends Application {
         activeScene = GameEngine.setScene(this, stage, activeScene, scene);
     }
 
+    /**
+     * Discards the currently active scene and replaces it with the provided one once it has been prepared, fading out
+     * of the current scene in the meantime.
+     *
+     * @param scene the GameScene to switch to, see {@link GameEngine#prepare(java.util.function.Supplier)}
+     */
+    public void setScene(CompletableFuture<? extends GameScene> scene) {
+        GameEngine.setScene(this, stage, activeScene, scene).thenAccept(s -> activeScene = s);
+    }
+
     public void goToMainMenu() {
         Optional<MenuHandler> menu = this.getActiveScene(MenuHandler.class);
         if (menu.isEmpty()) this.setScene(new MenuHandler());
@@ -154,7 +175,7 @@ public class GameHandler extends Application {
 
         var lobby = new LobbyGameContent(menu.get(), roomName, true);
         menu.get().setContent(lobby); // set content first so we can populate lobby after
-        lobby.addPlayer(GameHandler.getUserConfig().getName(), true);
+        lobby.addPlayer(GameHandler.getUserConfig().getName(), GameServer.HOST_ID);
 
         if (server != null) throw new IllegalStateException("Server already exists, cannot establish connection");
 
@@ -178,7 +199,8 @@ public class GameHandler extends Application {
     /**
      * Joins a remote server, registers itself, and displays the lobby.
      *
-     * @param serverAddress address and port of the server to join (addr:port)
+     * @param serverAddress address and port of the server to join, and the room to join if it is a dedicated server
+     *                      (addr[:port][/room])
      */
     public void joinGame(String serverAddress) {
         if (serverAddress.isBlank()) {
@@ -186,6 +208,13 @@ public class GameHandler extends Application {
             return;
         }
 
+        String room = "";
+        int r = serverAddress.indexOf('/');
+        if (r != -1) {
+            room = serverAddress.substring(r + 1);
+            serverAddress = serverAddress.substring(0, r);
+        }
+
         String host;
         int port;
         int i = serverAddress.lastIndexOf(':');
@@ -199,13 +228,13 @@ public class GameHandler extends Application {
 
         discoverer.stop();
 
-        LOG.info("Attempting to join game at {}, port {}", host, port);
+        LOG.info("Attempting to join game at {}, port {}{}", host, port, room.isEmpty() ? "" : ", room " + room);
 
         if (client != null) throw new IllegalStateException("Client already exists, cannot establish connection");
 
         setInMenu(false);
         try {
-            client = new GameClient(host, port, this);
+            client = new GameClient(host, port, room, this);
             client.connect();
         } catch (ConnectException e) {
             terminateClient();
@@ -355,4 +384,16 @@ public class GameHandler extends Application {
     public static GameClient getClient() {
         return client;
     }
+
+    /**
+     * Gets the match clock, which is the host's clock (as estimated by the guest, if we are one), along with the
+     * round-trip time to our peer.
+     *
+     * @return the clock of the active network manager, or our own clock if there is none
+     */
+    public static ClockSync getClock() {
+        if (server != null) return server.getClock();
+        else if (client != null) return client.getClock();
+        return ClockSync.LOCAL;
+    }
 }
\ No newline at end of file
@@ -24,7 +24,7 @@ public class LevelButtonEntity extends LevelObject {
 
     @Override
     protected void onRender(GraphicsContext g, float x, float y) {
-        g.drawImage(Textures.LEVEL_BUTTON, x, y, w, h);
+        g.drawImage(Textures.Images.LEVEL_BUTTON, x, y, w, h);
     }
 
     @Override
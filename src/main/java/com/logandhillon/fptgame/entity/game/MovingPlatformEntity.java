@@ -1,26 +1,40 @@
 package com.logandhillon.fptgame.entity.game;
 
 import com.logandhillon.fptgame.networking.proto.LevelProto;
+import com.logandhillon.fptgame.scene.LevelScene;
 import com.logandhillon.logangamelib.gfx.AtlasTile;
 
+import java.nio.ByteBuffer;
+
 import static com.logandhillon.logangamelib.entity.physics.PhysicsEntity.PX_PER_METER;
 
 /**
+ * A platform that moves back and forth between where it starts and its destination, turning around whenever a level
+ * button is pressed.
+ * <p>
+ * Its position is not integrated frame by frame, but computed from the tick of the level (the host's tick, see
+ * {@link LevelScene#getLevelTick()}): the distance it had travelled when it last turned around, plus how far it has
+ * moved at its speed since that tick. So, every peer that turns it around on the same tick agrees exactly on where it
+ * is on every tick, without sending it over the network. The host tells its peers which tick every
+ * button was pressed on, see {@link com.logandhillon.fptgame.networking.PeerCommand.PressButton}.
+ *
  * @author Logan Dhillon
  */
 public class MovingPlatformEntity extends PlatformEntity {
-    private final float destX;
-    private final float destY;
-    private final float originX;
-    private final float originY;
-    private final float speed;
+    private final float   destX;
+    private final float   destY;
+    private final float   originX;
+    private final float   originY;
+    private final float   speed;
+    private final float   length; // distance between origin and destination
+    private final boolean initialGoingTowardsDest; // restored by reset()
 
     /**
      * true=going towards destination; false=going towards original pos
      */
     private boolean goingTowardsDest;
-    private float   tx;
-    private float   ty;
+    private long    turnTick; // the tick that this platform last turned around on
+    private float   turnDistance; // how far from its origin it was on that tick
 
     /**
      * Creates a moving platform
@@ -43,33 +57,100 @@ public class MovingPlatformEntity extends PlatformEntity {
         this.destX = destX;
         this.destY = destY;
         this.speed = speed * PX_PER_METER;
-        setGoingTowardsDest(goingTowardsDest);
+        this.length = (float)Math.hypot(destX - x, destY - y);
+        this.initialGoingTowardsDest = goingTowardsDest;
+        this.goingTowardsDest = goingTowardsDest;
     }
 
+    /**
+     * Moves this platform to where it is at the end of the current tick.
+     */
     @Override
     public void onUpdate(float dt) {
         super.onUpdate(dt);
+        if (parent == null || length == 0f) return;
 
-        float dx = tx - x;
-        float dy = ty - y;
-        float delta = speed * dt; // meters to travel
-        float dist = (float)Math.sqrt(dx * dx + dy * dy);
+        float t = getDistance(getLevelTick() + 1) / length;
+        setPosition(originX + (destX - originX) * t, originY + (destY - originY) * t);
+    }
 
-        // if already at destination, return
-        if (dist == 0f) return;
+    /**
+     * Gets how far along its path this platform is at the start of a tick, from when it last turned around.
+     *
+     * @param tick the tick, which must not be before it last turned around
+     *
+     * @return the distance from its origin (px)
+     */
+    private float getDistance(long tick) {
+        float moved = speed * parent.getTickTime() * (tick - turnTick);
+        float distance = turnDistance + (goingTowardsDest ? moved : -moved);
+        return Math.max(0, Math.min(length, distance));
+    }
 
-        if (dist <= delta) setPosition(tx, ty);
-        else translate(dx / dist * delta, dy / dist * delta);
+    /**
+     * @return the tick of the level that this platform is in, or of its scene if that is not a level
+     */
+    private long getLevelTick() {
+        return parent instanceof LevelScene level ? level.getLevelTick() : parent.getTick();
     }
 
-    public void setGoingTowardsDest(boolean goingTowardsDest) {
-        this.goingTowardsDest = goingTowardsDest;
-        tx = goingTowardsDest ? destX : originX;
-        ty = goingTowardsDest ? destY : originY;
+    /**
+     * Moves this platform back to where it started, heading the way it started heading, from the current tick.
+     */
+    @Override
+    public void reset() {
+        reset(parent == null ? 0 : getLevelTick());
     }
 
-    public void invertGoingTowardsDest() {
-        setGoingTowardsDest(!goingTowardsDest);
+    /**
+     * Moves this platform back to where it started, heading the way it started heading, from a tick of the level.
+     *
+     * @param tick the tick it starts moving from again, e.g. the host's tick that the level restarted on
+     */
+    public void reset(long tick) {
+        super.reset();
+        teleport(originX, originY);
+        goingTowardsDest = initialGoingTowardsDest;
+        turnTick = tick;
+        turnDistance = 0;
+    }
+
+    /**
+     * @return the size of this platform's state: its color, position, and the last time it turned around
+     */
+    @Override
+    public int getStateSize() {
+        return super.getStateSize() + 3 * Float.BYTES + Long.BYTES + 1;
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+        super.saveState(out);
+        out.putFloat(x).putFloat(y).putLong(turnTick).putFloat(turnDistance).put((byte)(goingTowardsDest ? 1 : 0));
+    }
+
+    @Override
+    public void loadState(ByteBuffer in) {
+        super.loadState(in);
+        x = in.getFloat();
+        y = in.getFloat();
+        reindex();
+        turnTick = in.getLong();
+        turnDistance = in.getFloat();
+        goingTowardsDest = in.get() != 0;
+    }
+
+    /**
+     * Turns this platform around on a tick of the level, from wherever it was along its path at the start of it.
+     *
+     * @param tick the tick of the level to turn around on, which may have passed already; it can't be before it last
+     *             turned around
+     */
+    public void invertGoingTowardsDest(long tick) {
+        tick = Math.max(tick, turnTick);
+        if (parent != null) turnDistance = getDistance(tick);
+        turnTick = tick;
+        goingTowardsDest = !goingTowardsDest;
     }
 
     @Override
@@ -3,10 +3,13 @@ package com.logandhillon.fptgame.entity.game;
 import com.logandhillon.fptgame.level.LevelObject;
 import com.logandhillon.fptgame.networking.proto.LevelProto;
 import com.logandhillon.fptgame.resource.Colors;
+import com.logandhillon.logangamelib.entity.Stateful;
 import com.logandhillon.logangamelib.gfx.AtlasTile;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
+import java.nio.ByteBuffer;
+
 import static com.logandhillon.fptgame.resource.Textures.OBJ_SCALE;
 
 /**
@@ -15,10 +18,12 @@ import static com.logandhillon.fptgame.resource.Textures.OBJ_SCALE;
  *
  * @author Logan Dhillon
  */
-public class PlatformEntity extends LevelObject {
+public class PlatformEntity extends LevelObject implements Stateful {
     protected final AtlasTile        texture;
     protected       LevelProto.Color color;
     private         Color            tint;
+    private         boolean          baked;
+    private final   LevelProto.Color initialColor; // restored by reset()
 
     /**
      * Creates a collidable entity at the specified position with the specified hitbox
@@ -37,6 +42,7 @@ public class PlatformEntity extends LevelObject {
             throw new IllegalArgumentException("Platform must have a width and height divisible by " + OBJ_SCALE);
 
         this.texture = texture;
+        this.initialColor = color;
         setColor(color);
     }
 
@@ -46,6 +52,17 @@ public class PlatformEntity extends LevelObject {
 
     @Override
     protected void onRender(GraphicsContext g, float x, float y) {
+        if (!baked) drawTiles(g, x, y);
+    }
+
+    /**
+     * Tiles this platform's texture over its hitbox.
+     *
+     * @param g the graphical context to render to.
+     * @param x the x position to render the platform at
+     * @param y the y position to render the platform at
+     */
+    public void drawTiles(GraphicsContext g, float x, float y) {
         g.setFill(Colors.FOREGROUND_TRANS_40);
         if (w > h) { // render right
             for (int i = 0; i < w / OBJ_SCALE; i++) {
@@ -68,6 +85,16 @@ public class PlatformEntity extends LevelObject {
 
     }
 
+    /**
+     * Marks this platform as baked into a static layer (e.g. a {@link com.logandhillon.logangamelib.gfx.BakedLayer}),
+     * so it will no longer render itself.
+     *
+     * @param baked true if something else is rendering this platform
+     */
+    public void setBaked(boolean baked) {
+        this.baked = baked;
+    }
+
     public LevelProto.Color getColor() {
         return color;
     }
@@ -81,6 +108,43 @@ public class PlatformEntity extends LevelObject {
                     color == LevelProto.Color.BLUE ? Colors.PLAYER_BLUE : null;
     }
 
+    /**
+     * Recolors this platform's texture in both colors, as it may be inverted.
+     */
+    @Override
+    public void prepare() {
+        if (tint == null) return;
+        texture.warm(Colors.PLAYER_RED);
+        texture.warm(Colors.PLAYER_BLUE);
+    }
+
+    /**
+     * Restores this platform's color from before it was ever inverted.
+     */
+    @Override
+    public void reset() {
+        setColor(initialColor);
+    }
+
+    /**
+     * @return the size of this platform's state: its color
+     */
+    @Override
+    public int getStateSize() {
+        return 1;
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+        out.put((byte)(color == null ? -1 : color.getNumber()));
+    }
+
+    @Override
+    public void loadState(ByteBuffer in) {
+        byte color = in.get();
+        setColor(color < 0 ? null : LevelProto.Color.forNumber(color));
+    }
+
     /**
      * Inverts the color from RED to BLUE, or does nothing if the color is NONE.
      */
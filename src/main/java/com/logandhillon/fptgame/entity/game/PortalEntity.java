@@ -41,6 +41,11 @@ public class PortalEntity extends LevelObject {
         anim.onUpdate(dt);
     }
 
+    @Override
+    public void prepare() {
+        anim.warm(color);
+    }
+
     @Override
     public void onDestroy() {
 
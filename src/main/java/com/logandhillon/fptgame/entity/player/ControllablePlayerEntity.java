@@ -52,9 +52,9 @@ public class ControllablePlayerEntity extends PlayerEntity {
             !buttonPressed) {
             LOG.info("Button pressed");
             buttonPressed = true;
-            if (listener != null) listener.onButtonPressed();
             // since the player can only be in a level, cast to LevelScene and trigger button press.
-            ((LevelScene)parent).onButtonPressed();
+            LevelScene level = (LevelScene)parent;
+            if (listener == null || listener.onButtonPressed(level.getLevelTick())) level.onButtonPressed();
         }
     }
 
@@ -4,6 +4,7 @@ import com.logandhillon.fptgame.entity.game.LevelButtonEntity;
 import com.logandhillon.fptgame.entity.game.PlatformEntity;
 import com.logandhillon.fptgame.entity.game.PortalEntity;
 import com.logandhillon.fptgame.networking.proto.LevelProto;
+import com.logandhillon.fptgame.networking.proto.PlayerProto;
 import com.logandhillon.fptgame.resource.Colors;
 import com.logandhillon.fptgame.resource.Sounds;
 import com.logandhillon.fptgame.resource.Textures;
@@ -14,6 +15,8 @@ import com.logandhillon.logangamelib.gfx.AnimationSequence;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.function.Predicate;
 
 /**
@@ -28,18 +31,28 @@ public class PlayerEntity extends PhysicsEntity {
     private static final int   Y_OFFSET      = 12;
     private static final float STRIDE_LENGTH = 60f; // px per footstep
 
+    private static final AnimationState[] ANIMATION_STATES = AnimationState.values();
+
     private final   LevelProto.Color  color;
     private final   Color             tint;
     protected final PlayerInputSender listener;
     private final   float             spawnX;
     private final   float             spawnY;
 
-    private AnimationSequence texture = Textures.ANIM_PLAYER_IDLE.instance();
+    // an instance of every animation, by AnimationState, so switching between them does not allocate
+    private final AnimationSequence[] animations = {
+            Textures.ANIM_PLAYER_IDLE.instance(), Textures.ANIM_PLAYER_JUMP.instance(),
+            Textures.ANIM_PLAYER_RUN_LEFT.instance(), Textures.ANIM_PLAYER_RUN_RIGHT.instance() };
+
+    private AnimationSequence texture = animations[AnimationState.IDLE.ordinal()];
     private AnimationState    state   = AnimationState.IDLE;
 
     private int     moveDirection = 0; // left=-1, 0=none, 1=right
     private boolean didJump;
     private float   lastFootstepX = -100;
+    private boolean remote; // if this player is positioned by the network, instead of simulating its own physics
+    private boolean remoteGrounded;
+    private boolean hidden; // if this player is too far away for us to know where it is
 
     public PlayerEntity(float x, float y, int color, PlayerInputSender listener) {
         super(x, y, 42, 72);
@@ -54,11 +67,66 @@ public class PlayerEntity extends PhysicsEntity {
 
     @Override
     protected void onRender(GraphicsContext g, float x, float y) {
+        if (hidden) return;
+
         // render the active texture
         if (state == AnimationState.JUMP) texture.drawFrame(g, 0, x, y - Y_OFFSET, w, h + Y_OFFSET, tint);
         else texture.draw(g, x, y - Y_OFFSET, w, h + Y_OFFSET, tint);
     }
 
+    @Override
+    public void prepare() {
+        Textures.ANIM_PLAYER_IDLE.warm(tint);
+        Textures.ANIM_PLAYER_JUMP.warm(tint);
+        Textures.ANIM_PLAYER_RUN_LEFT.warm(tint);
+        Textures.ANIM_PLAYER_RUN_RIGHT.warm(tint);
+    }
+
+    /**
+     * Respawns this player, standing still, without playing the respawn sound.
+     */
+    @Override
+    public void reset() {
+        teleport(spawnX, spawnY);
+        stop();
+        setMoveDirection(0);
+        didJump = false;
+        lastFootstepX = -100;
+        setAnimation(AnimationState.IDLE);
+    }
+
+    /**
+     * @return the size of this player's state: its body (see {@link PhysicsEntity#getStateSize()}), move direction,
+     * footsteps, grounding (if remote), and animation
+     */
+    @Override
+    public int getStateSize() {
+        return super.getStateSize() + 2 * Float.BYTES + Integer.BYTES + 3;
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+        super.saveState(out);
+        out.put((byte)moveDirection)
+           .put((byte)((didJump ? 1 : 0) | (remoteGrounded ? 2 : 0)))
+           .putFloat(lastFootstepX)
+           .put((byte)state.ordinal())
+           .putInt(texture.getFrame())
+           .putFloat(texture.getTimer());
+    }
+
+    @Override
+    public void loadState(ByteBuffer in) {
+        super.loadState(in);
+        moveDirection = in.get();
+        byte flags = in.get();
+        didJump = (flags & 1) != 0;
+        remoteGrounded = (flags & 2) != 0;
+        lastFootstepX = in.getFloat();
+        setAnimation(ANIMATION_STATES[in.get()]);
+        texture.setFrame(in.getInt(), in.getFloat());
+    }
+
     @Override
     public void onDestroy() {
 
@@ -66,19 +134,16 @@ public class PlayerEntity extends PhysicsEntity {
 
     @Override
     public void onUpdate(float dt) {
-        super.onUpdate(dt);
+        if (!remote) super.onUpdate(dt); // also moves the player based on move direction, see getMoveVelocityX()
         texture.onUpdate(dt);
 
-        // move player based on move direction
-        if (Math.abs(moveDirection) > 0) x += MOVE_SPEED * dt * moveDirection;
-
         // handle player falling out of map
         if (y > 2000) {
-            Sounds.playSfx(Sounds.GAME_RESPAWN);
-            setPosition(spawnX, spawnY);
+            if (!isSilent()) Sounds.playSfx(Sounds.GAME_RESPAWN);
+            teleport(spawnX, spawnY);
             this.vx = 0;
             this.vy = 0;
-            setMoveDirection(0); // update position and communicate to peer
+            setMoveDirection(0);
         }
 
         // update animation state
@@ -88,31 +153,36 @@ public class PlayerEntity extends PhysicsEntity {
         else if (moveDirection < 0) setAnimation(AnimationState.WALK_LEFT);
         else if (state != AnimationState.JUMP) setAnimation(AnimationState.IDLE);
 
-        // play sounds
+        // play sounds (still tracking them while re-simulating, so that we end up in the same state either way)
+        if (hidden) return;
         if (isGrounded() && didJump) {
-            Sounds.playSfx(Sounds.GAME_LAND);
+            if (!isSilent()) Sounds.playSfx(Sounds.GAME_LAND);
             didJump = false;
         }
 
         if (Math.abs(lastFootstepX - x) > STRIDE_LENGTH && isGrounded()) {
-            Sounds.playSfx(Sounds.GAME_STEP);
+            if (!isSilent()) Sounds.playSfx(Sounds.GAME_STEP);
             lastFootstepX = x;
         }
     }
 
     /**
-     * Overrides the default collision handler from {@link CollisionEntity} to ignore collisions with any other
+     * Overrides the default collision filter from {@link CollisionEntity} to ignore collisions with any other
      * {@link PlayerEntity}, and also to ignore any {@link PlatformEntity} with the same color as us.
      *
-     * @see GameScene#getCollisionIf(float, float, float, float, CollisionEntity, Predicate)
+     * @see GameScene#getCollisionCandidates(float, float, float, float, CollisionEntity, Predicate, List)
      */
     @Override
-    protected CollisionEntity getCollisionAt(float x, float y, float w, float h, CollisionEntity caller) {
-        return parent.getCollisionIf(
-                x, y, w, h, caller, e -> !(e instanceof PlayerEntity) &&
-                                         (!(e instanceof PlatformEntity p) || p.getColor() != color) &&
-                                         !(e instanceof LevelButtonEntity) &&
-                                         !(e instanceof PortalEntity));
+    protected boolean collidesWith(CollisionEntity e) {
+        return !(e instanceof PlayerEntity) &&
+               (!(e instanceof PlatformEntity p) || p.getColor() != color) &&
+               !(e instanceof LevelButtonEntity) &&
+               !(e instanceof PortalEntity);
+    }
+
+    @Override
+    protected float getMoveVelocityX() {
+        return MOVE_SPEED * moveDirection;
     }
 
     /**
@@ -134,7 +204,6 @@ public class PlayerEntity extends PhysicsEntity {
      */
     public void setMoveDirection(int dir) {
         moveDirection = dir;
-        if (listener != null) listener.onMove(dir, x, y, vx, vy);
     }
 
     /**
@@ -146,6 +215,106 @@ public class PlayerEntity extends PhysicsEntity {
         return moveDirection;
     }
 
+    public LevelProto.Color getColor() {
+        return color;
+    }
+
+    /**
+     * @return this player's position, velocity and move direction, as a protobuf
+     */
+    public PlayerProto.PlayerState getState() {
+        return PlayerProto.PlayerState.newBuilder()
+                                      .setX(x).setY(y)
+                                      .setVx(vx).setVy(vy)
+                                      .setDirection(moveDirection)
+                                      .setGrounded(isGrounded())
+                                      .build();
+    }
+
+    /**
+     * Snaps this player to an authoritative state.
+     *
+     * @param state         the state from the host
+     * @param withDirection if the move direction should also be set; this should be false for a player whose input is
+     *                      local, as it is already up-to-date
+     */
+    public void applyState(PlayerProto.PlayerState state, boolean withDirection) {
+        teleport(state.getX(), state.getY());
+        vx = state.getVx();
+        vy = state.getVy();
+        if (withDirection) moveDirection = state.getDirection();
+    }
+
+    /**
+     * Makes this player be positioned by the network (e.g. from a
+     * {@link com.logandhillon.logangamelib.networking.SnapshotBuffer}) instead of simulating its own physics. Only its
+     * animations and sounds are updated.
+     *
+     * @param remote if this player is remote
+     */
+    public void setRemote(boolean remote) {
+        this.remote = remote;
+    }
+
+    /**
+     * Hides (or shows) this player, e.g. while a remote player is out of range and not being sent to us. A hidden
+     * player is still updated, but is not rendered and plays no sounds.
+     *
+     * @param hidden if this player is hidden
+     */
+    public void setHidden(boolean hidden) {
+        this.hidden = hidden;
+    }
+
+    /**
+     * Updates the parts of a remote player's state that are not interpolated, which drive its animations.
+     *
+     * @param state the state from the host
+     */
+    public void setRemoteState(PlayerProto.PlayerState state) {
+        moveDirection = state.getDirection();
+        remoteGrounded = state.getGrounded();
+    }
+
+    @Override
+    public boolean isGrounded() {
+        return remote ? remoteGrounded : super.isGrounded();
+    }
+
+    /**
+     * Re-simulates one tick of input without any of the side effects of a normal tick (sounds, animations, network),
+     * e.g. to replay predicted input after a correction from the host.
+     *
+     * @param input the input to apply
+     * @param dt    the length of the tick (seconds)
+     */
+    public void replay(PlayerProto.PlayerInput input, float dt) {
+        applyInput(input.getDirection(), input.getJump());
+        super.onUpdate(dt); // physics only
+    }
+
+    /**
+     * Applies one tick of input to this player, before the tick is simulated, without any side effects (e.g. sounds, or
+     * network). Applying the same input twice has the same effect as applying it once.
+     *
+     * @param direction the move direction (-1=left, 0=none, 1=right)
+     * @param jump      if the player jumped
+     */
+    public void applyInput(int direction, boolean jump) {
+        moveDirection = direction;
+        if (jump && isGrounded()) {
+            vy = -JUMP_POWER;
+            didJump = true;
+        }
+    }
+
+    /**
+     * @return true if this player should not play sounds, as it is hidden or its tick is being re-simulated
+     */
+    private boolean isSilent() {
+        return hidden || (parent != null && parent.isResimulating());
+    }
+
     /**
      * Safely updates the active {@link AnimationState} and the currently visible {@link PlayerEntity#texture}.
      * <p>
@@ -157,12 +326,8 @@ public class PlayerEntity extends PhysicsEntity {
         if (this.state == state) return;
 
         this.state = state;
-        switch (state) {
-            case IDLE -> texture = Textures.ANIM_PLAYER_IDLE.instance();
-            case JUMP -> texture = Textures.ANIM_PLAYER_JUMP.instance();
-            case WALK_LEFT -> texture = Textures.ANIM_PLAYER_RUN_LEFT.instance();
-            case WALK_RIGHT -> texture = Textures.ANIM_PLAYER_RUN_RIGHT.instance();
-        }
+        texture = animations[state.ordinal()];
+        texture.restart();
     }
 
     /**
@@ -4,31 +4,58 @@ import com.logandhillon.fptgame.GameHandler;
 import com.logandhillon.fptgame.networking.GameClient;
 import com.logandhillon.fptgame.networking.GamePacket;
 import com.logandhillon.fptgame.networking.GameServer;
+import com.logandhillon.fptgame.networking.PeerCommand;
 import com.logandhillon.fptgame.networking.proto.PlayerProto;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
 
 /**
- * Network player movement listener, which listens for movements and uses an abstract {@link Communicator} to send them
- * over the network to the correct recipient.
+ * Network player input listener, which samples the local player's input and uses an abstract {@link Communicator} to
+ * send it (and the host's authoritative state) over the network to the correct recipient.
+ * <p>
+ * Packets are only queued, and are sent together when the level flushes the connection at the end of the tick, so
+ * input never blocks a frame.
  *
  * @author Logan Dhillon
  */
 public class PlayerInputSender {
     private static final Logger LOG = LoggerContext.getContext().getLogger(PlayerInputSender.class);
 
-    private final Communicator communicator;
+    private final Communicator           communicator;
+    private final UnreliableCommunicator unreliable;
+
+    private final boolean                             rollback;
+    private final boolean                             host; // if presses are ours to make, or to ask the host for
+    private final PlayerProto.PlayerInputBatch.Builder peerBatch; // rollback only: reused for every batch of inputs
+
+    private boolean jumped; // if the player jumped since the last input was sampled
+    private boolean pressedButton; // rollback only: if the player pressed a button since the last input was sampled
 
     /**
      * Creates a new input sender based on the {@link GameHandler.NetworkRole} available in the {@link GameHandler}
      */
     public PlayerInputSender() {
+        this(false);
+    }
+
+    /**
+     * Creates a new input sender based on the {@link GameHandler.NetworkRole} available in the {@link GameHandler}
+     *
+     * @param rollback if this is for a rollback match, where button presses are sent as part of the player's input
+     *                 instead of on their own, see {@link com.logandhillon.fptgame.scene.RollbackLevelScene}
+     */
+    public PlayerInputSender(boolean rollback) {
+        this.rollback = rollback;
+        this.peerBatch = rollback ? PlayerProto.PlayerInputBatch.newBuilder() : null;
+        this.host = GameHandler.getNetworkRole() == GameHandler.NetworkRole.SERVER;
         if (GameHandler.getNetworkRole() == GameHandler.NetworkRole.SERVER) {
             LOG.info("Creating communicator as server");
-            this.communicator = GameHandler.getServer()::broadcast;
+            this.communicator = GameHandler.getServer()::queueBroadcast;
+            this.unreliable = GameHandler.getServer()::sendUnreliable;
         } else if (GameHandler.getNetworkRole() == GameHandler.NetworkRole.CLIENT) {
             LOG.info("Creating communicator as client");
-            this.communicator = GameHandler.getClient()::sendServer;
+            this.communicator = GameHandler.getClient()::queueServer;
+            this.unreliable = GameHandler.getClient()::sendUnreliable;
         } else {
             throw new IllegalStateException(
                     "GameHandler is neither SERVER nor CLIENT, cannot create PlayerInputSender");
@@ -36,46 +63,121 @@ public class PlayerInputSender {
     }
 
     /**
-     * Sends a jump packet to the {@link Communicator}
+     * Records that the player jumped, to be sent with the next sampled input.
      */
     public void onJump() {
-        communicator.send(new GamePacket(GamePacket.Type.COM_JUMP));
+        jumped = true;
     }
 
     /**
-     * Sends movement packets to the {@link Communicator}, which contain the direction (as the packet type) and the
-     * {@link com.logandhillon.fptgame.networking.proto.PlayerProto.PlayerMovementData} (positions, velocities, etc.)
+     * Samples the player's input for a tick. This should be called once per tick, before the tick is simulated.
+     *
+     * @param tick      the tick this input is for
+     * @param direction the player's move direction (-1=left, 0=none, 1=right)
+     *
+     * @return the sampled input
      */
-    public void onMove(int direction, float x, float y, float vx, float vy) {
-        communicator.send(new GamePacket(switch (direction) {
-            case -1 -> GamePacket.Type.COM_MOVE_L;
-            case 0 -> GamePacket.Type.COM_STOP_MOVING;
-            case 1 -> GamePacket.Type.COM_MOVE_R;
-            default -> throw new IllegalStateException("Illegal direction: " + direction);
-        }, PlayerProto.PlayerMovementData.newBuilder()
-                                         .setX(x).setY(y)
-                                         .setVx(vx).setVy(vy)
-                                         .build()));
+    public PlayerProto.PlayerInput sampleInput(long tick, int direction) {
+        var input = PlayerProto.PlayerInput.newBuilder()
+                                           .setTick((int)tick)
+                                           .setDirection(direction)
+                                           .setJump(jumped)
+                                           .setPressButton(pressedButton)
+                                           .build();
+        jumped = false;
+        pressedButton = false;
+        return input;
     }
 
     /**
-     * Called when the player INTERACTS with a {@link com.logandhillon.fptgame.entity.game.LevelButtonEntity}; sends the
-     * packet over the {@link Communicator}
+     * Sends the player's most recent inputs to the {@link UnreliableCommunicator}.
+     *
+     * @param inputs          the most recent inputs, oldest first
+     * @param ackStateTick    the host tick of the newest world state snapshot received
+     * @param requestKeyframe if the host should send a full snapshot
+     * @param tick            the tick they are sent on
      */
-    public void onButtonPressed() {
-        communicator.send(new GamePacket(GamePacket.Type.COM_PRESS_BUTTON));
+    public void sendInputs(Iterable<PlayerProto.PlayerInput> inputs, int ackStateTick, boolean requestKeyframe,
+                           long tick) {
+        unreliable.send(new GamePacket(GamePacket.Type.CLT_INPUT,
+                                       PlayerProto.PlayerInputBatch.newBuilder()
+                                                                   .addAllInputs(inputs)
+                                                                   .setAckStateTick(ackStateTick)
+                                                                   .setRequestKeyframe(requestKeyframe)
+                                                                   .build()), tick);
+    }
+
+    /**
+     * Rollback only: sends the player's inputs that the peer doesn't have yet to the {@link UnreliableCommunicator}.
+     *
+     * @param inputs       the player's inputs by tick (mod the length of the array), which are reused between sends
+     * @param from         the tick of the oldest input to send
+     * @param to           the tick of the newest input to send
+     * @param ackInputTick the tick of the newest of the peer's inputs received
+     * @param level        the level they are for
+     * @param tick         the tick they are sent on
+     */
+    public void sendPeerInputs(PlayerProto.PlayerInput[] inputs, long from, long to, int ackInputTick, int level,
+                               long tick) {
+        peerBatch.clear().setAckInputTick(ackInputTick).setLevel(level);
+        for (long t = from; t <= to; t++) peerBatch.addInputs(inputs[(int)(t % inputs.length)]);
+        unreliable.send(new GamePacket(GamePacket.Type.COM_INPUT, peerBatch.build()), tick);
+    }
+
+    /**
+     * Sends the authoritative state of every player to the {@link UnreliableCommunicator}.
+     *
+     * @param snapshot the world state snapshot, encoded by {@link com.logandhillon.fptgame.networking.SnapshotCodec}
+     * @param tick     the tick it is from
+     */
+    public void sendState(byte[] snapshot, long tick) {
+        unreliable.send(new GamePacket(GamePacket.Type.SRV_STATE, snapshot), tick);
+    }
+
+    /**
+     * Called when the player INTERACTS with a {@link com.logandhillon.fptgame.entity.game.LevelButtonEntity}. The host
+     * presses it now and tells the guest which tick it did, and the guest asks the host to press it, over the
+     * {@link Communicator}; with rollback, it is recorded to be sent with the next sampled input instead.
+     *
+     * @param tick the tick of the level that it was pressed on, see
+     *             {@link com.logandhillon.fptgame.scene.LevelScene#getLevelTick()}
+     *
+     * @return true if the press should be applied now; false if it is applied with the player's next input, or once
+     * the host has pressed it, instead
+     */
+    public boolean onButtonPressed(long tick) {
+        if (rollback) {
+            pressedButton = true;
+            return false;
+        }
+        communicator.send(new PeerCommand.PressButton(host ? (int)tick : -1).toPacket());
+        return host;
     }
 
     /**
      * An interface that handles communication with an anonymous party, such as a {@link GameClient} or
-     * {@link GameServer}. This interface is expected to ensure the packet is sent to the recipient.
+     * {@link GameServer}. This interface is expected to ensure the packet is sent to the recipient once the
+     * connection is next flushed.
      */
     private interface Communicator {
         /**
-         * Sends a packet to the recipient.
+         * Queues a packet to be sent to the recipient.
          *
          * @param pkt packet to send
          */
         void send(GamePacket pkt);
     }
+
+    /**
+     * Like a {@link Communicator}, but for packets that a newer one will supersede, which may be lost or dropped.
+     */
+    private interface UnreliableCommunicator {
+        /**
+         * Sends a packet to the recipient, which may not arrive.
+         *
+         * @param pkt  packet to send
+         * @param tick the tick the packet was produced on
+         */
+        void send(GamePacket pkt, long tick);
+    }
 }
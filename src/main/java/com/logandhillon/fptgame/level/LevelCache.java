@@ -0,0 +1,118 @@
+package com.logandhillon.fptgame.level;
+
+import com.google.protobuf.ByteString;
+import com.logandhillon.fptgame.networking.proto.LevelProto;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps levels by the hash of their content, so that a level only has to be sent over the network once, after which it
+ * is only referred to by its hash.
+ * <p>
+ * A level's hash is the SHA-256 hash of its {@link LevelProto.LevelData} without its next level (which would otherwise
+ * carry every later level with it), and levels are always kept without it. Levels are cached in memory, and levels
+ * received from a server are also saved to disk, so they are not sent again after the game restarts.
+ *
+ * @author Logan Dhillon
+ */
+public final class LevelCache {
+    private static final Logger LOG = LoggerContext.getContext().getLogger(LevelCache.class);
+    private static final File   DIR = new File("levels");
+
+    private static final Map<ByteString, LevelProto.LevelData> levels = new ConcurrentHashMap<>();
+
+    private LevelCache() {}
+
+    /**
+     * Caches a level in memory (but not on disk), e.g. one that this server is about to announce.
+     *
+     * @param level the level, which may have a next level (it is not cached)
+     *
+     * @return the level's hash
+     */
+    public static ByteString put(LevelProto.LevelData level) {
+        LevelProto.LevelData flat = level.toBuilder().clearNextLevel().build();
+        ByteString hash = hash(flat.toByteArray());
+        levels.putIfAbsent(hash, flat);
+        return hash;
+    }
+
+    /**
+     * Gets a level from memory, or from disk if it was saved there.
+     *
+     * @param hash the level's hash
+     *
+     * @return the level (without its next level), or null if it is not cached
+     */
+    public static LevelProto.LevelData get(ByteString hash) {
+        LevelProto.LevelData level = levels.get(hash);
+        if (level != null) return level;
+
+        File file = getFile(hash);
+        if (!file.exists()) return null;
+
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] data = in.readAllBytes();
+            if (!hash(data).equals(hash)) {
+                LOG.warn("Cached level {} is corrupt, ignoring it", file.getName());
+                return null;
+            }
+            level = LevelProto.LevelData.parseFrom(data);
+        } catch (IOException e) {
+            LOG.error("Failed to load cached level from {}", file.getAbsolutePath(), e);
+            return null;
+        }
+
+        levels.put(hash, level);
+        return level;
+    }
+
+    /**
+     * Caches a level that was received from a server, in memory and on disk.
+     *
+     * @param hash the hash the server announced the level by
+     * @param data the level's encoded {@link LevelProto.LevelData}
+     *
+     * @return the level
+     *
+     * @throws IOException if the data does not match the hash, or is not a level
+     */
+    public static LevelProto.LevelData store(ByteString hash, byte[] data) throws IOException {
+        if (!hash(data).equals(hash)) throw new IOException("Level does not match its hash");
+        LevelProto.LevelData level = LevelProto.LevelData.parseFrom(data);
+        levels.put(hash, level);
+
+        File file = getFile(hash);
+        //noinspection ResultOfMethodCallIgnored
+        DIR.mkdirs();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+            LOG.info("Saved level '{}' to {}", level.getLevelName(), file.getAbsolutePath());
+        } catch (IOException e) {
+            LOG.warn("Failed to save level to {}, it will only be cached in memory", file.getAbsolutePath(), e);
+        }
+        return level;
+    }
+
+    private static File getFile(ByteString hash) {
+        return new File(DIR, HexFormat.of().formatHex(hash.toByteArray()) + ".level");
+    }
+
+    private static ByteString hash(byte[] data) {
+        try {
+            return ByteString.copyFrom(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e); // every JVM must support it
+        }
+    }
+}
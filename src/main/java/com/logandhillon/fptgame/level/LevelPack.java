@@ -0,0 +1,93 @@
+package com.logandhillon.fptgame.level;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.logandhillon.fptgame.networking.proto.LevelProto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A pack of levels that were compiled at build time (see {@code LevelPackCompiler}), which are only decoded when they
+ * are played, so that neither startup time nor memory grows with how many levels there are.
+ * <p>
+ * The pack is an index followed by every level, encoded as a {@link LevelProto.LevelData}. Instead of carrying its next
+ * level, a level refers to it by its index in the pack ({@code next_level_index}).
+ *
+ * @author Logan Dhillon
+ */
+public class LevelPack {
+    private static final int MAGIC       = 0x4650544C; // "FPTL"
+    private static final int VERSION     = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE  = 16; // offset, length, name offset, name length
+
+    private final ByteBuffer data;
+    private final int        count;
+
+    /**
+     * @param data the compiled pack, which is only read from (never moved or modified), so it may be shared
+     *
+     * @throws IllegalArgumentException if the data is not a level pack of this version
+     */
+    public LevelPack(ByteBuffer data) {
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("Not a level pack");
+        if (data.getInt(4) != VERSION)
+            throw new IllegalArgumentException("Level pack is version " + data.getInt(4) + ", expected " + VERSION);
+
+        this.data = data;
+        this.count = data.getInt(8);
+        if (data.limit() < HEADER_SIZE + ENTRY_SIZE * count)
+            throw new IllegalArgumentException("Level pack is truncated");
+    }
+
+    /**
+     * Decodes a level from the pack.
+     *
+     * @param index the level's index in the pack
+     *
+     * @return the level, whose next level is referred to by its index
+     *
+     * @throws IndexOutOfBoundsException if there is no such level
+     * @throws IllegalStateException     if the level is malformed
+     */
+    public LevelProto.LevelData get(int index) {
+        int entry = entry(index);
+        try {
+            return LevelProto.LevelData.parseFrom(data.slice(data.getInt(entry), data.getInt(entry + 4)));
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Level " + index + " of the level pack is malformed", e);
+        }
+    }
+
+    /**
+     * Finds a level by its name in the pack (that of the file it was defined in, not its level name).
+     *
+     * @param name the level's name
+     *
+     * @return the level's index in the pack
+     *
+     * @throws IllegalArgumentException if there is no such level
+     */
+    public int indexOf(String name) {
+        byte[] wanted = name.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < count; i++) {
+            int entry = entry(i);
+            if (data.slice(data.getInt(entry + 8), data.getInt(entry + 12)).equals(ByteBuffer.wrap(wanted))) return i;
+        }
+        throw new IllegalArgumentException("No level '" + name + "' in the level pack");
+    }
+
+    /**
+     * @return how many levels are in the pack
+     */
+    public int size() {
+        return count;
+    }
+
+    private int entry(int index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("No level " + index + " in the level pack");
+        return HEADER_SIZE + ENTRY_SIZE * index;
+    }
+}
@@ -0,0 +1,265 @@
+package com.logandhillon.fptgame.networking;
+
+import com.logandhillon.fptgame.GameHandler;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Measures the round-trip time to a peer, and maps our clock onto the host's, so that both peers share one match clock.
+ * <p>
+ * Each peer pings the other periodically over the existing connection, and the other answers with when it received
+ * and answered the ping (on its own clock). As in NTP, each exchange gives a round-trip time (not counting how long the
+ * peer took to answer) and an estimate of the offset between the two clocks, which is only accurate if the ping took
+ * as long to get there as the pong took to get back. So, of the last few exchanges, the offset of the one with the
+ * lowest round-trip time is used, as it was delayed the least (e.g. by queueing behind other packets). The round-trip
+ * time is smoothed, and its variation is tracked as jitter, as in TCP.
+ * <p>
+ * The host's clock is the match clock: the host's sync is a reference, which only measures round-trip time, and the
+ * guest's estimates the host's clock.
+ * <p>
+ * The pings double as heartbeats, so that a connection that is silently dead (e.g. half-open, after the peer's Wi-Fi
+ * dropped) is noticed within a few seconds, instead of once TCP gives up on it: if nothing at all is heard from the
+ * peer for longer than the configured timeout, its connection is considered dead.
+ *
+ * @author Logan Dhillon
+ * @see com.logandhillon.fptgame.GameHandler#getClock()
+ */
+public class ClockSync {
+    private static final Logger LOG                = LoggerContext.getContext().getLogger(ClockSync.class);
+    private static final int    SAMPLES            = 8; // exchanges that the offset is picked from
+    private static final long   PING_INTERVAL      = 1000; // ms between pings, once synced
+    private static final long   FAST_PING_INTERVAL = 100; // ms between pings, until synced
+    private static final double RTT_GAIN           = 1 / 8.0; // weight of each new round-trip time (RFC 6298)
+    private static final double JITTER_GAIN        = 1 / 4.0; // weight of each new deviation (RFC 6298)
+    private static final int    JITTER_MARGIN      = 4; // deviations to buffer for
+    static final         long   DEFAULT_TIMEOUT    = 5000; // ms of silence before the peer is considered gone
+    private static final long   MIN_TIMEOUT        = 3 * PING_INTERVAL; // so that a few pings may be lost
+
+    /**
+     * A reference clock (our own) that has no peer, for when we are not connected to one.
+     */
+    public static final ClockSync LOCAL = new ClockSync(true);
+
+    private final boolean reference; // if our clock is the match clock
+
+    // the round-trip time and offset (ns) of the last few exchanges
+    private final long[] rtts    = new long[SAMPLES];
+    private final long[] offsets = new long[SAMPLES];
+    private       int    samples;
+
+    private volatile long   offset; // ns to add to our clock to get the match clock
+    private volatile double rtt; // smoothed round-trip time (ns)
+    private volatile double jitter; // smoothed deviation of the round-trip time (ns)
+    private volatile int    synced; // exchanges so far, up to SAMPLES
+
+    private volatile long    lastHeard = System.nanoTime(); // when we last received anything from the peer
+    private volatile boolean silent; // if the peer has been silent for too long, since we last heard from it
+
+    private Thread pinger;
+
+    /**
+     * @param reference true if our clock is the match clock (i.e. we are the host), false to estimate the peer's
+     */
+    public ClockSync(boolean reference) {
+        this.reference = reference;
+    }
+
+    /**
+     * Starts pinging the peer in the background: quickly at first, until this is synced, then once a second.
+     *
+     * @param send     sends a packet to the peer without waiting for the end of the tick, or does nothing if there is
+     *                 no peer yet
+     * @param onSilent called (on the pinging thread) when we have not heard from the peer for longer than the
+     *                 {@link ClockSync#getTimeout() timeout}; this is only called again once we have heard from it
+     */
+    public void start(Consumer<GamePacket> send, Runnable onSilent) {
+        if (pinger != null && pinger.isAlive()) return;
+
+        long timeout = getTimeout() * 1_000_000; // ns
+        pinger = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    send.accept(ping());
+                    //noinspection BusyWait
+                    Thread.sleep(isSynced() ? PING_INTERVAL : FAST_PING_INTERVAL);
+
+                    if (!silent && System.nanoTime() - lastHeard > timeout) {
+                        silent = true;
+                        onSilent.run();
+                    }
+                }
+            } catch (InterruptedException ignored) {
+            } catch (RuntimeException e) {
+                LOG.warn("Stopped pinging peer", e);
+            }
+        }, "ClockSync");
+        pinger.setDaemon(true);
+        pinger.start();
+    }
+
+    /**
+     * Stops pinging the peer.
+     */
+    public void stop() {
+        if (pinger != null) {
+            pinger.interrupt();
+            pinger = null;
+        }
+    }
+
+    /**
+     * Forgets every measurement, e.g. as we are now connected to a different peer, and counts as hearing from it.
+     */
+    public synchronized void reset() {
+        lastHeard = System.nanoTime();
+        silent = false;
+        samples = 0;
+        synced = 0;
+        offset = 0;
+        rtt = 0;
+        jitter = 0;
+    }
+
+    /**
+     * Handles a ping or pong from the peer. This should be called with every packet from the peer (which all count as
+     * heartbeats), on the thread that received it, as soon as it is received, so that it is timed accurately.
+     *
+     * @param packet the packet from the peer
+     * @param reply  sends a packet back to the peer without waiting for the end of the tick
+     *
+     * @return true if the packet was a ping or pong, false if it should be handled elsewhere
+     */
+    public boolean onPacket(GamePacket packet, Consumer<GamePacket> reply) {
+        lastHeard = System.nanoTime();
+        silent = false;
+
+        switch (packet.type()) {
+            case COM_PING -> {
+                GamePacket pong = pong(packet);
+                if (pong != null) reply.accept(pong);
+                return true;
+            }
+            case COM_PONG -> {
+                long received = System.nanoTime();
+                if (packet.payload().length != 3 * Long.BYTES) {
+                    LOG.warn("Ignoring pong of {} bytes", packet.payload().length);
+                    return true;
+                }
+                ByteBuffer buf = ByteBuffer.wrap(packet.payload());
+                addSample(buf.getLong(), buf.getLong(), buf.getLong(), received);
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Answers a ping from a peer, with when (on our clock) we received and answered it.
+     *
+     * @param ping the ping
+     *
+     * @return the pong to send back, or null if the ping is malformed
+     */
+    public static GamePacket pong(GamePacket ping) {
+        long received = System.nanoTime();
+        if (ping.payload().length != Long.BYTES) {
+            LOG.warn("Ignoring ping of {} bytes", ping.payload().length);
+            return null;
+        }
+        long sent = ByteBuffer.wrap(ping.payload()).getLong();
+        return new GamePacket(GamePacket.Type.COM_PONG, ByteBuffer.allocate(3 * Long.BYTES)
+                                                                  .putLong(sent)
+                                                                  .putLong(received)
+                                                                  .putLong(System.nanoTime())
+                                                                  .array());
+    }
+
+    private static GamePacket ping() {
+        byte[] sent = ByteBuffer.allocate(Long.BYTES).putLong(System.nanoTime()).array();
+        return new GamePacket(GamePacket.Type.COM_PING, sent);
+    }
+
+    /**
+     * Adds the result of one exchange.
+     *
+     * @param t0 when we sent the ping (our clock)
+     * @param t1 when the peer received it (its clock)
+     * @param t2 when the peer answered it (its clock)
+     * @param t3 when we received the answer (our clock)
+     */
+    private synchronized void addSample(long t0, long t1, long t2, long t3) {
+        long sampleRtt = (t3 - t0) - (t2 - t1);
+        if (sampleRtt < 0) return; // the peer's clock can't go backwards, so this is not from our ping
+
+        int i = samples++ % SAMPLES;
+        rtts[i] = sampleRtt;
+        offsets[i] = ((t1 - t0) + (t2 - t3)) / 2;
+
+        // the offset of the exchange that was delayed the least is the most accurate
+        int best = 0, n = Math.min(samples, SAMPLES);
+        for (int j = 1; j < n; j++) if (rtts[j] < rtts[best]) best = j;
+        offset = offsets[best];
+
+        if (synced == 0) {
+            rtt = sampleRtt;
+            jitter = sampleRtt / 2.0;
+        } else {
+            jitter += (Math.abs(rtt - sampleRtt) - jitter) * JITTER_GAIN;
+            rtt += (sampleRtt - rtt) * RTT_GAIN;
+        }
+        synced = n;
+    }
+
+    /**
+     * @return how long (ms) the peer may be silent before its connection is considered dead, as configured
+     */
+    public static long getTimeout() {
+        int timeout = GameHandler.getUserConfig().getPeerTimeout();
+        return timeout > 0 ? Math.max(timeout, MIN_TIMEOUT) : DEFAULT_TIMEOUT;
+    }
+
+    /**
+     * @return the current time on the match clock (ns), i.e. the host's {@link System#nanoTime()}; this is only
+     * comparable with other times from the match clock
+     */
+    public long now() {
+        return reference ? System.nanoTime() : System.nanoTime() + offset;
+    }
+
+    /**
+     * @return true once we have measured enough exchanges for the match clock and round-trip time to be accurate
+     */
+    public boolean isSynced() {
+        return synced >= SAMPLES;
+    }
+
+    /**
+     * @return the smoothed round-trip time to the peer (seconds), or 0 if it has not been measured yet
+     */
+    public float getRtt() {
+        return (float)(rtt / 1e9);
+    }
+
+    /**
+     * @return how much the round-trip time to the peer varies (seconds), or 0 if it has not been measured yet
+     */
+    public float getJitter() {
+        return (float)(jitter / 1e9);
+    }
+
+    /**
+     * Gets how many ticks of packets from the peer should be buffered to absorb the jitter in when they arrive.
+     *
+     * @param tickTime the length of a tick (seconds)
+     *
+     * @return the ticks to buffer, which is 0 if the jitter has not been measured yet
+     */
+    public int getBufferTicks(float tickTime) {
+        return (int)Math.ceil(JITTER_MARGIN * getJitter() / tickTime);
+    }
+}
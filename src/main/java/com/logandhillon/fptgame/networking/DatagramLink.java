@@ -0,0 +1,185 @@
+package com.logandhillon.fptgame.networking;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.function.Consumer;
+
+/**
+ * A datagram link is an unreliable UDP channel to the connected peer, used alongside the TCP connection for packets
+ * that are superseded by newer ones (i.e. movement), so that one lost segment does not hold back every later update.
+ * <p>
+ * Every datagram is {@code [4-byte seq][4-byte tick][1-byte flags][packet]}. Datagrams that are older than (or a
+ * duplicate of) the newest one received are dropped.
+ * <p>
+ * The link is only {@link DatagramLink#isConfirmed() confirmed} once the peer has acknowledged receiving our
+ * datagrams, so that if UDP is blocked in either direction, callers can keep falling back to TCP.
+ *
+ * @author Logan Dhillon
+ */
+public class DatagramLink implements AutoCloseable {
+    private static final Logger LOG          = LoggerContext.getContext().getLogger(DatagramLink.class);
+    private static final int    HEADER_SIZE  = 9;
+    private static final int    MAX_DATAGRAM = 1200; // stays under a typical MTU
+    private static final byte   FLAG_ACK     = 1; // sender has received datagrams from us
+
+    private final DatagramChannel      channel;
+    private final Consumer<GamePacket> handler;
+    private final Thread               receiver;
+    private final ByteBuffer           sendBuf = ByteBuffer.allocate(MAX_DATAGRAM);
+
+    private volatile InetSocketAddress remote;
+    private volatile boolean           received; // if we have received anything from the remote
+    private volatile boolean           confirmed; // if the remote has received anything from us
+
+    private int     sendSeq;
+    private int     lastSeq;
+    private boolean hasSeq;
+
+    /**
+     * Opens a datagram link and starts its receiver thread.
+     *
+     * @param port    the local port to bind to, or 0 for any
+     * @param handler called (on the receiver thread) with every in-order packet from the remote
+     *
+     * @throws IOException if the port could not be bound
+     */
+    public DatagramLink(int port, Consumer<GamePacket> handler) throws IOException {
+        this.channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        this.handler = handler;
+
+        receiver = new Thread(this::receiveLoop, "DatagramReceiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        LOG.info("Opened datagram link on port {}", getLocalPort());
+    }
+
+    /**
+     * @return the local port this link is bound to
+     */
+    public int getLocalPort() {
+        return channel.socket().getLocalPort();
+    }
+
+    /**
+     * Sets the peer to send to and receive from, resetting the sequence and confirmation state.
+     *
+     * @param remote the peer's address, or null to stop sending
+     */
+    public synchronized void setRemote(InetSocketAddress remote) {
+        LOG.info("Datagram link remote is now {}", remote);
+        this.remote = remote;
+        received = false;
+        confirmed = false;
+        hasSeq = false;
+    }
+
+    /**
+     * @return true if there is a peer to send to (even if it has not confirmed it can receive our datagrams)
+     */
+    public boolean hasRemote() {
+        return remote != null;
+    }
+
+    /**
+     * @return true if the peer has acknowledged that it receives our datagrams
+     */
+    public boolean isConfirmed() {
+        return confirmed;
+    }
+
+    /**
+     * Sends a packet to the remote, if there is one. Packets that could not be sent are lost.
+     *
+     * @param packet the packet to send
+     * @param tick   the tick the packet was produced on
+     */
+    public void send(GamePacket packet, long tick) {
+        send(ByteBuffer.wrap(packet.serialize()), tick);
+    }
+
+    /**
+     * Sends an already serialized packet to the remote, if there is one. Packets that could not be sent are lost.
+     *
+     * @param packet the serialized packet (see {@link GamePacket#serialize()}); its position is not changed
+     * @param tick   the tick the packet was produced on
+     */
+    public synchronized void send(ByteBuffer packet, long tick) {
+        InetSocketAddress remote = this.remote;
+        if (remote == null) return;
+
+        if (HEADER_SIZE + packet.remaining() > MAX_DATAGRAM) {
+            LOG.warn("Packet is too large for a datagram ({} bytes), dropping", packet.remaining());
+            return;
+        }
+
+        sendBuf.clear();
+        sendBuf.putInt(++sendSeq).putInt((int)tick).put(received ? FLAG_ACK : 0).put(packet.duplicate()).flip();
+        try {
+            channel.send(sendBuf, remote);
+        } catch (IOException e) {
+            LOG.warn("Failed to send datagram to {}", remote, e);
+        }
+    }
+
+    /**
+     * Receives datagrams from the remote until this link is closed.
+     */
+    private void receiveLoop() {
+        ByteBuffer buf = ByteBuffer.allocate(MAX_DATAGRAM);
+        try {
+            while (true) {
+                buf.clear();
+                SocketAddress from = channel.receive(buf);
+                buf.flip();
+
+                GamePacket packet = accept(from, buf);
+                if (packet != null) handler.accept(packet);
+            }
+        } catch (ClosedChannelException ignored) {
+        } catch (IOException e) {
+            LOG.error("Datagram link failed", e);
+        }
+    }
+
+    /**
+     * Checks that a datagram is from the remote and is newer than the last one received.
+     *
+     * @return the packet in the datagram, or null if it should be dropped
+     */
+    private synchronized GamePacket accept(SocketAddress from, ByteBuffer buf) {
+        if (remote == null || !remote.equals(from) || buf.remaining() < HEADER_SIZE + 5) return null;
+
+        int seq = buf.getInt();
+        buf.getInt(); // tick; ordering is done by seq, which never repeats within one sender
+        byte flags = buf.get();
+
+        received = true;
+        if ((flags & FLAG_ACK) != 0 && !confirmed) {
+            LOG.info("Datagram link to {} confirmed", remote);
+            confirmed = true;
+        }
+
+        if (hasSeq && seq - lastSeq <= 0) return null; // stale or duplicate (wrap-around safe)
+        hasSeq = true;
+        lastSeq = seq;
+
+        return GamePacket.deserialize(buf, buf.remaining());
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close datagram link", e);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.logandhillon.fptgame.networking;
+
+import com.logandhillon.fptgame.networking.proto.PlayerProto;
+import com.logandhillon.fptgame.resource.Sounds;
+import com.logandhillon.fptgame.scene.ServerLevelScene;
+import com.logandhillon.logangamelib.engine.HeadlessRunner;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A dedicated server hosts many matches headlessly (without the JavaFX toolkit, and without rendering anything), so it
+ * can run on a machine without a display. Players connect to it as {@link GameClient}s and ask to join a {@link Room}
+ * by name (or to be matched with anyone waiting); once a room is full, its match starts, and every level is simulated
+ * by a {@link ServerLevelScene} which is authoritative for both players.
+ * <p>
+ * Every connection is handled by the one selector thread, and each room's match is pinned to one of a few
+ * {@link HeadlessRunner}s (one per core), so rooms scale across cores without sharing any mutable state.
+ * <p>
+ * A connection that goes silent for longer than {@link ClockSync}'s timeout is presumed dead and dropped (every client
+ * pings us), and a player whose connection is lost in a match has their slot held for as long as a {@link GameServer}
+ * would. There is no user config on a dedicated server, so both use their defaults.
+ * <p>
+ * Levels still use JavaFX classes that do not need the toolkit (e.g. {@link javafx.scene.paint.Color}), but never load
+ * an image, as textures are only loaded once they are first drawn (see
+ * {@link com.logandhillon.logangamelib.gfx.TextureAtlas}), so the toolkit is never started.
+ *
+ * @author Logan Dhillon
+ * @see GameServer
+ */
+public class DedicatedServer extends PacketServer {
+    private static final Logger LOG              = LoggerContext.getContext().getLogger(DedicatedServer.class);
+    private static final int    MAX_ROOMS        = 1024;
+    private static final long   METRICS_INTERVAL = 60_000; // ms between metrics reports
+    private static final String AUTO_ROOM_PREFIX = "Room ";
+
+    private final Map<String, Room>     rooms       = new LinkedHashMap<>(); // by name, oldest first
+    private final Map<Connection, Room> connections = new ConcurrentHashMap<>(); // each player's room
+    private final HeadlessRunner[]      shards;
+    private final int                   roomCapacity;
+    private       int                   nextRoomId  = 1; // for naming rooms that players didn't name
+    private       Thread                metrics;
+
+    /**
+     * @param port         the TCP port to listen on
+     * @param shards       how many threads to simulate matches on
+     * @param roomCapacity how many players each match is for
+     */
+    public DedicatedServer(int port, int shards, int roomCapacity) {
+        super(port, ClockSync.DEFAULT_TIMEOUT);
+        if (roomCapacity < Room.MIN_PLAYERS || roomCapacity > Room.MAX_PLAYERS)
+            throw new IllegalArgumentException("Rooms must be for " + Room.MIN_PLAYERS + " to " + Room.MAX_PLAYERS +
+                                               " players");
+        this.roomCapacity = roomCapacity;
+        this.shards = new HeadlessRunner[shards];
+        for (int i = 0; i < shards; i++) this.shards[i] = new HeadlessRunner();
+    }
+
+    /**
+     * Runs a dedicated server until the process is terminated.
+     *
+     * @param args optionally, the port to listen on (default {@link GameServer#DEFAULT_PORT}), how many threads to
+     *             simulate matches on (default one per core), then how many players each match is for (default 2)
+     */
+    public static void main(String[] args) {
+        Thread.currentThread().setName("Main");
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : GameServer.DEFAULT_PORT;
+        int shards = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int players = args.length > 2 ? Integer.parseInt(args[2]) : Room.MIN_PLAYERS;
+
+        Sounds.setEnabled(false); // there is no one to hear them
+
+        DedicatedServer server = new DedicatedServer(port, shards, players);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.stop();
+            } catch (IOException e) {
+                LOG.error("Error stopping server during shutdown", e);
+            }
+        }, "Shutdown-Hook"));
+
+        try {
+            server.start(); // the selector thread keeps the process alive
+        } catch (IOException e) {
+            LOG.error("Failed to start dedicated server", e);
+            System.exit(1);
+        }
+        LOG.info("Dedicated server is waiting for players ({} shards, {} players per room)", shards, players);
+    }
+
+    /**
+     * Starts the shards and the metrics reporter, then the server socket.
+     *
+     * @throws IOException if the server socket fails to start.
+     */
+    @Override
+    public void start() throws IOException {
+        for (int i = 0; i < shards.length; i++) shards[i].start("Shard-" + i);
+
+        metrics = new Thread(this::reportMetrics, "Metrics");
+        metrics.setDaemon(true);
+        metrics.start();
+
+        super.start();
+    }
+
+    /**
+     * Ends every match, and tells every player that the server is shutting down before closing.
+     *
+     * @throws IOException if the socket fails to close.
+     */
+    @Override
+    public void stop() throws IOException {
+        LOG.info("Stopping dedicated server gracefully");
+        if (metrics != null) metrics.interrupt();
+
+        List<Room> closing;
+        synchronized (this) {
+            closing = new ArrayList<>(rooms.values());
+            rooms.clear();
+        }
+        for (Room room: closing) room.close();
+        connections.clear();
+
+        super.stop();
+        for (HeadlessRunner shard: shards) shard.stop();
+    }
+
+    @Override
+    protected void onPacket(Connection conn, GamePacket packet) {
+        if (packet.type() == GamePacket.Type.COM_PING) {
+            GamePacket pong = ClockSync.pong(packet); // answered right away, so that it is timed accurately
+            if (pong != null) conn.send(pong);
+            return;
+        }
+
+        Room room = connections.get(conn);
+        if (room != null && room.onPacket(conn, packet)) return;
+
+        LOG.debug("Received {} from {}", packet.type(), conn.getAddress());
+        switch (packet.type()) {
+            case CLT_REQ_CONN -> {
+                if (room == null) join(conn, packet);
+            }
+            case CLT_REQ_LEVEL -> {
+                if (room != null) LevelTransfer.send(conn, packet);
+            }
+            case CLT_DISCONNECT -> {
+                if (room != null) room.leave(conn); // they left on purpose, so their slot is not held for them
+                disconnect(conn);
+            }
+            default -> {
+                if (room != null || conn.isClosing()) return;
+                LOG.warn("Got packet from unregistered client; closing connection");
+                disconnect(conn);
+            }
+        }
+    }
+
+    /**
+     * Routes a registration request to the room it names, creating the room if it does not exist. If no room is
+     * named, the client joins the oldest room that is waiting for players, or a new one.
+     */
+    private void join(Connection conn, GamePacket packet) {
+        PlayerProto.PlayerData data;
+        try {
+            data = PlayerProto.PlayerData.parseFrom(packet.payload());
+        } catch (IOException e) {
+            LOG.warn("Received malformed registration request from {}", conn.getAddress(), e);
+            disconnect(conn);
+            return;
+        }
+        if (!data.getSessionToken().isEmpty()) {
+            resume(conn, data);
+            return;
+        }
+
+        Room room;
+        synchronized (this) {
+            room = data.getRoom().isEmpty() ? findOpenRoom() : rooms.get(data.getRoom());
+            if (room == null) {
+                if (rooms.size() >= MAX_ROOMS) {
+                    LOG.info("Denying connection from {} (too many rooms)", conn.getAddress());
+                    conn.send(new GamePacket(GamePacket.Type.SRV_DENY_CONN__FULL));
+                    conn.closeAfterFlush();
+                    return;
+                }
+                room = createRoom(data.getRoom().isEmpty() ? nextRoomName() : data.getRoom());
+            }
+
+            // register while holding the lock, so the room cannot be removed in between
+            if (!room.register(conn, data)) {
+                if (room.isEmpty()) rooms.remove(room.getName());
+                return;
+            }
+        }
+        connections.put(conn, room);
+    }
+
+    /**
+     * Gives a player their slot back on a new connection, in whichever room's match they have the session token of.
+     * Otherwise, they are denied.
+     */
+    private void resume(Connection conn, PlayerProto.PlayerData data) {
+        List<Room> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(rooms.values());
+        }
+        for (Room room: snapshot) {
+            Connection old = room.resume(conn, data);
+            if (old == null) continue;
+
+            connections.put(conn, room);
+            if (old != conn) disconnect(old); // it may be half-open, and not know it yet
+            return;
+        }
+
+        LOG.info("Denying resume from {} (no such session)", conn.getAddress());
+        conn.send(new GamePacket(GamePacket.Type.SRV_DENY_CONN__SESSION_EXPIRED));
+        conn.closeAfterFlush();
+    }
+
+    /**
+     * Creates a room, pinned to the shard with the fewest rooms.
+     */
+    private synchronized Room createRoom(String name) {
+        int[] load = new int[shards.length];
+        for (Room r: rooms.values()) load[r.getShard()]++;
+        int shard = 0;
+        for (int i = 1; i < shards.length; i++) if (load[i] < load[shard]) shard = i;
+
+        Room room = new Room(name, roomCapacity, shard, shards[shard]);
+        rooms.put(name, room);
+        LOG.info("Created room '{}' ({} rooms)", name, rooms.size());
+        return room;
+    }
+
+    /**
+     * @return the oldest room that is waiting for players, or null if there is none
+     */
+    private synchronized Room findOpenRoom() {
+        for (Room room: rooms.values()) if (room.isOpen()) return room;
+        return null;
+    }
+
+    private synchronized String nextRoomName() {
+        String name;
+        do name = AUTO_ROOM_PREFIX + nextRoomId++;
+        while (rooms.containsKey(name));
+        return name;
+    }
+
+    /**
+     * If the closed connection was a player, removes them from their room, and removes the room if it is now empty. If
+     * they were in a match, their slot is held until the grace period is over instead.
+     */
+    @Override
+    protected void onDisconnect(Connection conn) {
+        Room room = connections.remove(conn);
+        if (room == null) return;
+
+        if (room.onDisconnect(conn)) {
+            CompletableFuture.delayedExecutor(GameServer.DEFAULT_GRACE, TimeUnit.MILLISECONDS).execute(() -> {
+                room.expire(conn);
+                removeIfEmpty(room); // if nobody else was connected, there is no one else to remove it
+            });
+            return;
+        }
+        removeIfEmpty(room);
+    }
+
+    /**
+     * Removes a room if nobody is in it anymore.
+     */
+    private synchronized void removeIfEmpty(Room room) {
+        if (room.isEmpty() && rooms.get(room.getName()) == room) {
+            rooms.remove(room.getName());
+            LOG.info("Removed room '{}' ({} rooms)", room.getName(), rooms.size());
+        }
+    }
+
+    /**
+     * Logs the metrics of every room, and how many scenes each shard is running, every {@link #METRICS_INTERVAL}
+     * until the server stops.
+     */
+    private void reportMetrics() {
+        long last = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(METRICS_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            float seconds = (now - last) / 1_000_000_000f;
+            last = now;
+
+            List<Room> snapshot;
+            synchronized (this) {
+                snapshot = new ArrayList<>(rooms.values());
+            }
+            int[] load = new int[shards.length];
+            for (int i = 0; i < shards.length; i++) load[i] = shards[i].getSceneCount();
+
+            LOG.info("{} room(s), {} player(s), scenes per shard: {}", snapshot.size(), connections.size(),
+                     Arrays.toString(load));
+            for (Room room: snapshot) room.reportMetrics(seconds);
+        }
+    }
+}
@@ -1,59 +1,93 @@
 package com.logandhillon.fptgame.networking;
 
+import com.google.protobuf.ByteString;
 import com.logandhillon.fptgame.GameHandler;
+import com.logandhillon.fptgame.level.LevelCache;
 import com.logandhillon.fptgame.networking.proto.LevelProto;
 import com.logandhillon.fptgame.networking.proto.PlayerProto;
 import com.logandhillon.fptgame.scene.DynamicLevelScene;
-import com.logandhillon.fptgame.scene.LevelScene;
+import com.logandhillon.fptgame.scene.RollbackLevelScene;
 import com.logandhillon.fptgame.scene.menu.LobbyGameContent;
 import com.logandhillon.fptgame.scene.menu.MenuHandler;
+import com.logandhillon.logangamelib.engine.GameEngine;
 import com.logandhillon.logangamelib.networking.PacketWriter;
 import javafx.application.Platform;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.net.Socket;
-import java.util.LinkedList;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * A game client handles all outgoing communications to the {@link GameServer} via a valid network connection.
  * <p>
  * The client connects to a server using an {@link java.net.InetAddress} and communicates using {@link GamePacket}s.
+ * If the connection is lost (or the server goes silent, see {@link ClockSync}) during a match, the client reconnects
+ * and resumes its slot with the session token that the server issued it, see {@link GameServer}.
  *
  * @author Logan Dhillon
  * @see GameServer
  */
 public class GameClient {
-    private static final Logger LOG = LoggerContext.getContext().getLogger(GameClient.class);
+    private static final Logger LOG             = LoggerContext.getContext().getLogger(GameClient.class);
+    private static final long   RETRY_INTERVAL  = 500; // ms between attempts to reconnect
+    private static final int    CONNECT_TIMEOUT = 5000; // ms
 
-    public final Queue<GamePacket.Type> queuedPeerMovements = new LinkedList<>();
+    public final Queue<PeerCommand> inbox = new ConcurrentLinkedQueue<>(); // drained by the game loop each tick
+
+    private final ClockSync clock = new ClockSync(false); // estimates the server's clock, which is the match clock
 
     private final String      serverAddr;
     private final int         port;
+    private final String      room;
     private final GameHandler game;
 
-    private Socket          socket;
-    private DataInputStream in;
-    private PacketWriter    out;
+    private volatile SocketChannel   socket;
+    private          DataInputStream in;
+    private volatile PacketWriter    out;
+    private          DatagramLink    udp; // null if UDP could not be opened, in which case only TCP is used
 
     /** if this client is registered with a remote server */
     private boolean isRegistered;
 
+    /** our player ID, how many players the match is for, and if it uses rollback, as assigned by the server */
+    private volatile int     playerId = GameServer.GUEST_ID;
+    private volatile int     capacity = GameServer.CAPACITY;
+    private volatile boolean rollback;
+
+    /** the level that the server announced and we are receiving, as it is not in our cache; or null if none */
+    private LevelTransfer.Receiver level;
+
+    /** the hash of the level we are playing (or null if none), and our session token (or empty if we have none) */
+    private volatile ByteString currentLevel;
+    private volatile ByteString sessionToken = ByteString.EMPTY;
+
+    /** if the connection is being closed on purpose (by us or the server), so we should not try to resume */
+    private volatile boolean closing;
+
     /**
      * Sets up a new client, does not connect to the server.
      *
      * @param serverAddr the FQDN or IP address of the server to connect to
      * @param port       the port (default 20670)
+     * @param room       the room to join, if the server is a {@link DedicatedServer}; or empty to join any
      *
      * @see GameClient#connect()
      */
-    public GameClient(String serverAddr, int port, GameHandler game) {
+    public GameClient(String serverAddr, int port, String room, GameHandler game) {
         this.serverAddr = serverAddr;
         this.port = port;
+        this.room = room;
         this.game = game;
 
         isRegistered = false;
@@ -67,28 +101,78 @@ public class GameClient {
      */
     public void connect() throws IOException {
         LOG.info("Connecting to server at {}:{}...", serverAddr, port);
-        socket = new Socket(serverAddr, port);
+        open();
 
-        // setup remote IO
-        in = new DataInputStream(socket.getInputStream());
-        out = new PacketWriter(socket.getOutputStream());
+        // movement is sent over UDP if we can, so tell the server where to send it
+        try {
+            udp = new DatagramLink(0, this::onDatagram);
+        } catch (IOException e) {
+            LOG.warn("Failed to open datagram link, movement will only use TCP", e);
+        }
 
-        String name = GameHandler.getUserConfig().getName();
+        register(ByteString.EMPTY);
+        new Thread(this::readLoop, "Client-ReadLoop").start();
+        clock.start(this::sendServer, this::onServerSilent);
+    }
+
+    /**
+     * Opens a new connection to the server.
+     *
+     * @throws IOException if the connection could not be opened
+     */
+    private void open() throws IOException {
+        SocketChannel socket = SocketChannel.open();
+        try {
+            socket.socket().connect(new InetSocketAddress(serverAddr, port), CONNECT_TIMEOUT);
+            socket.setOption(StandardSocketOptions.TCP_NODELAY, true); // we coalesce packets ourselves
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
 
-        // ask to connect
-        LOG.info("Asking to connect as '{}'", name);
-        out.send(new GamePacket(GamePacket.Type.CLT_REQ_CONN, ProtoBuilder.player(name)));
+        // setup remote IO
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(socket)));
+        out = new PacketWriter(socket);
+        this.socket = socket;
+    }
 
-        new Thread(this::readLoop, "Client-ReadLoop").start();
+    /**
+     * Asks the server to register us, or to give us back our slot in the match.
+     *
+     * @param token our session token, or empty to join as a new player
+     */
+    private void register(ByteString token) {
+        String name = GameHandler.getUserConfig().getName();
+        LOG.info(token.isEmpty() ? "Asking to connect as '{}'" : "Asking to resume as '{}'", name);
+        out.send(new GamePacket(GamePacket.Type.CLT_REQ_CONN,
+                                ProtoBuilder.player(name, udp != null ? udp.getLocalPort() : 0, room)
+                                            .toBuilder()
+                                            .setSessionToken(token)
+                                            .build()));
     }
 
     /**
      * The listener thread of the client, handles incoming communication from the server, deserializes it, and sends it
-     * to {@link GameClient#parseResponse(GamePacket)}.
+     * to {@link GameClient#parseResponse(GamePacket)}. If the connection is lost, this tries to resume it.
      *
      * @apiNote This should be run in a separate thread, as it is a blocking action.
      */
     private void readLoop() {
+        do {
+            read();
+        } while (resume());
+        clock.stop();
+
+        if (!closing) {
+            LOG.warn("Lost connection to server");
+            Platform.runLater(() -> game.showAlert("CONNECTION LOST", "Lost the connection to the server."));
+        }
+    }
+
+    /**
+     * Reads and handles packets from the server until the connection is closed or fails.
+     */
+    private void read() {
         try {
             while (true) {
                 int length;
@@ -110,6 +194,57 @@ public class GameClient {
         }
     }
 
+    /**
+     * Tries to reconnect to the server and get our slot in the match back, until the server's grace period is over.
+     *
+     * @return true if we reconnected (the server then tells us if we resumed), false if we gave up or should not resume
+     */
+    private boolean resume() {
+        ByteString token = sessionToken;
+        if (closing || token.isEmpty() || !game.isInGame()) return false;
+
+        clock.stop();
+        out.close(); // the connection is dead, so anything that was not written yet is lost
+
+        long grace = GameServer.getResumeGrace();
+        LOG.warn("Lost connection to server, trying to resume for up to {} ms", grace);
+        long deadline = System.nanoTime() + grace * 1_000_000;
+        while (!closing && System.nanoTime() - deadline < 0) {
+            try {
+                //noinspection BusyWait
+                Thread.sleep(RETRY_INTERVAL);
+                open();
+            } catch (IOException e) {
+                LOG.debug("Failed to reconnect to server", e);
+                continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            if (closing) break; // we were closed while reconnecting
+            register(token);
+            clock.reset(); // it's a new connection (maybe on a new route), so nothing we knew of the old one holds
+            clock.start(this::sendServer, this::onServerSilent);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drops our connection to the server if we haven't heard from it in too long, as it is probably dead (e.g.
+     * half-open) even if it has not been closed yet, so that we can try to resume. This is run on the
+     * {@link ClockSync}'s thread.
+     */
+    private void onServerSilent() {
+        LOG.warn("Haven't heard from server in {} ms, dropping connection", ClockSync.getTimeout());
+        try {
+            socket.close(); // stops the read loop, which then tries to resume
+        } catch (IOException e) {
+            LOG.warn("Failed to close connection to server", e);
+        }
+    }
+
     /**
      * Handles an incoming packet
      *
@@ -117,9 +252,17 @@ public class GameClient {
      */
     private void parseResponse(GamePacket packet) throws IOException {
         if (packet == null) return;
+        if (clock.onPacket(packet, this::sendServer)) return; // handled right away, so that it is timed accurately
 
         LOG.debug("Received {} from SERVER", packet.type());
 
+        // gameplay commands are applied by the game loop at the start of its next tick
+        PeerCommand cmd = PeerCommand.parse(packet);
+        if (cmd != null) {
+            inbox.add(cmd);
+            return;
+        }
+
         switch (packet.type()) {
             case SRV_UPDATE_PLAYERLIST -> {
                 if (!isRegistered) {
@@ -129,6 +272,17 @@ public class GameClient {
 
                 var data = PlayerProto.Lobby.parseFrom(packet.payload());
 
+                playerId = data.getPlayerId();
+                capacity = data.getCapacity();
+                rollback = data.getRollback();
+                sessionToken = data.getSessionToken();
+
+                // the server tells us where to send movement datagrams, if it can receive them
+                if (udp != null && !udp.hasRemote() && data.getUdpPort() != 0) {
+                    InetAddress host = ((InetSocketAddress)socket.getRemoteAddress()).getAddress();
+                    udp.setRemote(new InetSocketAddress(host, data.getUdpPort()));
+                }
+
                 Optional<MenuHandler> menu = game.getActiveScene(MenuHandler.class);
                 if (menu.isEmpty()) {
                     LOG.error("Illegal operation: attempted to update player list; not in MenuHandler");
@@ -143,8 +297,7 @@ public class GameClient {
                 Platform.runLater(() -> {
                     menu.get().setContent(lobby);
                     // set lobby players on FX thread, since the content must exist before setting players
-                    lobby.addPlayer(data.getHost().getName(), true);
-                    lobby.addPlayer(data.getGuest().getName(), false);
+                    for (PlayerProto.PlayerData p: data.getPlayersList()) lobby.addPlayer(p.getName(), p.getId());
                 });
             }
             case SRV_DENY_CONN__USERNAME_TAKEN, SRV_DENY_CONN__FULL -> {
@@ -154,43 +307,100 @@ public class GameClient {
                         "Could not " + serverAddr + ": " + packet.type().name()));
                 this.close();
             }
-            case SRV_GAME_STARTING -> {
-                LOG.info("Server has announced that the game is starting");
-                startGame(LevelProto.LevelData.parseFrom(packet.payload()));
+            case SRV_GAME_STARTING -> onLevelAnnounced(LevelProto.LevelRef.parseFrom(packet.payload()).getHash());
+            case SRV_RESUMED -> {
+                var resume = PlayerProto.Resume.parseFrom(packet.payload());
+                LOG.info("Resumed our slot in the match");
+                if (resume.getLevel().equals(currentLevel)) {
+                    inbox.add(new PeerCommand.Resync(resume.getLevelState().toByteArray()));
+                } else {
+                    onLevelAnnounced(resume.getLevel()); // the host went to another level while we were gone
+                }
+            }
+            case SRV_DENY_CONN__SESSION_EXPIRED -> {
+                LOG.error("Failed to resume match: {}", packet.type());
+                Platform.runLater(() -> game.showAlert(
+                        "CONNECTION LOST",
+                        "Lost the connection to the server, and could not resume the match in time."));
+                this.close();
+            }
+            case SRV_LEVEL_CHUNK -> {
+                if (level == null) return;
+                try {
+                    LevelProto.LevelData received = level.add(LevelProto.LevelChunk.parseFrom(packet.payload()));
+                    if (received == null) return;
+                    LOG.info("Received level '{}' from server", received.getLevelName());
+                    level = null;
+                    startGame(received);
+                } catch (IOException e) {
+                    LOG.error("Failed to receive level from server", e);
+                    level = null;
+                    Platform.runLater(() -> game.showAlert("Failed to load level", e.getMessage()));
+                }
             }
             case SRV_SHUTDOWN -> {
                 // going to the main menu will shut down the client
+                closing = true;
                 LOG.info("Server is shutting down, returning to main menu");
                 Platform.runLater(() -> game.showAlert("SERVER CLOSED", "The server has shut down."));
             }
-            // if peer is trying to move, add instruction to queue
-            case COM_JUMP, COM_MOVE_L, COM_MOVE_R, COM_STOP_MOVING -> {
-                queuedPeerMovements.add(packet.type());
-
-                // JUMP packets don't contain movement data
-                if (packet.type() == GamePacket.Type.COM_JUMP) return;
-
-                // sync other's movement
-                Optional<DynamicLevelScene> level = game.getActiveScene(DynamicLevelScene.class);
-                if (level.isEmpty()) {
-                    LOG.warn("Tried to sync movement, but was not in DynamicLevelScene; skipping message");
-                    return;
-                }
-                level.get().syncMovement(PlayerProto.PlayerMovementData.parseFrom(packet.payload()));
-            }
-            case COM_PRESS_BUTTON -> {
-                Optional<LevelScene> level = game.getActiveScene(LevelScene.class);
-                if (level.isEmpty()) {
-                    LOG.warn("Tried to handle COM_PRESS_BUTTON, but was not in LevelScene; skipping");
-                    return;
-                }
-                level.get().onButtonPressed();
+            case SRV_MATCH_ENDED -> {
+                String reason = new String(packet.payload(), StandardCharsets.UTF_8);
+                LOG.info("Server has ended the match: {}", reason);
+                Platform.runLater(() -> game.showAlert("MATCH OVER", reason));
             }
         }
     }
 
     /**
-     * Sends a packet to the connected server.
+     * Starts the level that the server announced, asking the server for it first if it is not in our cache.
+     *
+     * @param hash the level's hash, see {@link LevelTransfer}
+     */
+    private void onLevelAnnounced(ByteString hash) {
+        LevelProto.LevelData cached = LevelCache.get(hash);
+        if (cached != null) {
+            LOG.info("Server has announced that the game is starting");
+            level = null;
+            startGame(cached);
+        } else {
+            LOG.info("Server has announced that the game is starting, asking for the level");
+            level = new LevelTransfer.Receiver(hash);
+            sendServer(new GamePacket(GamePacket.Type.CLT_REQ_LEVEL,
+                                      LevelProto.LevelRef.newBuilder().setHash(hash).build()));
+        }
+    }
+
+    /**
+     * @return our player ID in the match (the host is 0)
+     */
+    public int getPlayerId() {
+        return playerId;
+    }
+
+    /**
+     * @return how many players the match is for
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return if the match uses rollback netcode, see {@link RollbackLevelScene}
+     */
+    public boolean isRollback() {
+        return rollback;
+    }
+
+    /**
+     * @return the match clock (the server's, as we estimate it), along with the round-trip time to the server
+     */
+    public ClockSync getClock() {
+        return clock;
+    }
+
+    /**
+     * Sends a packet to the connected server. This does not block.
      *
      * @param pkt the packet to send
      *
@@ -203,13 +413,62 @@ public class GameClient {
     }
 
     /**
-     * Starts the game for the client, showing the {@link DynamicLevelScene} with the correct level data.
+     * Queues a packet to be sent to the connected server on the next {@link GameClient#flush()}.
+     *
+     * @param pkt the packet to queue
+     *
+     * @throws IllegalStateException if the {@link PacketWriter} is null (i.e. client not connected)
+     */
+    public void queueServer(GamePacket pkt) {
+        if (out == null)
+            throw new IllegalStateException("Cannot queue packets from null PacketWriter; is the client connected?");
+        out.queue(pkt);
+    }
+
+    /**
+     * Sends a packet that a newer one will supersede (i.e. movement) to the server. This uses the
+     * {@link DatagramLink} if there is one, and also queues it over TCP until the link is confirmed to work.
+     *
+     * @param pkt  the packet to send
+     * @param tick the tick the packet was produced on
+     */
+    public void sendUnreliable(GamePacket pkt, long tick) {
+        DatagramLink udp = this.udp;
+        if (udp != null && udp.hasRemote()) udp.send(pkt, tick);
+        if (udp == null || !udp.isConfirmed()) queueServer(pkt);
+    }
+
+    /**
+     * Handles a packet from the {@link DatagramLink}; only movement is accepted over UDP.
+     */
+    private void onDatagram(GamePacket packet) {
+        if (!packet.type().isDroppable()) return;
+        try {
+            inbox.add(PeerCommand.parse(packet));
+        } catch (IOException e) {
+            LOG.warn("Failed to parse {} datagram from server", packet.type(), e);
+        }
+    }
+
+    /**
+     * Sends every queued packet to the server in one write. This should be called at the end of each tick.
+     */
+    public void flush() {
+        if (out != null) out.flush();
+    }
+
+    /**
+     * Starts the game for the client, showing the {@link DynamicLevelScene} (or {@link RollbackLevelScene}) with the
+     * correct level data.
      *
      * @param level provided level data from server
      */
     public void startGame(LevelProto.LevelData level) {
         game.setInMenu(false);
-        Platform.runLater(() -> game.setScene(new DynamicLevelScene(level)));
+        currentLevel = LevelCache.put(level);
+        boolean rollback = this.rollback;
+        Platform.runLater(() -> game.setScene(GameEngine.prepare(
+                () -> rollback ? new RollbackLevelScene(level) : new DynamicLevelScene(level))));
     }
 
     /**
@@ -218,13 +477,17 @@ public class GameClient {
      * @throws IOException if the socket fails to close
      */
     public void close() throws IOException {
-        if (socket != null && !socket.isClosed()) {
+        closing = true;
+        if (socket != null && socket.isOpen()) {
             if (out != null) {
                 LOG.info("Active connection to peer, sending CLT_DISCONNECT");
                 sendServer(new GamePacket(GamePacket.Type.CLT_DISCONNECT));
             }
 
             LOG.info("Closing connection to server");
+            clock.stop();
+            if (out != null) out.close(); // waits for the disconnect to be written, then closes the socket
+            if (udp != null) udp.close();
             socket.close();
         }
     }
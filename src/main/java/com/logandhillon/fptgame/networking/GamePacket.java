@@ -4,6 +4,7 @@ import com.google.protobuf.Message;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -42,19 +43,34 @@ public record GamePacket(Type type, byte[] payload) {
     public enum Type {
         // server-side types
         SRV_UPDATE_PLAYERLIST, SRV_DENY_CONN__FULL, SRV_DENY_CONN__USERNAME_TAKEN, // used for managing connections
-        SRV_GAME_STARTING, // announces that the game is starting
+        SRV_GAME_STARTING, // announces that the game is starting, and the level by its hash (see LevelTransfer)
         SRV_UNEXPECTED, // generic error for if the server wasn't expecting something (e.g. not ready for a request)
         SRV_SHUTDOWN,
+        SRV_STATE, // authoritative state of every player
+        SRV_MATCH_ENDED, // a dedicated server's match is over (e.g. a player left); payload is the reason, in UTF-8
+        SRV_LEVEL_CHUNK, // part of a level that a client asked for
+        SRV_RESTART_LEVEL, // the level was restarted in place; payload is the host tick it restarted on (4 bytes)
+        SRV_RESUMED, // the guest got its slot back after reconnecting, see PlayerProto.Resume
+        SRV_DENY_CONN__SESSION_EXPIRED, // the guest tried to resume a slot that it no longer has
 
         // client-side types
         CLT_REQ_CONN, // used to request registration upon joining a server
         CLT_DISCONNECT,
-
-        COM_JUMP,
-        COM_MOVE_L,
-        COM_MOVE_R,
-        COM_STOP_MOVING,
-        COM_PRESS_BUTTON
+        CLT_INPUT, // tick-stamped inputs of the guest
+        CLT_REQ_LEVEL, // asks for a level that was announced, but is not in the client's cache
+
+        COM_PRESS_BUTTON, // payload is the host's tick that it was pressed on, or -1 from a guest (4 bytes)
+        COM_INPUT, // rollback only: tick-stamped inputs of either peer
+        COM_PING, // payload is when it was sent, on the sender's clock (8 bytes), see ClockSync
+        COM_PONG; // answers a ping; payload is when it was sent, received and answered (8 bytes each)
+
+        /**
+         * @return true if packets of this type only carry state that a newer packet will replace (e.g. movement), and
+         * can thus be dropped if the connection falls behind; events such as button presses must always be delivered.
+         */
+        public boolean isDroppable() {
+            return this == SRV_STATE || this == CLT_INPUT || this == COM_INPUT;
+        }
     }
 
     /**
@@ -118,4 +134,44 @@ public record GamePacket(Type type, byte[] payload) {
         System.arraycopy(data, 5, payload, 0, payload.length);
         return new GamePacket(TYPES[typeIndex], payload);
     }
+
+    /**
+     * Deserializes a length-prefixed packet directly from a buffer, without copying the whole packet first.
+     * <p>
+     * The buffer's position is always moved to the end of the packet, even if it could not be deserialized.
+     *
+     * @param buf    buffer positioned at the start of the serialized packet
+     * @param length the length of the serialized packet (the buffer must have at least this many bytes remaining)
+     *
+     * @return the deserialized game packet, or null if it is invalid
+     *
+     * @see GamePacket#deserialize(byte[])
+     */
+    public static GamePacket deserialize(ByteBuffer buf, int length) {
+        int end = buf.position() + length;
+        try {
+            if (length < 5) {
+                LOG.warn("Failed to deserialize packet: not enough data");
+                return null;
+            }
+
+            int payloadLength = buf.getInt();
+            if (payloadLength != length - 4) {
+                LOG.warn("Failed to deserialize packet: length mismatch");
+                return null;
+            }
+
+            int typeIndex = buf.get();
+            if (typeIndex < 0 || typeIndex >= TYPES.length) {
+                LOG.warn("Failed to deserialize packet, TYPE {} does not exist", typeIndex);
+                return null;
+            }
+
+            byte[] payload = new byte[payloadLength - 1];
+            buf.get(payload);
+            return new GamePacket(TYPES[typeIndex], payload);
+        } finally {
+            buf.position(end);
+        }
+    }
 }
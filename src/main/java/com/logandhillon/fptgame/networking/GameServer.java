@@ -1,216 +1,204 @@
 package com.logandhillon.fptgame.networking;
 
+import com.google.protobuf.ByteString;
 import com.logandhillon.fptgame.GameHandler;
+import com.logandhillon.fptgame.level.LevelCache;
 import com.logandhillon.fptgame.networking.proto.LevelProto;
 import com.logandhillon.fptgame.networking.proto.PlayerProto;
 import com.logandhillon.fptgame.resource.Levels;
 import com.logandhillon.fptgame.scene.DynamicLevelScene;
 import com.logandhillon.fptgame.scene.LevelScene;
+import com.logandhillon.fptgame.scene.RollbackLevelScene;
 import com.logandhillon.fptgame.scene.menu.LobbyGameContent;
 import com.logandhillon.fptgame.scene.menu.MenuContent;
 import com.logandhillon.fptgame.scene.menu.MenuHandler;
-import com.logandhillon.logangamelib.networking.PacketWriter;
+import com.logandhillon.logangamelib.engine.GameEngine;
 import javafx.application.Platform;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
 
-import java.io.DataInputStream;
 import java.io.IOException;
-import java.net.*;
-import java.util.*;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A game server handles all outgoing communications to {@link GameClient}s via a valid network connection.
  * <p>
- * The server allows multiple clients to connect (using multi-threading to handle each connection independently) and
- * communicates using {@link GamePacket}s.
+ * The server is hosted by a player's game, which is player 1, and allows one guest to register as player 2. Decoded
+ * packets are handled on the FX thread, except for the guest's gameplay commands, see {@link GameServer#inbox}.
+ * <p>
+ * The guest is issued a session token when it registers. If its connection is lost during a match (or it goes silent,
+ * see {@link ClockSync}), its slot is held for a grace period, during which it may reconnect with that token to resume
+ * the match where it is, instead of going back to the lobby.
  *
  * @author Logan Dhillon
  * @see GameClient
+ * @see DedicatedServer
  */
-public class GameServer implements Runnable {
+public class GameServer extends PacketServer {
     private static final Logger LOG            = LoggerContext.getContext().getLogger(GameServer.class);
     public static final  int    DEFAULT_PORT   = 20670; // default port for game
     public static final  int    ADVERTISE_PORT = 20671; // for UDP broadcast discovery
+    public static final  int    CAPACITY       = 2; // the host and one guest; larger matches need a DedicatedServer
+    public static final  int    HOST_ID        = 0;
+    public static final  int    GUEST_ID       = 1;
+    static final         long   DEFAULT_GRACE  = 15000; // ms that a guest may take to resume, unless configured
+    static final         int    TOKEN_SIZE     = 16; // bytes
 
-    private volatile boolean                running; // if the server is running
-    private final    GameHandler            game;
-    public final     Queue<GamePacket.Type> queuedPeerMovements = new LinkedList<>();
+    private final GameHandler        game;
+    public final  Queue<PeerCommand> inbox = new ConcurrentLinkedQueue<>(); // drained by the game loop each tick
+    private final ClockSync          clock = new ClockSync(true); // we are the match clock
 
-    private ServerSocket      socket;
-    private Thread            advertiser;
-    private ConnectionDetails guest;
+    private          Thread            advertiser;
+    private          DatagramLink      udp; // null if UDP could not be bound, in which case only TCP is used
+    private volatile ConnectionDetails guest;
+    private volatile boolean           guestLost; // if the guest's connection was lost, and its slot is being held
 
-    /** the list of ALL active client connections, including unregistered ones. */
-    private final Set<Socket> clients = Collections.synchronizedSet(new HashSet<>());
+    private final SecureRandom random = new SecureRandom(); // for session tokens
 
-    private record ConnectionDetails(Socket socket, String name, PacketWriter out) {}
+    private record ConnectionDetails(Connection connection, String name, ByteString token) {}
 
     public GameServer(GameHandler game) {
+        super(DEFAULT_PORT);
         this.game = game;
     }
 
     /**
-     * Starts the server socket and the acceptor thread, which listens for incoming connections and handles them
-     * accordingly.
+     * Starts the server (see {@link PacketServer#start()}) and advertises it on the local network.
      *
      * @throws IOException if the server socket fails to start.
      */
+    @Override
     public void start() throws IOException {
-        LOG.info("Starting server on port {}...", DEFAULT_PORT);
-        socket = new ServerSocket(DEFAULT_PORT);
-        running = true;
-        new Thread(this, "ServerAcceptor").start();
+        super.start();
         startAdvertising(); // start the udp advertiser
+
+        // movement is sent over UDP on the same port number, if we can bind it
+        try {
+            udp = new DatagramLink(DEFAULT_PORT, this::onDatagram);
+        } catch (IOException e) {
+            LOG.warn("Failed to open datagram link on port {}, movement will only use TCP", DEFAULT_PORT, e);
+        }
+
+        clock.start(this::broadcast, this::onGuestSilent);
     }
 
     /**
-     * Tries to stop the server gracefully, ending the acceptor and closing the thread.
+     * Tries to stop the server gracefully, telling the guest that it is shutting down, then closing every connection.
      *
      * @throws IOException if the socket fails to close.
      */
+    @Override
     public void stop() throws IOException {
         LOG.info("Stopping server gracefully");
         broadcast(new GamePacket(GamePacket.Type.SRV_SHUTDOWN));
-        running = false;
-        if (socket != null) {
-            LOG.info("Closing server socket now");
-            socket.close();
-        }
         stopAdvertising();
-        LOG.info("Closing {} client connection(s)", clients.size());
-        synchronized (clients) {
-            for (Socket c: clients) {
-                try {
-                    c.close();
-                } catch (IOException ignored) {
-                }
-            }
-            clients.clear();
-        }
+        clock.stop();
+        super.stop();
+        if (udp != null) udp.close();
     }
 
     /**
-     * The method that will run when this server is started in the thread.
-     *
-     * @see GameServer#start()
+     * If the closed connection was the guest, unregisters it and updates the lobby; or, if it was in a match, holds its
+     * slot for it to resume.
      */
     @Override
-    public void run() {
-        while (running) {
-            try {
-                Socket client = socket.accept();
-                handleClient(client);
-            } catch (IOException e) {
-                if (running) LOG.error(e);
+    protected void onDisconnect(Connection conn) {
+        Platform.runLater(() -> {
+            ConnectionDetails guest = this.guest;
+            if (guest != null && guest.connection == conn) {
+                if (game.isInGame() && isRunning()) {
+                    holdSlot(guest);
+                    return;
+                }
+                this.guest = null;
+                if (udp != null) udp.setRemote(null);
             }
-        }
+
+            Optional<MenuHandler> menu = game.getActiveScene(MenuHandler.class);
+            if (menu.isPresent()) {
+                MenuContent content = menu.get().getContent();
+                if (content instanceof LobbyGameContent lobby) {
+                    propagateLobbyUpdate(lobby);
+                }
+            }
+        });
     }
 
     /**
-     * Runs when a new client connects; this starts a dedicated thread to handle this client.
-     *
-     * @param client the incoming client socket
+     * Sends a decoded packet to where it should be handled. Gameplay commands from the guest go straight into the
+     * {@link GameServer#inbox}, to be applied at the start of the next tick, and everything else is handled on the FX
+     * thread.
      */
-    private void handleClient(Socket client) {
-        new Thread(() -> {
-            LOG.info("Incoming client connection at {}", client.getInetAddress().getHostAddress());
-            clients.add(client);
-
-            try (client;
-                 var out = new PacketWriter(client.getOutputStream());
-                 DataInputStream dataInputStream = new DataInputStream(client.getInputStream())
-            ) {
-                while (true) {
-                    int length;
-                    try {
-                        length = dataInputStream.readInt();
-                    } catch (IOException e) {
-                        LOG.info("Client {} disconnected", client.getInetAddress());
-                        if (guest.socket == client) guest = null;
-                        clients.remove(client);
-
-                        Optional<MenuHandler> menu = game.getActiveScene(MenuHandler.class);
-                        if (menu.isPresent()) {
-                            MenuContent content = menu.get().getContent();
-                            if (content instanceof LobbyGameContent lobby) {
-                                propagateLobbyUpdate(lobby);
-                            }
-                        }
-
-                        break; // client disconnected or stream closed
-                    }
-                    if (length <= 0) {
-                        LOG.warn("Received invalid packet length {} from {}", length, client.getInetAddress());
-                        break;
-                    }
-                    byte[] data = new byte[length];
-                    dataInputStream.readFully(data);
-                    parseRequest(client, GamePacket.deserialize(data), out);
+    @Override
+    protected void onPacket(Connection conn, GamePacket packet) {
+        ConnectionDetails guest = this.guest;
+        if (guest == null || guest.connection != conn) {
+            // only the guest is timed (and heard from), but anyone may ping us, e.g. a client that is still registering
+            if (packet.type() == GamePacket.Type.COM_PING) {
+                GamePacket pong = ClockSync.pong(packet);
+                if (pong != null) conn.send(pong);
+                return;
+            }
+            if (packet.type() == GamePacket.Type.COM_PONG) return;
+        } else {
+            if (clock.onPacket(packet, conn::send)) return; // handled right away, so that it is timed accurately
+            try {
+                PeerCommand cmd = PeerCommand.parse(packet);
+                if (cmd != null) {
+                    inbox.add(cmd);
+                    return;
                 }
             } catch (IOException e) {
-                LOG.error(e);
-            } finally {
-                clients.remove(client);
+                LOG.error("Failed to parse {} from client at {}", packet.type(), conn.getAddress(), e);
+                return;
             }
-        }, "ClientHandler-" + client.getInetAddress()).start();
+        }
+        Platform.runLater(() -> parseRequest(conn, packet));
     }
 
     /**
-     * Parses a request from a client
+     * Parses a request from a client. This is run on the FX thread.
      *
-     * @param client the client socket that this packet is from
+     * @param client the client connection that this packet is from
      * @param packet the packet itself, from the client
-     * @param out    the output stream used to respond to the client.
      */
-    private void parseRequest(Socket client, GamePacket packet, PacketWriter out) {
-        if (packet == null) return;
-
-        LOG.debug("Received {} from {}", packet.type(), client.getInetAddress());
+    private void parseRequest(Connection client, GamePacket packet) {
+        LOG.debug("Received {} from {}", packet.type(), client.getAddress());
 
         try {
             // first, check if the client asked to be registered
-            if (packet.type() == GamePacket.Type.CLT_REQ_CONN) handleClientRegistration(client, packet, out);
+            if (packet.type() == GamePacket.Type.CLT_REQ_CONN) handleClientRegistration(client, packet);
 
             // next, if they didn't ask and they still aren't registered, kick them
-            if (guest.socket != client) {
+            if (guest == null || guest.connection != client) {
+                if (client.isClosing()) return; // already denied, and will close once the denial is sent
                 LOG.warn("Got packet from unregistered client; closing connection");
-                client.close();
+                disconnect(client);
+                return;
             }
 
             // finally, parse the request
             switch (packet.type()) {
-                // if peer is trying to move, add instruction to queue
-                case COM_JUMP, COM_MOVE_L, COM_MOVE_R, COM_STOP_MOVING -> {
-                    queuedPeerMovements.add(packet.type());
-
-                    // JUMP packets don't contain movement data
-                    if (packet.type() == GamePacket.Type.COM_JUMP) return;
-
-                    // sync other's movement
-                    Optional<DynamicLevelScene> level = game.getActiveScene(DynamicLevelScene.class);
-                    if (level.isEmpty()) {
-                        LOG.warn("Tried to sync movement, but was not in DynamicLevelScene; skipping message");
-                        return;
-                    }
-                    level.get().syncMovement(PlayerProto.PlayerMovementData.parseFrom(packet.payload()));
-                }
-                case COM_PRESS_BUTTON -> {
-                    Optional<LevelScene> level = game.getActiveScene(LevelScene.class);
-                    if (level.isEmpty()) {
-                        LOG.warn("Tried to handle COM_PRESS_BUTTON, but was not in LevelScene; skipping");
-                        return;
-                    }
-                    level.get().onButtonPressed();
-                }
+                case CLT_REQ_LEVEL -> LevelTransfer.send(client, packet);
                 case CLT_DISCONNECT -> {
                     // going to the main menu will shut down the server
                     LOG.info("Client disconnected, returning to main menu");
-                    Platform.runLater(() -> game.showAlert("PARTNER DISCONNECTED", "Your partner has left the game."));
+                    guest = null; // they left on purpose, so their slot is not held for them
+                    if (udp != null) udp.setRemote(null);
+                    game.showAlert("PARTNER DISCONNECTED", "Your partner has left the game.");
                 }
             }
         } catch (IOException e) {
-            LOG.error("Failed to close client at {}", client.getInetAddress(), e);
+            LOG.error("Failed to parse request from client at {}", client.getAddress(), e);
         }
     }
 
@@ -218,17 +206,19 @@ public class GameServer implements Runnable {
      * Handles a new client request and tries to register it or defer it. Should be called when receiving a CLT_REQ_CONN
      * packet.
      */
-    private void handleClientRegistration(Socket client, GamePacket packet, PacketWriter out) throws IOException {
-        if (guest == null) {
-            PlayerProto.PlayerData data = PlayerProto.PlayerData.parseFrom(packet.payload());
+    private void handleClientRegistration(Connection client, GamePacket packet) throws IOException {
+        PlayerProto.PlayerData data = PlayerProto.PlayerData.parseFrom(packet.payload());
+        if (!data.getSessionToken().isEmpty()) {
+            resume(client, data);
+            return;
+        }
 
+        if (guest == null) {
             // check if name is already used
             if (data.getName().equals(GameHandler.getUserConfig().getName())) {
-                LOG.info(
-                        "Denying connection from {} (name '{}' in use)", client.getInetAddress(),
-                        packet.payload());
-                out.send(GamePacket.Type.SRV_DENY_CONN__USERNAME_TAKEN);
-                client.close();
+                LOG.info("Denying connection from {} (name '{}' in use)", client.getAddress(), data.getName());
+                client.send(new GamePacket(GamePacket.Type.SRV_DENY_CONN__USERNAME_TAKEN));
+                client.closeAfterFlush();
                 return;
             }
 
@@ -238,15 +228,19 @@ public class GameServer implements Runnable {
                 // if lobby IS null, then just throw a warn and return early ;)
                 LOG.warn(
                         "Server got a registration request, but was not ready for it. Closing client at {}.",
-                        client.getInetAddress());
-                out.send(GamePacket.Type.SRV_UNEXPECTED);
-                client.close();
+                        client.getAddress());
+                client.send(new GamePacket(GamePacket.Type.SRV_UNEXPECTED));
+                client.closeAfterFlush();
                 return;
             }
 
             // all good now! register the client
-            guest = new ConnectionDetails(client, data.getName(), out);
-            LOG.info("Registered new client '{}' at {}!", data.getName(), client.getInetAddress());
+            guest = new ConnectionDetails(client, data.getName(), newToken());
+            clock.reset();
+            if (udp != null && data.getUdpPort() != 0) {
+                udp.setRemote(new InetSocketAddress(client.getInetAddress(), data.getUdpPort()));
+            }
+            LOG.info("Registered new client '{}' at {}!", data.getName(), client.getAddress());
 
             // update everyone's player list
             propagateLobbyUpdate(lobby);
@@ -254,12 +248,97 @@ public class GameServer implements Runnable {
 
         // check if srv is full
         else {
-            LOG.info("Denying connection from {} (server full)", client.getInetAddress());
-            out.send(GamePacket.Type.SRV_DENY_CONN__FULL);
-            client.close();
+            LOG.info("Denying connection from {} (server full)", client.getAddress());
+            client.send(new GamePacket(GamePacket.Type.SRV_DENY_CONN__FULL));
+            client.closeAfterFlush();
         }
     }
 
+    /**
+     * Gives the guest its slot back on a new connection, if it has the token of the guest whose slot we are holding,
+     * and sends it the state of the level, so that it can catch up on what it missed. Otherwise, it is denied.
+     */
+    private void resume(Connection client, PlayerProto.PlayerData data) {
+        ConnectionDetails lost = guest;
+        Optional<LevelScene> level = game.getActiveScene(LevelScene.class);
+        if (lost == null || !lost.token.equals(data.getSessionToken()) || level.isEmpty()) {
+            LOG.info("Denying resume from {} (no such session)", client.getAddress());
+            client.send(new GamePacket(GamePacket.Type.SRV_DENY_CONN__SESSION_EXPIRED));
+            client.closeAfterFlush();
+            return;
+        }
+
+        guest = new ConnectionDetails(client, lost.name, lost.token);
+        guestLost = false;
+        clock.reset();
+        inbox.add(new PeerCommand.Hold(false)); // let them move again
+        if (lost.connection != client) disconnect(lost.connection); // it may be half-open, and not know it yet
+        if (udp != null && data.getUdpPort() != 0) {
+            udp.setRemote(new InetSocketAddress(client.getInetAddress(), data.getUdpPort()));
+        }
+        LOG.info("Client '{}' resumed the match from {}", lost.name, client.getAddress());
+
+        LevelScene scene = level.get();
+        client.send(new GamePacket(GamePacket.Type.SRV_RESUMED,
+                                   PlayerProto.Resume.newBuilder()
+                                                     .setLevel(LevelCache.put(scene.getLevel()))
+                                                     .setLevelState(ByteString.copyFrom(scene.saveLevelState()))
+                                                     .build()));
+    }
+
+    /**
+     * Holds the slot of a guest whose connection was lost in a match, so that it may resume, until the grace period is
+     * over. This is run on the FX thread.
+     */
+    private void holdSlot(ConnectionDetails lost) {
+        if (guestLost) return;
+        guestLost = true;
+        inbox.add(new PeerCommand.Hold(true)); // so they don't keep running with their last input
+
+        long grace = getResumeGrace();
+        LOG.warn("Lost connection to client '{}', holding their slot for {} ms", lost.name, grace);
+        CompletableFuture.delayedExecutor(grace, TimeUnit.MILLISECONDS).execute(() -> Platform.runLater(() -> {
+            if (guest != lost || !isRunning()) return; // they resumed (or left), or we stopped
+
+            LOG.info("Client '{}' did not resume in time, returning to main menu", lost.name);
+            guest = null;
+            guestLost = false;
+            if (udp != null) udp.setRemote(null);
+            game.showAlert("PARTNER DISCONNECTED",
+                           "Your partner lost their connection, and did not reconnect in time.");
+        }));
+    }
+
+    /**
+     * Drops the guest's connection if we haven't heard from it in too long, as it is probably dead (e.g. half-open)
+     * even if it has not been closed yet. This is run on the {@link ClockSync}'s thread.
+     */
+    private void onGuestSilent() {
+        ConnectionDetails guest = this.guest;
+        if (guest == null || guestLost) return;
+
+        LOG.warn("Haven't heard from client '{}' in {} ms, dropping their connection", guest.name,
+                 ClockSync.getTimeout());
+        disconnect(guest.connection);
+    }
+
+    /**
+     * @return a new random session token
+     */
+    private ByteString newToken() {
+        byte[] token = new byte[TOKEN_SIZE];
+        random.nextBytes(token);
+        return ByteString.copyFrom(token);
+    }
+
+    /**
+     * @return how long (ms) a guest that lost its connection during a match may take to resume it, as configured
+     */
+    static long getResumeGrace() {
+        int grace = GameHandler.getUserConfig().getResumeGrace();
+        return grace > 0 ? grace : DEFAULT_GRACE;
+    }
+
     /**
      * Updates the player list and broadcasts the new list to every client
      */
@@ -267,16 +346,20 @@ public class GameServer implements Runnable {
         LOG.info("Propagating update for lobby player list");
         lobby.clearPlayers();
 
-        lobby.addPlayer(GameHandler.getUserConfig().getName(), true); // host
-        if (guest != null) lobby.addPlayer(guest.name, false); // guest
+        lobby.addPlayer(GameHandler.getUserConfig().getName(), HOST_ID);
+        if (guest != null) lobby.addPlayer(guest.name, GUEST_ID);
 
         // get the players on each team and send them to the client
         var dat = PlayerProto.Lobby.newBuilder()
                                    .setName(lobby.getRoomName())
-                                   .setHost(ProtoBuilder.player(GameHandler.getUserConfig().getName()));
+                                   .setCapacity(CAPACITY)
+                                   .setRollback(GameHandler.getUserConfig().getRollback())
+                                   .addPlayers(ProtoBuilder.player(GameHandler.getUserConfig().getName(), HOST_ID))
+                                   .setPlayerId(GUEST_ID)
+                                   .setUdpPort(udp != null ? udp.getLocalPort() : 0);
 
-        // only set guest if it exists
-        if (guest != null) dat.setGuest(ProtoBuilder.player(guest.name));
+        // only add guest if it exists, along with its session token
+        if (guest != null) dat.addPlayers(ProtoBuilder.player(guest.name, GUEST_ID)).setSessionToken(guest.token);
 
         broadcast(new GamePacket(GamePacket.Type.SRV_UPDATE_PLAYERLIST, dat.build()));
     }
@@ -287,7 +370,59 @@ public class GameServer implements Runnable {
      * @param pkt the packet to broadcast
      */
     public void broadcast(GamePacket pkt) {
-        if (guest != null) guest.out.send(pkt);
+        ConnectionDetails guest = this.guest;
+        if (guest != null) guest.connection.send(pkt);
+    }
+
+    /**
+     * Without checking who, this queues the same packet to all registered clients, to be sent on the next
+     * {@link GameServer#flush()}.
+     *
+     * @param pkt the packet to queue
+     */
+    public void queueBroadcast(GamePacket pkt) {
+        ConnectionDetails guest = this.guest;
+        if (guest != null) guest.connection.queue(pkt);
+    }
+
+    /**
+     * Sends a packet that a newer one will supersede (i.e. movement) to all registered clients. This uses the
+     * {@link DatagramLink} if there is one, and also queues it over TCP until the link is confirmed to work.
+     *
+     * @param pkt  the packet to send
+     * @param tick the tick the packet was produced on
+     */
+    public void sendUnreliable(GamePacket pkt, long tick) {
+        DatagramLink udp = this.udp;
+        if (udp != null && udp.hasRemote()) udp.send(pkt, tick);
+        if (udp == null || !udp.isConfirmed()) queueBroadcast(pkt);
+    }
+
+    /**
+     * Handles a packet from the {@link DatagramLink}; only movement is accepted over UDP.
+     */
+    private void onDatagram(GamePacket packet) {
+        if (!packet.type().isDroppable()) return;
+        try {
+            inbox.add(PeerCommand.parse(packet));
+        } catch (IOException e) {
+            LOG.warn("Failed to parse {} datagram from client", packet.type(), e);
+        }
+    }
+
+    /**
+     * Sends every queued packet to each registered client in one write. This should be called at the end of each tick.
+     */
+    public void flush() {
+        ConnectionDetails guest = this.guest;
+        if (guest != null) guest.connection.flush();
+    }
+
+    /**
+     * @return the match clock, which is ours, along with the round-trip time to the guest
+     */
+    public ClockSync getClock() {
+        return clock;
     }
 
     /**
@@ -295,11 +430,13 @@ public class GameServer implements Runnable {
      * {@link com.logandhillon.logangamelib.engine.GameScene}.
      */
     public void startGame() {
-        LevelProto.LevelData level = Levels.LEVEL_1; // XXX: hardcode level for server
-        broadcast(new GamePacket(GamePacket.Type.SRV_GAME_STARTING, level));
+        LevelProto.LevelData level = Levels.get(Levels.LEVEL_1); // XXX: hardcode level for server
+        broadcast(new GamePacket(GamePacket.Type.SRV_GAME_STARTING, LevelTransfer.announce(level)));
         game.setInMenu(false);
 
-        Platform.runLater(() -> game.setScene(new DynamicLevelScene(level)));
+        boolean rollback = GameHandler.getUserConfig().getRollback();
+        Platform.runLater(() -> game.setScene(GameEngine.prepare(
+                () -> rollback ? new RollbackLevelScene(level) : new DynamicLevelScene(level))));
     }
 
     /**
@@ -313,7 +450,7 @@ public class GameServer implements Runnable {
         advertiser = new Thread(() -> {
             try (DatagramSocket socket = new DatagramSocket()) {
                 socket.setBroadcast(true);
-                while (running) {
+                while (isRunning()) {
                     // only listen in lobby
                     if (game.isInGame()) continue;
                     Optional<MenuHandler> menu = game.getActiveScene(MenuHandler.class);
@@ -359,4 +496,4 @@ public class GameServer implements Runnable {
             advertiser = null;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,167 @@
+package com.logandhillon.fptgame.networking;
+
+import com.google.protobuf.ByteString;
+import com.logandhillon.fptgame.level.LevelCache;
+import com.logandhillon.fptgame.networking.proto.LevelProto;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Sends levels to clients that do not have them in their {@link LevelCache}.
+ * <p>
+ * The server announces a level by its hash only (see {@link GamePacket.Type#SRV_GAME_STARTING}). A client that does
+ * not have it asks for it with {@link GamePacket.Type#CLT_REQ_LEVEL}, and is sent the level deflate-compressed, in
+ * {@link GamePacket.Type#SRV_LEVEL_CHUNK}s of at most {@link #CHUNK_SIZE} bytes, which the client puts back together
+ * with a {@link Receiver}. Each level is only compressed once, no matter how many clients ask for it.
+ *
+ * @author Logan Dhillon
+ */
+public final class LevelTransfer {
+    private static final Logger LOG        = LoggerContext.getContext().getLogger(LevelTransfer.class);
+    private static final int    CHUNK_SIZE = 16 * 1024; // bytes of compressed level per chunk
+    private static final int    MAX_LENGTH = 16 * 1024 * 1024; // bytes of level a client accepts, compressed or not
+
+    private static final Map<ByteString, List<GamePacket>> chunks = new ConcurrentHashMap<>(); // by level hash
+
+    private LevelTransfer() {}
+
+    /**
+     * Builds the announcement of a level, caching the level so that it can be sent to clients that ask for it.
+     *
+     * @param level the level to announce
+     *
+     * @return a reference to the level, as the payload of {@link GamePacket.Type#SRV_GAME_STARTING}
+     */
+    public static LevelProto.LevelRef announce(LevelProto.LevelData level) {
+        return LevelProto.LevelRef.newBuilder().setHash(LevelCache.put(level)).build();
+    }
+
+    /**
+     * Handles a client's {@link GamePacket.Type#CLT_REQ_LEVEL}, sending it every chunk of the level it asked for.
+     *
+     * @param conn   the client's connection
+     * @param packet the request
+     */
+    static void send(PacketServer.Connection conn, GamePacket packet) {
+        ByteString hash;
+        try {
+            hash = LevelProto.LevelRef.parseFrom(packet.payload()).getHash();
+        } catch (IOException e) {
+            LOG.warn("Received malformed level request from {}", conn.getAddress(), e);
+            return;
+        }
+
+        List<GamePacket> level = chunks.computeIfAbsent(hash, LevelTransfer::split);
+        if (level == null) {
+            LOG.warn("{} asked for a level that was never announced", conn.getAddress());
+            return;
+        }
+
+        LOG.info("Sending level to {} in {} chunk(s)", conn.getAddress(), level.size());
+        for (GamePacket chunk: level) conn.send(chunk);
+    }
+
+    /**
+     * Compresses a cached level, and splits it into chunks.
+     *
+     * @return the level's chunks, or null if it is not cached
+     */
+    private static List<GamePacket> split(ByteString hash) {
+        LevelProto.LevelData level = LevelCache.get(hash);
+        if (level == null) return null;
+
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(level.toByteArray());
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] buf = new byte[CHUNK_SIZE];
+        while (!deflater.finished()) compressed.write(buf, 0, deflater.deflate(buf));
+        deflater.end();
+
+        byte[] data = compressed.toByteArray();
+        List<GamePacket> out = new ArrayList<>();
+        for (int offset = 0; offset < data.length; offset += CHUNK_SIZE) {
+            var chunk = LevelProto.LevelChunk.newBuilder()
+                                             .setHash(hash)
+                                             .setOffset(offset)
+                                             .setLength(data.length)
+                                             .setData(ByteString.copyFrom(
+                                                     data, offset, Math.min(CHUNK_SIZE, data.length - offset)));
+            out.add(new GamePacket(GamePacket.Type.SRV_LEVEL_CHUNK, chunk.build()));
+        }
+        LOG.debug("Compressed level '{}' from {} to {} bytes", level.getLevelName(), level.getSerializedSize(),
+                  data.length);
+        return out;
+    }
+
+    /**
+     * Puts the chunks of a level back together on the client.
+     */
+    public static class Receiver {
+        private final ByteString hash;
+        private       byte[]     data; // the compressed level, once we know how long it is
+        private       int        received; // bytes
+
+        /**
+         * @param hash the hash of the level being received
+         */
+        public Receiver(ByteString hash) {
+            this.hash = hash;
+        }
+
+        /**
+         * Adds a chunk of the level. Chunks are sent (and must thus arrive) in order.
+         *
+         * @param chunk the chunk
+         *
+         * @return the level, once every chunk has been received (and it is cached); or null until then, or if the chunk
+         * is of another level
+         *
+         * @throws IOException if the chunk is out of order, or the level is malformed
+         */
+        public LevelProto.LevelData add(LevelProto.LevelChunk chunk) throws IOException {
+            if (!chunk.getHash().equals(hash)) return null;
+            if (data == null) {
+                if (chunk.getLength() > MAX_LENGTH) throw new IOException("Level is too large");
+                data = new byte[chunk.getLength()];
+            }
+            if (chunk.getOffset() != received || chunk.getLength() != data.length ||
+                received + chunk.getData().size() > data.length) throw new IOException("Level chunk is out of order");
+
+            chunk.getData().copyTo(data, received);
+            received += chunk.getData().size();
+            return received == data.length ? LevelCache.store(hash, inflate(data)) : null;
+        }
+
+        private static byte[] inflate(byte[] data) throws IOException {
+            Inflater inflater = new Inflater();
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[CHUNK_SIZE];
+            try {
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(buf);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        throw new IOException("Level is truncated");
+                    out.write(buf, 0, n);
+                    if (out.size() > MAX_LENGTH) throw new IOException("Level is too large");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Level is malformed", e);
+            } finally {
+                inflater.end();
+            }
+            return out.toByteArray();
+        }
+    }
+}
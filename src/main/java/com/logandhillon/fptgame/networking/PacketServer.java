@@ -0,0 +1,394 @@
+package com.logandhillon.fptgame.networking;
+
+import com.logandhillon.logangamelib.networking.OutboundQueue;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A packet server accepts TCP connections and exchanges {@link GamePacket}s with them, using a single non-blocking
+ * {@link Selector} thread to handle every connection. What to do with those packets is left to the subclass, see
+ * {@link GameServer} (hosted by a player's game) and {@link DedicatedServer} (headless).
+ *
+ * @author Logan Dhillon
+ */
+public abstract class PacketServer implements Runnable {
+    private static final Logger LOG             = LoggerContext.getContext().getLogger(PacketServer.class);
+    private static final int    MAX_PACKET_SIZE = 4 * 1024 * 1024; // largest packet a client may send, in bytes
+    private static final int    READ_BUFFER     = 8 * 1024; // initial size of each connection's read buffer
+    private static final int    MAX_BACKLOG     = 256; // packets that may wait to be written to each connection
+    private static final long   CLOSE_TIMEOUT   = 500; // ms to wait for queued packets to flush when stopping
+    private static final long   SWEEP_INTERVAL  = 1000; // ms between checks for silent connections
+
+    private final    int                 port;
+    private final    long                idleTimeout; // ms of silence before a connection is dropped, or 0 for never
+    private          long                lastSweep; // when we last checked for silent connections (ns)
+    private volatile boolean             running; // if the server is running
+    private          ServerSocketChannel socket;
+    private          Selector            selector;
+    private          Thread              selectorThread;
+
+    /** the list of ALL active client connections, including unregistered ones. */
+    private final Set<Connection> clients = Collections.synchronizedSet(new HashSet<>());
+
+    /** connections that have had packets queued since the selector last checked, and need to be written to */
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param port the TCP port to listen on
+     */
+    protected PacketServer(int port) {
+        this(port, 0);
+    }
+
+    /**
+     * @param port        the TCP port to listen on
+     * @param idleTimeout ms that a connection may go without sending anything before it is presumed dead (e.g.
+     *                    half-open) and dropped, or 0 to leave that to the subclass; every client pings, so a live
+     *                    one is never silent for long, see {@link ClockSync}
+     */
+    protected PacketServer(int port, long idleTimeout) {
+        this.port = port;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Starts the server socket and the selector thread, which accepts incoming connections and handles all reads and
+     * writes for every connection.
+     *
+     * @throws IOException if the server socket fails to start.
+     */
+    public void start() throws IOException {
+        LOG.info("Starting server on port {}...", port);
+        selector = Selector.open();
+        socket = ServerSocketChannel.open();
+        socket.bind(new InetSocketAddress(port));
+        socket.configureBlocking(false);
+        socket.register(selector, SelectionKey.OP_ACCEPT);
+
+        running = true;
+        selectorThread = new Thread(this, "ServerSelector");
+        selectorThread.start();
+    }
+
+    /**
+     * Stops the selector thread, giving it a moment to flush any queued packets, then closes every connection and the
+     * server socket.
+     *
+     * @throws IOException if the socket fails to close.
+     */
+    public void stop() throws IOException {
+        running = false;
+
+        if (selectorThread != null) {
+            selector.wakeup();
+            try {
+                selectorThread.join(CLOSE_TIMEOUT); // let it flush the last packets and close connections
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (socket != null) {
+            LOG.info("Closing server socket now");
+            socket.close();
+        }
+    }
+
+    /**
+     * The selector loop that will run when this server is started in the thread.
+     *
+     * @see PacketServer#start()
+     */
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                if (idleTimeout > 0) selector.select(SWEEP_INTERVAL);
+                else selector.select();
+
+                // connections that were sent packets from other threads now want to be written to
+                Connection pending;
+                while ((pending = pendingWrites.poll()) != null) write(pending);
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) continue;
+
+                    try {
+                        if (key.isAcceptable()) accept();
+                        else {
+                            Connection conn = (Connection)key.attachment();
+                            if (key.isReadable()) read(conn);
+                            if (key.isValid() && key.isWritable()) write(conn);
+                        }
+                    } catch (IOException e) {
+                        if (key.attachment() instanceof Connection conn) disconnect(conn);
+                        else if (running) LOG.error(e);
+                    }
+                }
+
+                if (idleTimeout > 0) sweep();
+            }
+        } catch (IOException e) {
+            LOG.error("Server selector failed", e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * Drops every connection that we haven't heard from in over {@link #idleTimeout}, at most once per
+     * {@link #SWEEP_INTERVAL}, so that the subclass is told they are gone.
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        if (now - lastSweep < SWEEP_INTERVAL * 1_000_000) return;
+        lastSweep = now;
+
+        List<Connection> silent = new ArrayList<>();
+        synchronized (clients) {
+            for (Connection c: clients) if (now - c.lastHeard > idleTimeout * 1_000_000) silent.add(c);
+        }
+        for (Connection c: silent) {
+            LOG.warn("Haven't heard from client {} in {} ms, dropping their connection", c.getAddress(), idleTimeout);
+            disconnect(c);
+        }
+    }
+
+    /**
+     * Handles a decoded packet from a connection. This is called on the selector thread, so it must not block.
+     *
+     * @param conn   the connection the packet is from
+     * @param packet the packet itself
+     */
+    protected abstract void onPacket(Connection conn, GamePacket packet);
+
+    /**
+     * Called (once) after a connection has been closed, for whatever reason.
+     *
+     * @param conn the connection that was closed
+     */
+    protected abstract void onDisconnect(Connection conn);
+
+    /**
+     * @return true until this server is stopped
+     */
+    protected boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Accepts an incoming client connection and registers it with the selector.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = socket.accept();
+        if (channel == null) return;
+
+        LOG.info("Incoming client connection at {}", channel.getRemoteAddress());
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true); // we coalesce packets ourselves
+        Connection conn = new Connection(channel);
+        conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+        clients.add(conn);
+    }
+
+    /**
+     * Reads everything available from a connection, and decodes every complete {@code [length][packet]} frame in its
+     * buffer. Partial frames are kept in the buffer until the rest arrives.
+     */
+    private void read(Connection conn) throws IOException {
+        if (conn.channel.read(conn.in) == -1) {
+            disconnect(conn);
+            return;
+        }
+        conn.lastHeard = System.nanoTime();
+
+        conn.in.flip();
+        while (conn.in.remaining() >= 4) {
+            int length = conn.in.getInt(conn.in.position());
+            if (length <= 0 || length > MAX_PACKET_SIZE) {
+                LOG.warn("Received invalid packet length {} from {}", length, conn.getAddress());
+                conn.in.clear();
+                disconnect(conn);
+                return;
+            }
+
+            if (conn.in.remaining() < 4 + length) {
+                // wait for the rest of the frame, growing the buffer if it could never fit
+                if (conn.in.capacity() < 4 + length) {
+                    ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+                    bigger.put(conn.in);
+                    conn.in = bigger;
+                    return;
+                }
+                break;
+            }
+
+            conn.in.position(conn.in.position() + 4);
+            GamePacket packet = GamePacket.deserialize(conn.in, length);
+            if (packet != null) onPacket(conn, packet);
+        }
+        conn.in.compact();
+    }
+
+    /**
+     * Writes as much of a connection's flushed packets as the socket will take without blocking, and only asks the
+     * selector to notify us when it is writable if there is still something left to write.
+     */
+    private void write(Connection conn) {
+        if (!conn.key.isValid()) return;
+
+        boolean done;
+        try {
+            done = conn.out.write(conn.channel);
+        } catch (IOException e) {
+            disconnect(conn);
+            return;
+        }
+
+        if (done && conn.closeAfterFlush) {
+            disconnect(conn);
+            return;
+        }
+        conn.key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Closes a client connection, then lets the subclass know it is gone.
+     *
+     * @param conn the connection to close
+     */
+    protected void disconnect(Connection conn) {
+        if (!clients.remove(conn)) return; // already disconnected
+
+        LOG.info("Client {} disconnected", conn.getAddress());
+        conn.close();
+        onDisconnect(conn);
+    }
+
+    /**
+     * Makes a last attempt to flush every connection's queued packets, then closes them all.
+     */
+    private void closeAll() {
+        LOG.info("Closing {} client connection(s)", clients.size());
+        List<Connection> remaining;
+        synchronized (clients) {
+            remaining = new ArrayList<>(clients);
+        }
+        for (Connection c: remaining) {
+            write(c);
+            c.close();
+        }
+        clients.clear();
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOG.error("Failed to close selector", e);
+        }
+    }
+
+    /**
+     * A client's non-blocking connection to this server, with its own read buffer (for framing incoming packets) and
+     * {@link OutboundQueue} (so packets can be sent from any thread without blocking it).
+     */
+    protected final class Connection {
+        private final SocketChannel channel;
+        private final OutboundQueue out       = new OutboundQueue(MAX_BACKLOG);
+        private       ByteBuffer    in        = ByteBuffer.allocate(READ_BUFFER);
+        private       SelectionKey  key;
+        private       long          lastHeard = System.nanoTime(); // when we last read from it; selector thread only
+
+        private volatile boolean closeAfterFlush;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Queues a packet to be written by the selector thread. This is safe to call from any thread.
+         *
+         * @param pkt the packet to send
+         */
+        public void send(GamePacket pkt) {
+            LOG.debug("Sending {} packet to {}", pkt.type(), getAddress());
+            out.queue(pkt);
+            flush();
+        }
+
+        /**
+         * Queues a packet to be sent on the next {@link Connection#flush()}.
+         *
+         * @param pkt the packet to queue
+         */
+        public void queue(GamePacket pkt) {
+            out.queue(pkt);
+        }
+
+        /**
+         * Queues an already serialized packet to be sent on the next {@link Connection#flush()}.
+         *
+         * @param frame the packet to queue, which may also be queued to other connections
+         */
+        public void queue(OutboundQueue.Frame frame) {
+            out.queue(frame);
+        }
+
+        /**
+         * Marks every queued packet as ready and asks the selector thread to write them.
+         */
+        public void flush() {
+            out.flush();
+            pendingWrites.add(this);
+            selector.wakeup();
+        }
+
+        /**
+         * Closes this connection once everything that has been queued so far is written.
+         */
+        public void closeAfterFlush() {
+            closeAfterFlush = true;
+            flush();
+        }
+
+        /**
+         * @return true if this connection will be closed once its queued packets are written
+         */
+        public boolean isClosing() {
+            return closeAfterFlush;
+        }
+
+        private void close() {
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        /**
+         * @return the address of the remote end of this connection
+         */
+        public InetAddress getInetAddress() {
+            return channel.socket().getInetAddress();
+        }
+
+        public String getAddress() {
+            return getInetAddress().getHostAddress();
+        }
+    }
+}
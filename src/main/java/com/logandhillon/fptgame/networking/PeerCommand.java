@@ -0,0 +1,123 @@
+package com.logandhillon.fptgame.networking;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.logandhillon.fptgame.networking.proto.PlayerProto;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A gameplay command received from the connected peer. Commands are decoded on the network thread, added to the
+ * lock-free inbox of the server or client, and then applied in order by the game loop at the start of each tick, so
+ * network threads never mutate the scene directly.
+ *
+ * @author Logan Dhillon
+ */
+public sealed interface PeerCommand {
+    /**
+     * The guest's most recent inputs, oldest first. These overlap with the inputs of earlier commands.
+     *
+     * @param inputs          the guest's inputs, each stamped with the guest's tick
+     * @param ackStateTick    the host tick of the newest snapshot the guest has received
+     * @param requestKeyframe if the guest needs a full snapshot
+     */
+    record Input(List<PlayerProto.PlayerInput> inputs, int ackStateTick, boolean requestKeyframe)
+            implements PeerCommand {}
+
+    /**
+     * The host's authoritative state of every player.
+     *
+     * @param snapshot the snapshot, encoded by {@link SnapshotCodec}; this is decoded by the game loop, as it may be
+     *                 delta-encoded against an earlier snapshot
+     */
+    record State(byte[] snapshot) implements PeerCommand {}
+
+    /**
+     * A level button was pressed. The host presses it on its own tick, and tells its peers which tick that was, so that
+     * every peer turns its moving platforms around on the same tick of the level.
+     *
+     * @param tick the host's tick that it was pressed on, or -1 if this is a guest asking the host to press it
+     */
+    record PressButton(int tick) implements PeerCommand {
+        /**
+         * @return this command as a packet to send to the peer
+         */
+        public GamePacket toPacket() {
+            return new GamePacket(GamePacket.Type.COM_PRESS_BUTTON, ByteBuffer.allocate(4).putInt(tick).array());
+        }
+    }
+
+    /**
+     * The peer's most recent inputs in a rollback match, oldest first, see
+     * {@link com.logandhillon.fptgame.scene.RollbackLevelScene}.
+     *
+     * @param inputs       the peer's inputs since the last one we acknowledged, each stamped with the peer's tick
+     * @param ackInputTick the tick of the newest of our inputs that the peer has received
+     * @param level        the level they are for
+     */
+    record PeerInput(List<PlayerProto.PlayerInput> inputs, int ackInputTick, int level) implements PeerCommand {}
+
+    /**
+     * The host restarted the level in place.
+     *
+     * @param tick the host's tick that the level restarted on; its state from before then is stale
+     */
+    record Restart(int tick) implements PeerCommand {
+        /**
+         * @return this command as a packet to send to the host's peers
+         */
+        public GamePacket toPacket() {
+            return new GamePacket(GamePacket.Type.SRV_RESTART_LEVEL, ByteBuffer.allocate(4).putInt(tick).array());
+        }
+    }
+
+    /**
+     * We resumed our slot in the match after reconnecting, and must catch up on what we missed.
+     *
+     * @param levelState the host's tick and the state of its level, see
+     *                   {@link com.logandhillon.fptgame.scene.LevelScene#saveLevelState()}
+     */
+    record Resync(byte[] levelState) implements PeerCommand {}
+
+    /**
+     * The peer's connection was lost and its slot is being held, or it resumed its slot. This is not sent over the
+     * network, but added to the inbox by the server itself.
+     *
+     * @param held true if the slot is now being held, false if the peer resumed it
+     */
+    record Hold(boolean held) implements PeerCommand {}
+
+    /**
+     * Decodes a gameplay packet into a command.
+     *
+     * @param packet the packet received from the peer
+     *
+     * @return the decoded command, or null if the packet is not a gameplay command
+     *
+     * @throws InvalidProtocolBufferException if the packet's payload is malformed
+     */
+    static PeerCommand parse(GamePacket packet) throws InvalidProtocolBufferException {
+        return switch (packet.type()) {
+            case CLT_INPUT -> {
+                var batch = PlayerProto.PlayerInputBatch.parseFrom(packet.payload());
+                yield new Input(batch.getInputsList(), batch.getAckStateTick(), batch.getRequestKeyframe());
+            }
+            case COM_INPUT -> {
+                var batch = PlayerProto.PlayerInputBatch.parseFrom(packet.payload());
+                yield new PeerInput(batch.getInputsList(), batch.getAckInputTick(), batch.getLevel());
+            }
+            case SRV_STATE -> new State(packet.payload());
+            case COM_PRESS_BUTTON -> {
+                if (packet.payload().length != 4)
+                    throw new InvalidProtocolBufferException("Press must be 4 bytes, got " + packet.payload().length);
+                yield new PressButton(ByteBuffer.wrap(packet.payload()).getInt());
+            }
+            case SRV_RESTART_LEVEL -> {
+                if (packet.payload().length != 4)
+                    throw new InvalidProtocolBufferException("Restart must be 4 bytes, got " + packet.payload().length);
+                yield new Restart(ByteBuffer.wrap(packet.payload()).getInt());
+            }
+            default -> null;
+        };
+    }
+}
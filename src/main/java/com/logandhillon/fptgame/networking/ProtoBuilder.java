@@ -12,10 +12,24 @@ public class ProtoBuilder {
      * Builds a {@link com.logandhillon.fptgame.networking.proto.PlayerProto.PlayerData} protobuf
      *
      * @param name player name
+     * @param id   player ID in the lobby
      *
      * @return protobuf
      */
-    public static PlayerProto.PlayerData player(String name) {
-        return PlayerProto.PlayerData.newBuilder().setName(name).build();
+    public static PlayerProto.PlayerData player(String name, int id) {
+        return PlayerProto.PlayerData.newBuilder().setName(name).setId(id).build();
+    }
+
+    /**
+     * Builds a {@link com.logandhillon.fptgame.networking.proto.PlayerProto.PlayerData} protobuf
+     *
+     * @param name    player name
+     * @param udpPort port the player receives movement datagrams on, or 0 if none
+     * @param room    room to join on a dedicated server, or empty for any
+     *
+     * @return protobuf
+     */
+    public static PlayerProto.PlayerData player(String name, int udpPort, String room) {
+        return PlayerProto.PlayerData.newBuilder().setName(name).setUdpPort(udpPort).setRoom(room).build();
     }
 }
@@ -0,0 +1,501 @@
+package com.logandhillon.fptgame.networking;
+
+import com.google.protobuf.ByteString;
+import com.logandhillon.fptgame.networking.proto.LevelProto;
+import com.logandhillon.fptgame.networking.proto.PlayerProto;
+import com.logandhillon.fptgame.resource.Levels;
+import com.logandhillon.fptgame.scene.LevelScene;
+import com.logandhillon.fptgame.scene.ServerLevelScene;
+import com.logandhillon.logangamelib.engine.HeadlessRunner;
+import com.logandhillon.logangamelib.networking.OutboundQueue;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A room is one lobby on a {@link DedicatedServer}, and the match that is played in it once every player has joined.
+ * <p>
+ * Each room is pinned to one {@link HeadlessRunner} (a shard of the server's tick threads), which simulates every level
+ * of its match in a {@link ServerLevelScene}. Rooms share no mutable state, so a room's players and match are only
+ * touched by the selector thread (requests) and its own shard's thread (gameplay).
+ * <p>
+ * If a player's connection is lost in a match, their slot is held (and their player held still) so that they may resume
+ * it with their session token, as in a {@link GameServer}; the match only ends if they don't resume in time.
+ *
+ * @author Logan Dhillon
+ */
+public class Room {
+    private static final Logger LOG         = LoggerContext.getContext().getLogger(Room.class);
+    public static final  int    MIN_PLAYERS = 2;
+    public static final  int    MAX_PLAYERS = 8;
+
+    private static final SecureRandom RANDOM = new SecureRandom(); // for session tokens
+
+    private final String                name;
+    private final int                   shardIndex;
+    private final HeadlessRunner        shard;
+    private final Player[]              players; // by ID, or null if the ID is free
+    private       HeadlessRunner.Handle match; // the match being played, or null if we are waiting for players
+
+    // metrics, for the current match
+    private final LongAdder commands  = new LongAdder(); // gameplay commands received from players
+    private final LongAdder snapshots = new LongAdder(); // world state snapshots sent to players
+    private       long      lastTicks, lastBusyNanos; // as of the last report
+
+    /**
+     * A registered player.
+     *
+     * @param id    the player's ID, which is also their index in the match's entity registry
+     * @param inbox this player's gameplay commands, drained by the shard's thread
+     * @param udp   the link that this player's movement is sent over, or null to only use TCP
+     * @param token the player's session token, to resume their slot with
+     * @param lost  if the player's connection was lost, and their slot is being held
+     */
+    private record Player(PacketServer.Connection connection, String name, int id, Queue<PeerCommand> inbox,
+                          DatagramLink udp, ByteString token, boolean lost) {}
+
+    /**
+     * @param name       the name of the room, which players join it by
+     * @param capacity   how many players the match is for, from {@link #MIN_PLAYERS} to {@link #MAX_PLAYERS}
+     * @param shardIndex the index of the shard, for balancing rooms across them
+     * @param shard      the tick thread that this room's matches are simulated on
+     */
+    Room(String name, int capacity, int shardIndex, HeadlessRunner shard) {
+        this.name = name;
+        this.players = new Player[capacity];
+        this.shardIndex = shardIndex;
+        this.shard = shard;
+    }
+
+    /**
+     * Registers a client as a player with the first free ID, if its name is not taken, and starts the match once every
+     * ID is taken.
+     *
+     * @param conn the client's connection
+     * @param data the client's registration request
+     *
+     * @return true if the client was registered; if not, it has been sent the reason and will be disconnected
+     */
+    synchronized boolean register(PacketServer.Connection conn, PlayerProto.PlayerData data) {
+        int id = -1; // the first free ID
+        for (int i = 0; i < players.length; i++) {
+            if (players[i] == null) {
+                if (id == -1) id = i;
+            } else if (players[i].name.equals(data.getName())) {
+                LOG.info("Denying connection from {} to '{}' (name '{}' in use)", conn.getAddress(), name,
+                         data.getName());
+                deny(conn, GamePacket.Type.SRV_DENY_CONN__USERNAME_TAKEN);
+                return false;
+            }
+        }
+
+        if (id == -1 || match != null) {
+            LOG.info("Denying connection from {} to '{}' (room full)", conn.getAddress(), name);
+            deny(conn, GamePacket.Type.SRV_DENY_CONN__FULL);
+            return false;
+        }
+
+        // movement is sent over UDP, on a port of its own for each player, if we can bind one
+        Queue<PeerCommand> inbox = new ConcurrentLinkedQueue<>();
+        DatagramLink udp = null;
+        try {
+            udp = new DatagramLink(0, pkt -> onDatagram(inbox, pkt));
+            if (data.getUdpPort() != 0)
+                udp.setRemote(new InetSocketAddress(conn.getInetAddress(), data.getUdpPort()));
+        } catch (IOException e) {
+            LOG.warn("Failed to open datagram link for {}, their movement will only use TCP", data.getName(), e);
+        }
+
+        players[id] = new Player(conn, data.getName(), id, inbox, udp, newToken(), false);
+        LOG.info("Registered '{}' at {} as player {} of '{}'", data.getName(), conn.getAddress(), id, name);
+
+        propagateLobbyUpdate();
+        if (isFull()) startMatch();
+        return true;
+    }
+
+    private static void deny(PacketServer.Connection conn, GamePacket.Type reason) {
+        conn.send(new GamePacket(reason));
+        conn.closeAfterFlush();
+    }
+
+    /**
+     * Handles a packet from one of this room's players, on the selector thread. Gameplay commands go into the player's
+     * inbox.
+     *
+     * @param conn   the player's connection
+     * @param packet the packet
+     *
+     * @return true if the packet was handled
+     */
+    boolean onPacket(PacketServer.Connection conn, GamePacket packet) {
+        Player player = find(conn);
+        if (player == null) return false;
+
+        try {
+            PeerCommand cmd = PeerCommand.parse(packet);
+            if (cmd == null) return false;
+            player.inbox.add(cmd);
+            commands.increment();
+        } catch (IOException e) {
+            LOG.error("Failed to parse {} from client at {}", packet.type(), conn.getAddress(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Gives a player their slot in the match back on a new connection, if it has their session token. The match then
+     * lets them move again, and sends them the state of the level so that they can catch up on what they missed.
+     *
+     * @param conn the client's new connection
+     * @param data the client's request to resume
+     *
+     * @return the player's old connection (which may be half-open, and not know it yet), or null if the client has no
+     * slot in this room's match
+     */
+    synchronized PacketServer.Connection resume(PacketServer.Connection conn, PlayerProto.PlayerData data) {
+        if (match == null) return null;
+        for (Player p: players) {
+            if (p == null || !p.token.equals(data.getSessionToken())) continue;
+
+            players[p.id] = new Player(conn, p.name, p.id, p.inbox, p.udp, p.token, false);
+            if (p.udp != null && data.getUdpPort() != 0)
+                p.udp.setRemote(new InetSocketAddress(conn.getInetAddress(), data.getUdpPort()));
+            p.inbox.add(new PeerCommand.Hold(false));
+            LOG.info("Player '{}' resumed their slot in '{}' from {}", p.name, name, conn.getAddress());
+            return p.connection;
+        }
+        return null;
+    }
+
+    /**
+     * If the closed connection was a player in a match, holds their slot for them to resume (see
+     * {@link Room#expire(PacketServer.Connection)}); otherwise, frees it.
+     *
+     * @param conn the connection that was closed
+     *
+     * @return true if their slot is being held
+     */
+    boolean onDisconnect(PacketServer.Connection conn) {
+        synchronized (this) {
+            Player player = find(conn);
+            if (player == null || player.lost) return false;
+            if (match != null) {
+                players[player.id] = new Player(conn, player.name, player.id, player.inbox, player.udp, player.token,
+                                                true);
+                player.inbox.add(new PeerCommand.Hold(true)); // so they don't keep running with their last input
+                LOG.warn("Lost connection to '{}' in '{}', holding their slot", player.name, name);
+                return true;
+            }
+        }
+        leave(conn);
+        return false;
+    }
+
+    /**
+     * Ends the match if the player whose connection was lost has not resumed their slot yet. This should be called
+     * once the grace period for resuming is over.
+     *
+     * @param conn the connection that was lost
+     */
+    void expire(PacketServer.Connection conn) {
+        Player player = find(conn);
+        if (player == null || !player.lost) return; // they resumed (on another connection), or the match ended
+
+        LOG.info("Player '{}' did not resume their slot in '{}' in time", player.name, name);
+        endMatch("Your partner lost their connection, and did not reconnect in time.");
+    }
+
+    /**
+     * If the connection is a player, frees its slot, and ends the match if there is one (as it cannot go on without
+     * them). This is for players that leave on purpose, whose slot is not held for them.
+     *
+     * @param conn the player's connection
+     */
+    void leave(PacketServer.Connection conn) {
+        Player player;
+        synchronized (this) {
+            player = find(conn);
+            if (player == null) return;
+            players[player.id] = null;
+        }
+
+        LOG.info("Player '{}' left '{}'", player.name, name);
+        if (player.udp != null) player.udp.close();
+
+        if (isPlaying()) endMatch("Your partner has left the game.");
+        else propagateLobbyUpdate();
+    }
+
+    /**
+     * Sends each player the lobby's player list, along with which player they are and where to send their movement.
+     */
+    private synchronized void propagateLobbyUpdate() {
+        var lobby = PlayerProto.Lobby.newBuilder().setName(name).setCapacity(players.length);
+        for (Player p: players) if (p != null) lobby.addPlayers(ProtoBuilder.player(p.name, p.id));
+
+        for (Player p: players) {
+            if (p == null) continue;
+            lobby.setPlayerId(p.id).setUdpPort(p.udp != null ? p.udp.getLocalPort() : 0).setSessionToken(p.token);
+            p.connection.send(new GamePacket(GamePacket.Type.SRV_UPDATE_PLAYERLIST, lobby.build()));
+        }
+    }
+
+    /**
+     * Starts the match from the first level, on this room's shard. The level is loaded and built on the shard's thread,
+     * so that the selector thread (which this is called on) can keep serving every other room in the meantime.
+     */
+    private synchronized void startMatch() {
+        LOG.info("Every player is in '{}', starting the match", name);
+        commands.reset();
+        snapshots.reset();
+        lastTicks = lastBusyNanos = 0;
+        match = shard.attach(() -> {
+            LevelProto.LevelData level = Levels.get(Levels.LEVEL_1);
+            broadcast(new GamePacket(GamePacket.Type.SRV_GAME_STARTING, LevelTransfer.announce(level)));
+            return new ServerLevelScene(level, this);
+        }, () -> endMatch("The server had a problem."));
+    }
+
+    /**
+     * Ends the match: stops simulating it, then tells every player why and closes their connections, so that the
+     * room is empty again.
+     *
+     * @param reason why the match ended, which is shown to the players
+     */
+    public void endMatch(String reason) {
+        if (!stopMatch()) return;
+        LOG.info("Match in '{}' ended: {}", name, reason);
+
+        byte[] payload = reason.getBytes(StandardCharsets.UTF_8);
+        for (Player p: removeAll()) {
+            if (!p.lost) {
+                p.connection.send(new GamePacket(GamePacket.Type.SRV_MATCH_ENDED, payload));
+                p.connection.closeAfterFlush();
+            }
+            if (p.udp != null) p.udp.close();
+        }
+    }
+
+    /**
+     * Ends the match, if there is one, and tells every player that the server is shutting down.
+     */
+    void close() {
+        stopMatch();
+        for (Player p: removeAll()) {
+            if (!p.lost) p.connection.send(new GamePacket(GamePacket.Type.SRV_SHUTDOWN));
+            if (p.udp != null) p.udp.close();
+        }
+    }
+
+    /**
+     * Detaches the match from the shard, waiting for its current tick to finish (unless this is called from the
+     * shard's thread). This must not hold the lock on this room, as the shard's thread may be waiting for it.
+     *
+     * @return true if there was a match to stop
+     */
+    private boolean stopMatch() {
+        HeadlessRunner.Handle match;
+        synchronized (this) {
+            match = this.match;
+            this.match = null;
+        }
+        if (match == null) return false;
+
+        match.detach();
+        return true;
+    }
+
+    /**
+     * Switches the match to another level, once its current tick is done.
+     *
+     * @param scene the level to switch to
+     */
+    public synchronized void setScene(LevelScene scene) {
+        if (match != null) match.setScene(scene);
+    }
+
+    /**
+     * Takes the next gameplay command from a player's inbox.
+     *
+     * @param id the player's ID
+     *
+     * @return the oldest command that has not been taken yet, or null if there is none (or no such player)
+     */
+    public PeerCommand poll(int id) {
+        Player p = getPlayer(id);
+        return p != null ? p.inbox.poll() : null;
+    }
+
+    /**
+     * Sends a packet to a player immediately, unless their connection was lost.
+     *
+     * @param id  the player's ID
+     * @param pkt the packet to send
+     */
+    public void send(int id, GamePacket pkt) {
+        Player p = getPlayer(id);
+        if (p != null && !p.lost) p.connection.send(pkt);
+    }
+
+    /**
+     * Sends a packet to every player immediately. It is only serialized once.
+     *
+     * @param pkt the packet to send
+     */
+    public synchronized void broadcast(GamePacket pkt) {
+        queueAll(pkt, -1);
+        flush();
+    }
+
+    /**
+     * Queues a packet to every player but one, to be sent on the next {@link Room#flush()}. It is only serialized once.
+     *
+     * @param pkt    the packet to queue
+     * @param except the ID of the player not to send it to (i.e. the one it came from), or -1 for none
+     */
+    public synchronized void queueAll(GamePacket pkt, int except) {
+        OutboundQueue.Frame frame = OutboundQueue.Frame.of(pkt);
+        for (Player p: players) if (p != null && !p.lost && p.id != except) p.connection.queue(frame);
+    }
+
+    /**
+     * Sends an already serialized packet that a newer one will supersede (i.e. movement) to a player. This uses their
+     * {@link DatagramLink} if there is one, and also queues it over TCP until the link is confirmed to work.
+     *
+     * @param id    the player's ID
+     * @param frame the packet to send, which may also be sent to other players
+     * @param tick  the tick the packet was produced on
+     */
+    public void sendUnreliable(int id, OutboundQueue.Frame frame, long tick) {
+        Player p = getPlayer(id);
+        if (p == null || p.lost) return;
+
+        if (p.udp != null && p.udp.hasRemote()) p.udp.send(frame.packet(), tick);
+        if (p.udp == null || !p.udp.isConfirmed()) p.connection.queue(frame);
+        snapshots.increment();
+    }
+
+    /**
+     * Sends every queued packet to each player in one write. This should be called at the end of each tick.
+     */
+    public synchronized void flush() {
+        for (Player p: players) if (p != null && !p.lost) p.connection.flush();
+    }
+
+    /**
+     * Handles a packet from a player's {@link DatagramLink}; only movement is accepted over UDP.
+     */
+    private void onDatagram(Queue<PeerCommand> inbox, GamePacket packet) {
+        if (!packet.type().isDroppable()) return;
+        try {
+            inbox.add(PeerCommand.parse(packet));
+            commands.increment();
+        } catch (IOException e) {
+            LOG.warn("Failed to parse {} datagram from client", packet.type(), e);
+        }
+    }
+
+    /**
+     * Logs how this room has been doing since the last report: how busy its match has kept its shard, and how much
+     * traffic it has handled.
+     *
+     * @param seconds the time since the last report (seconds)
+     */
+    synchronized void reportMetrics(float seconds) {
+        if (match == null) {
+            LOG.info("Room '{}': waiting, {}/{} player(s)", name, getPlayerCount(), players.length);
+            return;
+        }
+
+        long ticks = match.getTicks(), busy = match.getBusyNanos();
+        long dt = ticks - lastTicks;
+        LOG.info("Room '{}': {} ticks/s, {} us/tick (max {} us), {} commands, {} snapshots", name,
+                 Math.round(dt / seconds), dt > 0 ? (busy - lastBusyNanos) / dt / 1000 : 0,
+                 match.takeMaxTickNanos() / 1000, commands.sumThenReset(), snapshots.sumThenReset());
+        lastTicks = ticks;
+        lastBusyNanos = busy;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    int getShard() {
+        return shardIndex;
+    }
+
+    /**
+     * @return how many players the match is for
+     */
+    public int getCapacity() {
+        return players.length;
+    }
+
+    /**
+     * @return true if this room is waiting for players, and not every ID is taken
+     */
+    synchronized boolean isOpen() {
+        return match == null && !isFull();
+    }
+
+    synchronized boolean isEmpty() {
+        return getPlayerCount() == 0;
+    }
+
+    private synchronized int getPlayerCount() {
+        int n = 0;
+        for (Player p: players) if (p != null) n++;
+        return n;
+    }
+
+    private synchronized Player getPlayer(int id) {
+        return players[id];
+    }
+
+    private synchronized Player find(PacketServer.Connection conn) {
+        for (Player p: players) if (p != null && p.connection == conn) return p;
+        return null;
+    }
+
+    private synchronized boolean isFull() {
+        for (Player p: players) if (p == null) return false;
+        return true;
+    }
+
+    private synchronized boolean isPlaying() {
+        return match != null;
+    }
+
+    /**
+     * @return a new random session token
+     */
+    private static ByteString newToken() {
+        byte[] token = new byte[GameServer.TOKEN_SIZE];
+        RANDOM.nextBytes(token);
+        return ByteString.copyFrom(token);
+    }
+
+    /**
+     * Frees every ID.
+     *
+     * @return the players that were in them
+     */
+    private synchronized List<Player> removeAll() {
+        List<Player> removed = new ArrayList<>(players.length);
+        for (int i = 0; i < players.length; i++) {
+            if (players[i] != null) removed.add(players[i]);
+            players[i] = null;
+        }
+        return removed;
+    }
+}
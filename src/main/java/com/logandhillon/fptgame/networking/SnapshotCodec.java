@@ -0,0 +1,281 @@
+package com.logandhillon.fptgame.networking;
+
+import com.logandhillon.fptgame.networking.proto.PlayerProto;
+import com.logandhillon.logangamelib.networking.BitReader;
+import com.logandhillon.logangamelib.networking.BitWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes the host's world state snapshots (see {@link GamePacket.Type#SRV_STATE}) into a compact bit-packed format.
+ * <p>
+ * A snapshot holds the state of every player, by player ID, along with the tick of the last input the host has
+ * applied to each of them; so every recipient is sent the same snapshot, and only reads its own ack. Positions and
+ * velocities are quantized to fixed-point, and every field is delta-encoded against a baseline snapshot that the
+ * recipient has acknowledged, so an unchanged field costs one bit. If there is no such baseline (e.g. the first
+ * snapshot, or the recipient asked for one), a full keyframe is sent instead.
+ * <p>
+ * A snapshot may also leave out players that the recipient is not interested in (see
+ * {@link com.logandhillon.logangamelib.networking.InterestGrid}), or that are only sent to it at a lower rate: it
+ * carries which players are of interest, and which of them are present. A present player is only delta-encoded if it
+ * was also present in the baseline, and is otherwise encoded against zero.
+ * <p>
+ * Format: {@code [32 tick][8 players][players interest][players present][1 keyframe][32 baseline tick, if not a
+ * keyframe]}, then for every field of every present player: {@code [1 changed][signed delta, if changed]}.
+ *
+ * @author Logan Dhillon
+ */
+public final class SnapshotCodec {
+    private static final float POSITION_SCALE = 8; // 1/8 px
+    private static final float VELOCITY_SCALE = 4; // 1/4 px/s
+    private static final int   PLAYER_FIELDS  = 7; // x, y, vx, vy, direction, grounded, ack input tick
+    private static final int   HISTORY        = 64; // snapshots kept as baselines
+    private static final int   NO_BASELINE    = -1;
+    public static final  int   MAX_PLAYERS    = 64; // as interest is a bitmask by player ID
+
+    private SnapshotCodec() {}
+
+    /**
+     * A quantized world state.
+     *
+     * @param tick     the host's tick this snapshot is from
+     * @param interest the players the recipient is interested in, as a bitmask by player ID
+     * @param present  the players whose state is in this snapshot, as a bitmask by player ID
+     * @param fields   the quantized fields of every player, by player ID; those of absent players are 0
+     */
+    public record Snapshot(int tick, long interest, long present, int[] fields) {
+        /**
+         * @return how many players are in this snapshot
+         */
+        public int getPlayerCount() {
+            return fields.length / PLAYER_FIELDS;
+        }
+
+        /**
+         * @param id the player's ID
+         *
+         * @return the player's state
+         */
+        public PlayerProto.PlayerState getState(int id) {
+            return dequantize(fields, id * PLAYER_FIELDS);
+        }
+
+        /**
+         * @param id the player's ID
+         *
+         * @return the tick of the last input from the player that the host has applied
+         */
+        public int getAckInputTick(int id) {
+            return fields[id * PLAYER_FIELDS + 6];
+        }
+
+        /**
+         * @param id the player's ID
+         *
+         * @return true if the player's state is in this snapshot
+         */
+        public boolean isPresent(int id) {
+            return (present & (1L << id)) != 0;
+        }
+    }
+
+    /**
+     * Quantizes the state of every player into a snapshot.
+     *
+     * @param tick          the host's tick
+     * @param states        the state of every player, by player ID
+     * @param ackInputTicks the tick of the last input the host has applied to every player, by player ID (0 for the
+     *                      host's own player)
+     *
+     * @return the quantized snapshot, in which every player is of interest and present
+     */
+    public static Snapshot quantize(int tick, PlayerProto.PlayerState[] states, int[] ackInputTicks) {
+        if (states.length > MAX_PLAYERS) throw new IllegalArgumentException("Too many players for a snapshot");
+        int[] fields = new int[states.length * PLAYER_FIELDS];
+        for (int id = 0; id < states.length; id++) {
+            quantize(states[id], fields, id * PLAYER_FIELDS);
+            fields[id * PLAYER_FIELDS + 6] = ackInputTicks[id];
+        }
+        long all = states.length == MAX_PLAYERS ? -1L : (1L << states.length) - 1;
+        return new Snapshot(tick, all, all, fields);
+    }
+
+    /**
+     * Encodes a snapshot, delta-encoded against a baseline.
+     *
+     * @param out      the writer to encode to; it is reset first
+     * @param snapshot the snapshot to encode, with the interest and presence of the recipient
+     * @param baseline the snapshot to encode against, with the presence it was sent to the recipient with; or null to
+     *                 encode a keyframe. It is ignored if its players differ
+     *
+     * @return the encoded snapshot
+     */
+    public static byte[] encode(BitWriter out, Snapshot snapshot, Snapshot baseline) {
+        if (baseline != null && baseline.fields.length != snapshot.fields.length) baseline = null;
+        int players = snapshot.getPlayerCount();
+
+        out.reset();
+        out.write(snapshot.tick, 32);
+        out.write(players, 8);
+        writeMask(out, snapshot.interest, players);
+        writeMask(out, snapshot.present, players);
+        out.writeBool(baseline == null);
+        if (baseline != null) out.write(baseline.tick, 32);
+
+        for (int id = 0; id < players; id++) {
+            if (!snapshot.isPresent(id)) continue;
+            boolean delta = baseline != null && baseline.isPresent(id);
+            for (int i = id * PLAYER_FIELDS; i < (id + 1) * PLAYER_FIELDS; i++) {
+                int d = snapshot.fields[i] - (delta ? baseline.fields[i] : 0);
+                out.writeBool(d != 0);
+                if (d != 0) out.writeSigned(d);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a snapshot.
+     *
+     * @param data    the encoded snapshot
+     * @param history the snapshots received so far, to find the baseline in
+     *
+     * @return the decoded snapshot, or null if its baseline is not in the history (so a keyframe is needed)
+     *
+     * @throws IllegalStateException if the data is malformed
+     */
+    public static Snapshot decode(byte[] data, History history) {
+        BitReader in = new BitReader(data);
+        int tick = (int)in.read(32);
+        int players = (int)in.read(8);
+        if (players > MAX_PLAYERS) throw new IllegalStateException("Snapshot has too many players");
+        long interest = readMask(in, players);
+        long present = readMask(in, players);
+        int[] fields = new int[players * PLAYER_FIELDS];
+
+        Snapshot baseline = null;
+        if (!in.readBool()) {
+            baseline = history.get((int)in.read(32));
+            if (baseline == null) return null;
+            if (baseline.fields.length != fields.length) throw new IllegalStateException("Baseline has other players");
+        }
+
+        for (int id = 0; id < players; id++) {
+            if ((present & (1L << id)) == 0) continue;
+            boolean delta = baseline != null && baseline.isPresent(id);
+            for (int i = id * PLAYER_FIELDS; i < (id + 1) * PLAYER_FIELDS; i++) {
+                fields[i] = delta ? baseline.fields[i] : 0;
+                if (in.readBool()) fields[i] += in.readSigned();
+            }
+        }
+        return new Snapshot(tick, interest, present, fields);
+    }
+
+    private static void writeMask(BitWriter out, long mask, int players) {
+        for (int id = 0; id < players; id++) out.writeBool((mask & (1L << id)) != 0);
+    }
+
+    private static long readMask(BitReader in, int players) {
+        long mask = 0;
+        for (int id = 0; id < players; id++) if (in.readBool()) mask |= 1L << id;
+        return mask;
+    }
+
+    private static void quantize(PlayerProto.PlayerState state, int[] out, int offset) {
+        out[offset] = Math.round(state.getX() * POSITION_SCALE);
+        out[offset + 1] = Math.round(state.getY() * POSITION_SCALE);
+        out[offset + 2] = Math.round(state.getVx() * VELOCITY_SCALE);
+        out[offset + 3] = Math.round(state.getVy() * VELOCITY_SCALE);
+        out[offset + 4] = state.getDirection();
+        out[offset + 5] = state.getGrounded() ? 1 : 0;
+    }
+
+    private static PlayerProto.PlayerState dequantize(int[] fields, int offset) {
+        return PlayerProto.PlayerState.newBuilder()
+                                      .setX(fields[offset] / POSITION_SCALE)
+                                      .setY(fields[offset + 1] / POSITION_SCALE)
+                                      .setVx(fields[offset + 2] / VELOCITY_SCALE)
+                                      .setVy(fields[offset + 3] / VELOCITY_SCALE)
+                                      .setDirection(fields[offset + 4])
+                                      .setGrounded(fields[offset + 5] != 0)
+                                      .build();
+    }
+
+    /**
+     * The most recent snapshots, by tick, which may be used as baselines.
+     */
+    public static class History {
+        private final Snapshot[] snapshots = new Snapshot[HISTORY];
+
+        public void put(Snapshot snapshot) {
+            snapshots[Math.floorMod(snapshot.tick, HISTORY)] = snapshot;
+        }
+
+        /**
+         * @return the snapshot from the tick, or null if it is not (or no longer) in the history
+         */
+        public Snapshot get(int tick) {
+            Snapshot s = snapshots[Math.floorMod(tick, HISTORY)];
+            return s != null && s.tick == tick ? s : null;
+        }
+    }
+
+    /**
+     * Encodes the host's snapshots for every recipient. Each snapshot is only encoded once per distinct baseline and
+     * interest, and recipients that have acknowledged the same snapshot (and are interested in the same players) share
+     * the same encoding, so the cost per added player stays small.
+     */
+    public static class Encoder {
+        private final History   sent = new History();
+        private final BitWriter out  = new BitWriter(64);
+
+        // the snapshot being sent, and its encodings so far
+        private       Snapshot      current;
+        private final List<Encoded> encoded = new ArrayList<>();
+
+        private record Encoded(int baselineTick, long baselinePresent, long interest, long present, byte[] data) {}
+
+        /**
+         * Starts sending a new snapshot, which becomes a baseline for later ones.
+         *
+         * @param snapshot the snapshot to send, of every player
+         */
+        public void begin(Snapshot snapshot) {
+            current = snapshot;
+            sent.put(snapshot);
+            encoded.clear();
+        }
+
+        /**
+         * Encodes the current snapshot for a recipient, or reuses the encoding of another recipient that has
+         * acknowledged the same snapshot and is interested in the same players.
+         *
+         * @param ackStateTick the tick of the newest snapshot the recipient has received, or -1 for a keyframe
+         * @param ackPresent   the players that were present in that snapshot, as it was sent to the recipient
+         * @param interest     the players the recipient is interested in
+         * @param present      the players to send to the recipient (of those it is interested in)
+         *
+         * @return the encoded snapshot, which must not be modified (as it may be shared)
+         */
+        public byte[] encode(int ackStateTick, long ackPresent, long interest, long present) {
+            if (current == null) throw new IllegalStateException("No snapshot to encode");
+
+            Snapshot baseline = ackStateTick < 0 || ackStateTick == current.tick ? null : sent.get(ackStateTick);
+            int baselineTick = baseline != null ? baseline.tick : NO_BASELINE;
+            long baselinePresent = baseline != null ? ackPresent : 0;
+            present &= interest;
+
+            for (Encoded e: encoded) {
+                if (e.baselineTick == baselineTick && e.baselinePresent == baselinePresent && e.interest == interest &&
+                    e.present == present) return e.data;
+            }
+
+            byte[] data = SnapshotCodec.encode(
+                    out, new Snapshot(current.tick, interest, present, current.fields),
+                    baseline != null ? new Snapshot(baseline.tick, baseline.interest, ackPresent, baseline.fields) : null);
+            encoded.add(new Encoded(baselineTick, baselinePresent, interest, present, data));
+            return data;
+        }
+    }
+}
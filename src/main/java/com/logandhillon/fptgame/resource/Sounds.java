@@ -18,8 +18,9 @@ public class Sounds {
     public static final AudioClip GAME_JUMP        = ResourceLoader.loadSafe(AudioResource.class, "game/jump.wav");
     public static final AudioClip GAME_LAND        = ResourceLoader.loadSafe(AudioResource.class, "game/land.wav");
 
-    private static float musicVol;
-    private static float sfxVol;
+    private static float   musicVol;
+    private static float   sfxVol;
+    private static boolean enabled = true;
 
     /**
      * Recalculates volumes from {@link GameHandler#getUserConfig()}
@@ -36,7 +37,7 @@ public class Sounds {
      * @param sound sound clip to play
      */
     public static void playSfx(AudioClip sound) {
-        sound.play(sfxVol);
+        if (enabled) sound.play(sfxVol);
     }
 
     /**
@@ -45,6 +46,15 @@ public class Sounds {
      * @param sound music clip to play
      */
     public static void playMusic(AudioClip sound) {
-        sound.play(musicVol);
+        if (enabled) sound.play(musicVol);
+    }
+
+    /**
+     * Enables or disables playing any sound, e.g. for a dedicated server that has no one to play it to.
+     *
+     * @param enabled if sounds should be played
+     */
+    public static void setEnabled(boolean enabled) {
+        Sounds.enabled = enabled;
     }
 }
@@ -77,28 +77,34 @@ public class Textures {
                 new ParallaxBackground.Layer("bg/ocean8/4.png", 80f));
     }
 
-    public static final Image LEVEL_BUTTON;
-
-    public static final Image SETTINGS_ICON;
-    public static final Image X_ICON;
-
-    static {
-        try (var res = new ImageResource("menuicons/cog.png")) {
-            SETTINGS_ICON = res.load();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
-        try (var res = new ImageResource("menuicons/x.png")) {
-            X_ICON = res.load();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
-        try (var res = new ImageResource("button.png")) {
-            LEVEL_BUTTON = res.load();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    /**
+     * Standalone images, in a class of their own so that they are only loaded once they are first used, as loading an
+     * image starts the JavaFX toolkit (which must not be started when running headlessly, e.g. on a dedicated server).
+     */
+    public static final class Images {
+        public static final Image LEVEL_BUTTON;
+
+        public static final Image SETTINGS_ICON;
+        public static final Image X_ICON;
+
+        static {
+            try (var res = new ImageResource("menuicons/cog.png")) {
+                SETTINGS_ICON = res.load();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            try (var res = new ImageResource("menuicons/x.png")) {
+                X_ICON = res.load();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            try (var res = new ImageResource("button.png")) {
+                LEVEL_BUTTON = res.load();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 }
@@ -1,55 +1,116 @@
 package com.logandhillon.fptgame.scene;
 
 import com.logandhillon.fptgame.GameHandler;
-import com.logandhillon.fptgame.entity.game.PortalEntity;
 import com.logandhillon.fptgame.entity.player.ControllablePlayerEntity;
 import com.logandhillon.fptgame.entity.player.PlayerEntity;
 import com.logandhillon.fptgame.entity.player.PlayerInputSender;
 import com.logandhillon.fptgame.networking.GamePacket;
-import com.logandhillon.fptgame.networking.PeerMovementPoller;
+import com.logandhillon.fptgame.networking.GameServer;
+import com.logandhillon.fptgame.networking.LevelTransfer;
+import com.logandhillon.fptgame.networking.PeerCommand;
+import com.logandhillon.fptgame.networking.SnapshotCodec;
 import com.logandhillon.fptgame.networking.proto.LevelProto;
 import com.logandhillon.fptgame.networking.proto.PlayerProto;
 import com.logandhillon.logangamelib.engine.GameScene;
+import com.logandhillon.logangamelib.networking.SnapshotBuffer;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+
 /**
  * Loads encoded level data into a playable {@link GameScene}
+ * <p>
+ * The host is authoritative for every player: the guest sends its tick-stamped inputs, which the host applies (one per
+ * tick) to its copy of the guest, and the host regularly sends the state of every player back. The guest predicts its
+ * own player immediately, and when the host's state arrives, it snaps to it and replays every input the host has not
+ * applied yet. Every other player is rendered slightly in the past by the guest, interpolating between their states.
+ * <p>
+ * The host's state is sent at a fixed rate (see {@link DynamicLevelScene#DEFAULT_SNAPSHOT_RATE}) as snapshots that are
+ * delta-encoded against the newest snapshot the guest has acknowledged, see {@link SnapshotCodec}.
+ * <p>
+ * Players are kept in a registry by their ID (the host is 0, see {@link GameServer}). On a
+ * {@link com.logandhillon.fptgame.networking.DedicatedServer}, every player is a guest, and the server (see
+ * {@link ServerLevelScene}) acts as the host, for as many players as the room is for.
  *
  * @author Logan Dhillon
  */
 public class DynamicLevelScene extends LevelScene {
-    private static final Logger LOG = LoggerContext.getContext().getLogger(DynamicLevelScene.class);
+    private static final Logger LOG                   = LoggerContext.getContext().getLogger(DynamicLevelScene.class);
+    static final         int    DEFAULT_SNAPSHOT_RATE = 30; // world state snapshots per second, unless configured
+    private static final int    INPUT_REDUNDANCY      = 8; // how many of the latest inputs the guest sends every tick
+    private static final int    MAX_PENDING           = 240; // unacknowledged inputs the guest keeps for replaying
 
-    private final PlayerEntity       other;
+    private final PlayerEntity[]     players; // every player, by ID
+    private final int                selfId;
     private final PlayerEntity       self;
+    private final PlayerInputSender  sender;
     private final boolean            isServer;
-    private final PeerMovementPoller movePoller;
+    private final Queue<PeerCommand> inbox;
+    private final int                snapshotInterval; // ticks between the host's world state snapshots
+
+    // host only: the guest's player, driven by its inputs, and the snapshots sent to it
+    private final ReplicatedPlayer      guest;
+    private final SnapshotCodec.Encoder encoder;
+
+    // guest: inputs that the host has not acknowledged yet, the tick of the newest host state received, and of the
+    // last restart, and how far the host's tick is from ours
+    private final ArrayDeque<PlayerProto.PlayerInput> pendingInputs   = new ArrayDeque<>();
+    private       long                                lastStateTick   = -1;
+    private       long                                restartTick     = -1;
+    private       long                                levelTickOffset = 0; // see getLevelTick
+
+    // guest: the snapshots we received (as baselines to decode the next ones), and if we need a keyframe
+    private final SnapshotCodec.History receivedSnapshots = new SnapshotCodec.History();
+    private       boolean               needKeyframe      = true;
+
+    // guest: every other player's states (by ID), where one was sampled this tick, and the players we were sent
+    private final List<SnapshotBuffer<PlayerProto.PlayerState>> remoteSnapshots;
+    private final float[]                                       remoteSample = new float[2];
+    private       long                                          interest     = -1; // everyone, until the host says
 
     public DynamicLevelScene(LevelProto.LevelData level) {
         super(level);
         GameHandler.NetworkRole role = GameHandler.getNetworkRole();
         if (role == GameHandler.NetworkRole.SERVER) {
-            movePoller = GameHandler.getServer().queuedPeerMovements::poll;
+            inbox = GameHandler.getServer().inbox;
         } else if (role == GameHandler.NetworkRole.CLIENT) {
-            movePoller = GameHandler.getClient().queuedPeerMovements::poll;
+            inbox = GameHandler.getClient().inbox;
         } else {
             throw new IllegalStateException("GameHandler is neither SERVER nor CLIENT, cannot poll peer");
         }
 
         isServer = role == GameHandler.NetworkRole.SERVER;
-        // dynamically get spawn positions, given server is player 1 and client is player 2
-        float[][] spawns = isServer ? new float[][]{ { level.getPlayer1SpawnX(), level.getPlayer1SpawnY() },
-                                                     { level.getPlayer2SpawnX(), level.getPlayer2SpawnY() } }
-                                    : new float[][]{ { level.getPlayer2SpawnX(), level.getPlayer2SpawnY() },
-                                                     { level.getPlayer1SpawnX(), level.getPlayer1SpawnY() } };
-
-        // other player has inverted colors compared to us
-        other = new PlayerEntity(spawns[0][0], spawns[0][1], isServer ? 1 : 0, null);
-        addEntity(other);
-
-        self = new ControllablePlayerEntity(spawns[1][0], spawns[1][1], isServer ? 0 : 1, new PlayerInputSender());
-        addEntity(self); // render self on top of other, we should always be visible first.
+
+        int rate = GameHandler.getUserConfig().getSnapshotRate();
+        if (rate <= 0) rate = DEFAULT_SNAPSHOT_RATE;
+        snapshotInterval = Math.max(1, Math.round(1 / (rate * getTickTime())));
+        // the host is always player 0, and the server tells the client which player it is, and how many there are
+        selfId = isServer ? GameServer.HOST_ID : GameHandler.getClient().getPlayerId();
+        players = new PlayerEntity[isServer ? GameServer.CAPACITY : GameHandler.getClient().getCapacity()];
+        remoteSnapshots = new ArrayList<>(Collections.nCopies(players.length, null));
+
+        for (int id = 0; id < players.length; id++) {
+            if (id == selfId) continue;
+            float[] spawn = getSpawn(level, getColor(id));
+            players[id] = new PlayerEntity(spawn[0], spawn[1], getColor(id), null);
+            // the host simulates the guest from its input, but the guest only renders everyone else
+            players[id].setRemote(!isServer);
+            addEntity(players[id]);
+            if (!isServer) remoteSnapshots.set(id, new SnapshotBuffer<>());
+        }
+        guest = isServer ? new ReplicatedPlayer(players[GameServer.GUEST_ID]) : null;
+        encoder = isServer ? new SnapshotCodec.Encoder() : null;
+
+        sender = new PlayerInputSender();
+        float[] selfSpawn = getSpawn(level, getColor(selfId));
+        self = new ControllablePlayerEntity(selfSpawn[0], selfSpawn[1], getColor(selfId), sender);
+        players[selfId] = self;
+        addEntity(self); // render self on top of others, we should always be visible first.
     }
 
     @Override
@@ -63,48 +124,234 @@ public class DynamicLevelScene extends LevelScene {
         return new DynamicLevelScene(level);
     }
 
+    /**
+     * Gets the tick of the level, which is the host's tick. A guest maps its own tick to the host's by how many ticks
+     * later the host applied its input of the same tick (as of the newest snapshot), so that the level is where it will
+     * be on the host when the host simulates the guest's player on this tick.
+     *
+     * @return the host's tick for the tick that is being (or will next be) simulated
+     */
+    @Override
+    public long getLevelTick() {
+        return getTick() + levelTickOffset;
+    }
+
+    @Override
+    protected boolean switchesLevels() {
+        return isServer; // clients are sent every level by the host
+    }
+
     @Override
     protected void broadcastLevel(LevelProto.LevelData level) {
         if (isServer) {
             LOG.info("Broadcasting level to peer(s)");
-            GameHandler.getServer().broadcast(new GamePacket(GamePacket.Type.SRV_GAME_STARTING, level));
+            GameHandler.getServer().broadcast(
+                    new GamePacket(GamePacket.Type.SRV_GAME_STARTING, LevelTransfer.announce(level)));
         }
     }
 
+    @Override
+    protected void broadcastRestart(PeerCommand.Restart restart) {
+        if (isServer) GameHandler.getServer().broadcast(restart.toPacket());
+    }
+
     @Override
     protected void onUpdate(float dt) {
+        // apply everything our peer sent since the last tick, in order, before simulating this tick
+        PeerCommand cmd;
+        while ((cmd = inbox.poll()) != null) apply(cmd);
+
+        if (isServer) {
+            guest.setJitterTicks(GameHandler.getServer().getClock().getBufferTicks(getTickTime()));
+            guest.applyNextInput();
+        } else {
+            predictInput();
+            interpolateRemotes();
+        }
+
         super.onUpdate(dt);
 
-        // poll our peer's move and apply it to our instance.
-        GamePacket.Type move = movePoller.poll();
-        if (move != null) {
-            LOG.debug("Processing peer movement '{}'", move);
-            switch (move) {
-                case COM_JUMP -> other.jump();
-                case COM_MOVE_L -> other.setMoveDirection(-1);
-                case COM_MOVE_R -> other.setMoveDirection(1);
-                case COM_STOP_MOVING -> other.setMoveDirection(0);
+        if (isServer) {
+            // every player must be in the portal of their color
+            boolean completed = true;
+            for (PlayerEntity p: players) completed &= isInOwnPortal(p);
+            if (completed) nextLevel();
+
+            if (getTick() % snapshotInterval == 0) sendSnapshot();
+        }
+
+        // send everything we queued this tick (e.g. our inputs) to our peer in one write
+        if (isServer) GameHandler.getServer().flush();
+        else GameHandler.getClient().flush();
+    }
+
+    /**
+     * Applies a command from our peer to our instance of the level.
+     *
+     * @param cmd the command received from the peer
+     */
+    private void apply(PeerCommand cmd) {
+        if (cmd instanceof PeerCommand.Input input && isServer) {
+            guest.receive(input);
+        } else if (cmd instanceof PeerCommand.Hold hold && isServer) {
+            guest.setHeld(hold.held());
+        } else if (cmd instanceof PeerCommand.State state && !isServer) {
+            SnapshotCodec.Snapshot snapshot;
+            try {
+                snapshot = SnapshotCodec.decode(state.snapshot(), receivedSnapshots);
+            } catch (IllegalStateException e) {
+                LOG.warn("Received malformed snapshot from host", e);
+                return;
+            }
+
+            if (snapshot == null) {
+                needKeyframe = true; // we don't have its baseline anymore
+                return;
             }
+            receivedSnapshots.put(snapshot);
+            needKeyframe = false;
+            reconcile(snapshot);
+        } else if (cmd instanceof PeerCommand.PressButton press) {
+            if (isServer) {
+                onButtonPressed(); // the guest asked us to, and waits for us to tell it which tick we did
+                GameHandler.getServer().queueBroadcast(new PeerCommand.PressButton((int)getTick()).toPacket());
+            } else {
+                onButtonPressed(press.tick());
+            }
+        } else if (cmd instanceof PeerCommand.Restart restart && !isServer) {
+            LOG.info("Host restarted the level");
+            resetEntities();
+            restartMovingPlatforms(restart.tick());
+            clearRemoteSnapshots();
+            restartTick = restart.tick();
+        } else if (cmd instanceof PeerCommand.Resync resync && !isServer) {
+            if (!loadLevelState(resync.levelState())) {
+                LOG.warn("Received level state from host that is not for this level");
+                return;
+            }
+
+            // we are on the host's tick now, so anything the host sent before this is stale
+            LOG.info("Resumed match on host tick {}", getTick());
+            levelTickOffset = 0;
+            clearRemoteSnapshots();
+            restartTick = getTick();
+            needKeyframe = true;
         }
+    }
 
-        // isServer also == isRed
-        if (isServer) {
-            PortalEntity selfColl = (PortalEntity)getEntityCollision(self, PortalEntity.class::isInstance);
-            PortalEntity otherColl = (PortalEntity)getEntityCollision(other, PortalEntity.class::isInstance);
-            if (selfColl != null && selfColl.isRed() && otherColl != null && !otherColl.isRed()) nextLevel();
+    /**
+     * Forgets every other player's buffered states, e.g. as they are from before the level was restarted.
+     */
+    private void clearRemoteSnapshots() {
+        for (int id = 0; id < players.length; id++) {
+            SnapshotBuffer<?> buffer = remoteSnapshots.get(id);
+            if (buffer != null) buffer.clear();
         }
     }
 
     /**
-     * Takes in the {@link PlayerProto.PlayerMovementData} from the partner/other, and "synchronizes" their position to
-     * the incoming update message.
+     * Host only: sends a snapshot of every player to the guest.
      *
-     * @param update the incoming {@link PlayerProto.PlayerMovementData} update message
+     * @see ReplicatedPlayer#encodeSnapshot(SnapshotCodec.Encoder, long, long, long)
+     */
+    private void sendSnapshot() {
+        var states = new PlayerProto.PlayerState[players.length];
+        for (int id = 0; id < players.length; id++) states[id] = players[id].getState();
+        int[] ackInputTicks = new int[players.length];
+        ackInputTicks[GameServer.GUEST_ID] = guest.getAckInputTick();
+
+        // a hosted level fits on one screen, so the guest is always interested in everyone
+        long all = (1L << players.length) - 1;
+        encoder.begin(SnapshotCodec.quantize((int)getTick(), states, ackInputTicks));
+        sender.sendState(guest.encodeSnapshot(encoder, getTick(), all, all), getTick());
+    }
+
+    /**
+     * Guest only: samples our input for this tick, keeps it until the host acknowledges it, and sends the latest few
+     * inputs to the host. Our own player has already acted on it (i.e. it is predicted).
+     */
+    private void predictInput() {
+        pendingInputs.add(sender.sampleInput(getTick(), self.getMoveDirection()));
+        if (pendingInputs.size() > MAX_PENDING) pendingInputs.poll();
+
+        // send the newest few, oldest first
+        List<PlayerProto.PlayerInput> latest = new ArrayList<>(INPUT_REDUNDANCY);
+        int skip = pendingInputs.size() - INPUT_REDUNDANCY;
+        for (PlayerProto.PlayerInput input: pendingInputs) if (skip-- <= 0) latest.add(input);
+        sender.sendInputs(latest, (int)Math.max(0, lastStateTick), needKeyframe, getTick());
+    }
+
+    /**
+     * Guest only: moves every other player to where they were (according to their snapshots) one render delay ago.
+     */
+    private void interpolateRemotes() {
+        for (int id = 0; id < players.length; id++) {
+            if (id == selfId) continue;
+            PlayerProto.PlayerState state = remoteSnapshots.get(id).sample(getTick() * getTickTime(), remoteSample);
+            if (state == null) continue;
+
+            players[id].setPosition(remoteSample[0], remoteSample[1]);
+            players[id].setRemoteState(state);
+        }
+    }
+
+    /**
+     * Guest only: buffers every other player's authoritative state (to be interpolated), then snaps our own player to
+     * its authoritative state and replays every input the host has not applied yet, so that our prediction is
+     * corrected without losing any input.
+     * <p>
+     * Players that the host has stopped sending us (as they are too far away) are hidden until they are sent again, at
+     * which point they start interpolating afresh, instead of from where they left.
+     *
+     * @param state the world state from the host
+     */
+    private void reconcile(SnapshotCodec.Snapshot state) {
+        if (isStale(state.tick(), lastStateTick)) return; // older than what we already have
+        if (isStale(state.tick(), restartTick - 1)) return; // from before the level was restarted
+        if (state.getPlayerCount() != players.length) {
+            LOG.warn("Received snapshot of {} players, but the match is for {}", state.getPlayerCount(), players.length);
+            return;
+        }
+        lastStateTick = state.tick();
+
+        long entered = state.interest() & ~interest, left = interest & ~state.interest();
+        interest = state.interest();
+
+        for (int id = 0; id < players.length; id++) {
+            if (id == selfId) continue;
+            long bit = 1L << id;
+            if ((left & bit) != 0) {
+                LOG.debug("Player {} is out of range", id);
+                players[id].setHidden(true);
+            } else if ((entered & bit) != 0) {
+                LOG.debug("Player {} is in range", id);
+                remoteSnapshots.get(id).clear();
+                players[id].setHidden(false);
+            }
+            if (!state.isPresent(id)) continue; // only sent at a lower rate, or not at all
+
+            PlayerProto.PlayerState p = state.getState(id);
+            remoteSnapshots.get(id).add(state.tick() * getTickTime(), getTick() * getTickTime(), p.getX(), p.getY(), p);
+        }
+        if (!state.isPresent(selfId)) return;
+
+        while (!pendingInputs.isEmpty() && pendingInputs.peek().getTick() <= state.getAckInputTick(selfId))
+            pendingInputs.poll();
+
+        // the host applied our input of that tick on this tick of its own, and will apply our later inputs as many
+        // ticks later, so that is how far ahead the level is on the host whenever we predict our player
+        if (state.getAckInputTick(selfId) > 0) levelTickOffset = state.tick() - state.getAckInputTick(selfId);
+
+        self.applyState(state.getState(selfId), false);
+        for (PlayerProto.PlayerInput input: pendingInputs) self.replay(input, getTickTime());
+        self.storePreviousPosition(); // this tick starts from the corrected position, not the snapshot's
+    }
+
+    /**
+     * Checks if a tick from our peer is older than (or the same as) the newest one we have seen. A tick that is much
+     * older is not stale, but from a new level, whose ticks start again from 0.
      */
-    public void syncMovement(PlayerProto.PlayerMovementData update) {
-        LOG.debug("Updating movement from remote");
-        other.setPosition(update.getX(), update.getY());
-        other.vx = update.getVx();
-        other.vy = update.getVy();
+    static boolean isStale(long tick, long newest) {
+        return tick <= newest && newest - tick < MAX_PENDING;
     }
 }
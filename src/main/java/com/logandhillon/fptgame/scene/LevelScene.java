@@ -3,20 +3,31 @@ package com.logandhillon.fptgame.scene;
 import com.logandhillon.fptgame.GameHandler;
 import com.logandhillon.fptgame.entity.game.MovingPlatformEntity;
 import com.logandhillon.fptgame.entity.game.PlatformEntity;
+import com.logandhillon.fptgame.entity.game.PortalEntity;
+import com.logandhillon.fptgame.entity.player.PlayerEntity;
 import com.logandhillon.fptgame.level.LevelFactory;
 import com.logandhillon.fptgame.level.LevelObject;
+import com.logandhillon.fptgame.networking.PeerCommand;
 import com.logandhillon.fptgame.networking.proto.LevelProto;
+import com.logandhillon.fptgame.resource.Levels;
 import com.logandhillon.fptgame.resource.Sounds;
 import com.logandhillon.fptgame.scene.menu.MenuHandler;
+import com.logandhillon.logangamelib.engine.GameEngine;
 import com.logandhillon.logangamelib.engine.GameScene;
+import com.logandhillon.logangamelib.entity.Entity;
 import com.logandhillon.logangamelib.entity.Renderable;
+import com.logandhillon.logangamelib.gfx.BakedLayer;
+import javafx.scene.Scene;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.paint.Color;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 
 /**
  * A generic level scene contains underlying common methods between the {@link SingleplayerGameScene} and
@@ -26,33 +37,49 @@ import java.util.ArrayList;
  * @author Logan Dhillon
  */
 public abstract class LevelScene extends GameScene {
-    private static final Logger LOG = LoggerContext.getContext().getLogger(LevelScene.class);
+    private static final Logger            LOG   = LoggerContext.getContext().getLogger(LevelScene.class);
+    private static final Predicate<Entity> LEVEL = e -> !(e instanceof PlayerEntity); // the level itself
 
     private final LevelProto.LevelData            level;
     private final ArrayList<MovingPlatformEntity> movingPlatforms = new ArrayList<>();
     private final ArrayList<PlatformEntity>       platforms       = new ArrayList<>();
 
+    /**
+     * the background and every platform that doesn't move, baked into one image per color state (normal, inverted)
+     */
+    private final BakedLayer staticLayer = new BakedLayer(GameHandler.CANVAS_WIDTH, GameHandler.CANVAS_HEIGHT, 2);
+
     /**
      * if true, this should not attempt to switch levels anymore.
      */
     private boolean isSwitchingLevels;
 
+    /** the next level, and its scene being prepared in the background once this one is shown (null if none) */
+    private LevelProto.LevelData          next;
+    private CompletableFuture<LevelScene> nextScene;
+
     public LevelScene(LevelProto.LevelData level) {
         this.level = level;
         this.isSwitchingLevels = false;
 
         // show the background or a black bg if no background
         Renderable bg = LevelFactory.buildBgOrNull(level);
-        if (bg != null) addEntity(bg);
-        else addEntity(new Renderable(0, 0, (g, x, y) -> {
+        if (bg != null) staticLayer.add(bg::render);
+        else staticLayer.add((g, x, y) -> {
             g.setFill(Color.BLACK);
             g.fillRect(0, 0, GameHandler.CANVAS_WIDTH, GameHandler.CANVAS_HEIGHT);
-        }));
+        });
+        addEntity(staticLayer);
 
         for (LevelObject obj: LevelFactory.load(level)) {
             addEntity(obj);
             if (obj instanceof PlatformEntity e) platforms.add(e);
             if (obj instanceof MovingPlatformEntity e) movingPlatforms.add(e);
+            else if (obj instanceof PlatformEntity e) {
+                // static platforms never move, so they only need to be drawn once per color state
+                e.setBaked(true);
+                staticLayer.add((g, x, y) -> e.drawTiles(g, e.getX(), e.getY()));
+            }
         }
 
         // restart on R pressed
@@ -61,45 +88,204 @@ public abstract class LevelScene extends GameScene {
         });
     }
 
+    /**
+     * Prefetches the next level once this one is shown, so that it is already prepared when this level is completed.
+     */
+    @Override
+    public void onBuild(Scene scene) {
+        super.onBuild(scene);
+        next = Levels.getNext(level);
+        if (next != null && switchesLevels()) nextScene = GameEngine.prepare(() -> build(next));
+    }
+
     protected abstract LevelScene build(LevelProto.LevelData level);
 
+    /**
+     * @return the level that this scene is playing
+     */
+    public LevelProto.LevelData getLevel() {
+        return level;
+    }
+
+    /**
+     * Restarts every {@link MovingPlatformEntity} from a tick of the level, after the level was reset (see
+     * {@link GameScene#resetEntities()}), e.g. the host's tick that it restarted on.
+     *
+     * @param tick the tick of the level that they restart from
+     */
+    protected void restartMovingPlatforms(long tick) {
+        for (MovingPlatformEntity e: movingPlatforms) e.reset(tick);
+    }
+
+    /**
+     * Saves the current tick and the state of the level itself (everything but the players, e.g. the color of its
+     * platforms) for a peer that needs to catch up on it, e.g. after reconnecting.
+     *
+     * @return the saved state
+     *
+     * @see LevelScene#loadLevelState(byte[])
+     */
+    public byte[] saveLevelState() {
+        ByteBuffer state = ByteBuffer.allocate(getStateSize(LEVEL));
+        saveState(state, LEVEL);
+        return state.array();
+    }
+
+    /**
+     * Restores the tick and the state of the level itself, as saved by {@link LevelScene#saveLevelState()} on a peer
+     * that is playing the same level.
+     *
+     * @param state the saved state
+     *
+     * @return false if the state is not for this level, in which case nothing is restored
+     */
+    public boolean loadLevelState(byte[] state) {
+        if (state.length != getStateSize(LEVEL)) return false;
+        loadState(ByteBuffer.wrap(state), LEVEL);
+        return true;
+    }
+
+    /**
+     * @return true if this scene switches levels itself (e.g. when it is completed), so the next level is worth
+     * prefetching; this implementation always does
+     */
+    protected boolean switchesLevels() {
+        return true;
+    }
+
     protected void broadcastLevel(LevelProto.LevelData level) {}
 
     /**
-     * Goes to the next level if there is a next level present in the
+     * Tells our peers (if any) that the level was restarted in place, see {@link LevelScene#restartLevel()}. This
+     * implementation does nothing.
+     *
+     * @param restart the restart, stamped with the tick it happened on
+     */
+    protected void broadcastRestart(PeerCommand.Restart restart) {}
+
+    /**
+     * Goes to the next level if there is a next level present in (or referred to by) the
      * {@link com.logandhillon.fptgame.networking.proto.LevelProto.LevelData}, otherwise returns to the
      * {@link com.logandhillon.fptgame.scene.menu.MainMenuContent}.
+     *
+     * @see Levels#getNext(LevelProto.LevelData)
      */
     public void nextLevel() {
-        if (level.hasNextLevel()) {
+        if (next == null) next = Levels.getNext(level); // in case this scene was never shown
+        if (next != null) {
             LOG.info("Going to next level");
-            setLevel(level.getNextLevel());
+            setLevel(next);
         } else {
-            LOG.info("No next level in this level, going to main menu");
-            getParent().setScene(new MenuHandler());
+            LOG.info("No next level in this level");
+            onLevelsCompleted();
         }
     }
 
+    /**
+     * Called when the last level is completed. This implementation goes to the main menu.
+     */
+    protected void onLevelsCompleted() {
+        getParent().setScene(new MenuHandler());
+    }
+
+    /**
+     * Restarts this level in place, between two ticks: every entity is reset to how it was when the level was loaded
+     * (see {@link GameScene#resetEntities()}), instead of loading the level again, and our peers are only told which
+     * tick it restarted on.
+     */
     public void restartLevel() {
+        if (isSwitchingLevels) return;
         LOG.info("Restarting level");
-        setLevel(level);
+        resetEntities();
+        broadcastRestart(new PeerCommand.Restart((int)getTick()));
     }
 
     private void setLevel(LevelProto.LevelData level) {
         if (isSwitchingLevels) return;
         isSwitchingLevels = true;
 
-        Sounds.playSfx(Sounds.GAME_START_LEVEL);
-        getParent().setScene(this.build(level));
+        switchTo(level);
         broadcastLevel(level);
     }
 
+    /**
+     * Replaces this scene with another level. This implementation prepares the level in the background (unless it was
+     * already prefetched) and shows it on the {@link GameHandler} once it is ready.
+     *
+     * @param level the level to switch to
+     */
+    protected void switchTo(LevelProto.LevelData level) {
+        Sounds.playSfx(Sounds.GAME_START_LEVEL);
+        boolean prefetched = level == next && nextScene != null && !nextScene.isCompletedExceptionally();
+        getParent().setScene(prefetched ? nextScene : GameEngine.prepare(() -> build(level)));
+    }
+
+    /**
+     * Gets where the player of a color spawns in a level. As the levels are laid out, red spawns at the level's second
+     * spawn point, and blue at the first.
+     *
+     * @param level the level
+     * @param color the player's color (0=red, 1=blue)
+     *
+     * @return the spawn position {x, y}
+     */
+    protected static float[] getSpawn(LevelProto.LevelData level, int color) {
+        return color == 0 ? new float[]{ level.getPlayer2SpawnX(), level.getPlayer2SpawnY() }
+                          : new float[]{ level.getPlayer1SpawnX(), level.getPlayer1SpawnY() };
+    }
+
+    /**
+     * Gets the color of a player in a multiplayer level; players alternate between red and blue by ID, so there are as
+     * many of each as possible, and the host (ID 0) is always red.
+     *
+     * @param id the player's ID
+     *
+     * @return the player's color (0=red, 1=blue)
+     */
+    protected static int getColor(int id) {
+        return id % 2;
+    }
+
+    /**
+     * Checks if a player is in the portal of their own color; once every player is, the level is completed.
+     *
+     * @param player the player
+     *
+     * @return true if the player is in a portal of its color
+     */
+    protected boolean isInOwnPortal(PlayerEntity player) {
+        var portal = (PortalEntity)getEntityCollision(player, PortalEntity.class::isInstance);
+        return portal != null && portal.isRed() == (player.getColor() == LevelProto.Color.RED);
+    }
+
+    /**
+     * Gets the tick that the level itself (e.g. where its {@link MovingPlatformEntity}s are) is on. This is the host's
+     * tick, so that every peer agrees on the level; this implementation returns our own tick, as we are the host (or
+     * are simulating every peer ourselves).
+     *
+     * @return the tick of the level, for the tick that is being (or will next be) simulated
+     */
+    public long getLevelTick() {
+        return getTick();
+    }
+
+    /**
+     * Presses a level button on the current tick of the level, see {@link LevelScene#onButtonPressed(long)}.
+     */
+    public void onButtonPressed() {
+        onButtonPressed(getLevelTick());
+    }
+
     /**
      * Moves any {@link MovingPlatformEntity} in the level, inverts colors of any {@link PlatformEntity}, etc.; as per
      * what happens when a {@link com.logandhillon.fptgame.entity.game.LevelButtonEntity} is pressed.
+     *
+     * @param tick the tick of the level that it was pressed on (see {@link LevelScene#getLevelTick()}), which may have
+     *             passed already, e.g. if the host pressed it
      */
-    public void onButtonPressed() {
-        for (MovingPlatformEntity e: movingPlatforms) e.invertGoingTowardsDest();
+    public void onButtonPressed(long tick) {
+        for (MovingPlatformEntity e: movingPlatforms) e.invertGoingTowardsDest(tick);
         for (PlatformEntity e: platforms) e.invertColor();
+        staticLayer.setState(staticLayer.getState() ^ 1); // every platform is now inverted
     }
 }
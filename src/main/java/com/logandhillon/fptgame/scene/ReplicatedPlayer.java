@@ -0,0 +1,142 @@
+package com.logandhillon.fptgame.scene;
+
+import com.logandhillon.fptgame.entity.player.PlayerEntity;
+import com.logandhillon.fptgame.networking.PeerCommand;
+import com.logandhillon.fptgame.networking.SnapshotCodec;
+import com.logandhillon.fptgame.networking.proto.PlayerProto;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * The authoritative copy of a player that is controlled by a remote peer: the peer's tick-stamped inputs, which are
+ * applied to the player one per tick, and the newest snapshot the peer has acknowledged, which the next snapshot sent
+ * to it is delta-encoded against.
+ *
+ * @author Logan Dhillon
+ * @see DynamicLevelScene
+ * @see ServerLevelScene
+ */
+class ReplicatedPlayer {
+    private static final int MIN_INPUT_BACKLOG = 6; // inputs buffered before skipping ahead, however steady the peer
+    private static final int SENT_HISTORY      = 64; // snapshots remembered, as many as the peer keeps as baselines
+
+    private final PlayerEntity entity;
+
+    // inputs waiting to be applied, and the tick of the newest one received and the last one applied
+    private final ArrayDeque<PlayerProto.PlayerInput> inputs        = new ArrayDeque<>();
+    private       long                                lastInputTick = -1;
+    private       int                                 ackInputTick;
+    private       int                                 maxBacklog    = MIN_INPUT_BACKLOG;
+    private       boolean                             held; // if the peer's slot is being held, see setHeld
+
+    // the newest snapshot the peer has received, and if the peer needs a keyframe
+    private int     ackStateTick = -1;
+    private boolean keyframeRequested;
+
+    // which players were present in the snapshots we sent, by tick, as the peer may use them as baselines
+    private final int[]  sentTicks   = new int[SENT_HISTORY];
+    private final long[] sentPresent = new long[SENT_HISTORY];
+
+    /**
+     * @param entity the player that the peer controls
+     */
+    ReplicatedPlayer(PlayerEntity entity) {
+        this.entity = entity;
+        Arrays.fill(sentTicks, -1);
+    }
+
+    /**
+     * Buffers the inputs from the peer that we haven't seen yet (they overlap between packets), and records which
+     * snapshot it has received.
+     *
+     * @param input the inputs from the peer
+     */
+    void receive(PeerCommand.Input input) {
+        if (held) return;
+        for (PlayerProto.PlayerInput i: input.inputs()) {
+            if (DynamicLevelScene.isStale(i.getTick(), lastInputTick)) continue;
+            inputs.add(i);
+            lastInputTick = i.getTick();
+        }
+        ackStateTick = input.ackStateTick();
+        keyframeRequested |= input.requestKeyframe();
+    }
+
+    /**
+     * Sets how many inputs may be buffered before skipping ahead, so that inputs that arrive in bursts (as the
+     * connection to the peer is jittery) are not skipped.
+     *
+     * @param ticks the ticks of inputs to buffer to absorb the jitter, see
+     *              {@link com.logandhillon.fptgame.networking.ClockSync#getBufferTicks(float)}
+     */
+    void setJitterTicks(int ticks) {
+        maxBacklog = Math.max(MIN_INPUT_BACKLOG, ticks);
+    }
+
+    /**
+     * Holds the player still while the peer's connection is lost, forgetting its buffered inputs, or lets the peer
+     * control it again once it resumes. The peer's ticks may have changed since (as it resyncs to ours), so the next
+     * input it sends is accepted whatever its tick.
+     *
+     * @param held true to hold the player still, false to let the peer control it again
+     */
+    void setHeld(boolean held) {
+        this.held = held;
+        inputs.clear();
+        lastInputTick = -1;
+        entity.setMoveDirection(0);
+    }
+
+    /**
+     * Applies the next buffered input to the player. If the peer has fallen too far behind, older inputs are skipped
+     * (but not their jumps), so its latency stays bounded.
+     */
+    void applyNextInput() {
+        if (held) return;
+        boolean jump = false;
+        while (inputs.size() > maxBacklog) jump |= inputs.poll().getJump();
+
+        PlayerProto.PlayerInput input = inputs.poll();
+        if (input == null) return; // keep doing what they were doing until their input arrives
+
+        entity.setMoveDirection(input.getDirection());
+        if (jump || input.getJump()) entity.jump();
+        ackInputTick = input.getTick();
+    }
+
+    /**
+     * Encodes the current snapshot for the peer, delta-encoded against the newest snapshot it has received (or as a
+     * keyframe, if it asked for one or that snapshot is too old).
+     *
+     * @param encoder  the encoder that the current snapshot was begun on
+     * @param tick     the tick of the current snapshot
+     * @param interest the players the peer is interested in, as a bitmask by player ID
+     * @param present  the players to send to the peer this time, as a bitmask by player ID
+     *
+     * @return the encoded snapshot, which may be shared with other peers
+     */
+    byte[] encodeSnapshot(SnapshotCodec.Encoder encoder, long tick, long interest, long present) {
+        int acked = Math.floorMod(ackStateTick, SENT_HISTORY);
+        boolean hasBaseline = !keyframeRequested && ackStateTick >= 0 && sentTicks[acked] == ackStateTick;
+        byte[] snapshot = encoder.encode(hasBaseline ? ackStateTick : -1, hasBaseline ? sentPresent[acked] : 0,
+                                         interest, present);
+        keyframeRequested = false;
+
+        int sent = Math.floorMod((int)tick, SENT_HISTORY);
+        sentTicks[sent] = (int)tick;
+        sentPresent[sent] = present & interest;
+        return snapshot;
+    }
+
+    /**
+     * @return the tick of the last input from the peer that has been applied
+     */
+    int getAckInputTick() {
+        return ackInputTick;
+    }
+
+    PlayerEntity getEntity() {
+        return entity;
+    }
+}
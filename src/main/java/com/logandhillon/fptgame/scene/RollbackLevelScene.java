@@ -0,0 +1,283 @@
+package com.logandhillon.fptgame.scene;
+
+import com.logandhillon.fptgame.GameHandler;
+import com.logandhillon.fptgame.entity.player.ControllablePlayerEntity;
+import com.logandhillon.fptgame.entity.player.PlayerEntity;
+import com.logandhillon.fptgame.entity.player.PlayerInputSender;
+import com.logandhillon.fptgame.level.LevelCache;
+import com.logandhillon.fptgame.networking.GamePacket;
+import com.logandhillon.fptgame.networking.GameServer;
+import com.logandhillon.fptgame.networking.LevelTransfer;
+import com.logandhillon.fptgame.networking.PeerCommand;
+import com.logandhillon.fptgame.networking.proto.LevelProto;
+import com.logandhillon.fptgame.networking.proto.PlayerProto;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+
+/**
+ * A peer-to-peer level with rollback netcode: instead of the host being authoritative, both peers run the same
+ * deterministic simulation of every player, from each other's tick-stamped inputs (movement, jumps, button presses and
+ * restarts), so that everything (including the other player's effect on the level) responds immediately.
+ * <p>
+ * The peer's input for a tick that it hasn't arrived for yet is predicted to be the same as its last (but without any
+ * jump or press). When it arrives and differs from what was predicted, the level is rolled back to the world state of
+ * that tick (see {@link com.logandhillon.logangamelib.engine.GameScene#saveState(ByteBuffer)}), and every tick since is
+ * simulated again with the right input, within the same frame.
+ * <p>
+ * Inputs and world states are kept for the last {@link RollbackLevelScene#WINDOW} ticks. A peer that gets that far
+ * ahead of the other's inputs waits for them, so that it can always roll back far enough; and a peer that is further
+ * ahead of the other than the other is of it waits for the other to catch up, so that neither has to roll back more
+ * than the latency between them.
+ *
+ * @author Logan Dhillon
+ * @see DynamicLevelScene
+ */
+public class RollbackLevelScene extends LevelScene {
+    private static final Logger LOG           = LoggerContext.getContext().getLogger(RollbackLevelScene.class);
+    static final         int    WINDOW        = 60; // ticks that can be rolled back
+    private static final int    MAX_ADVANTAGE = 4; // ticks we may be further ahead of our peer than it is of us
+
+    // one tick of input, packed into a byte
+    private static final int LEFT    = 1;
+    private static final int RIGHT   = 1 << 1;
+    private static final int JUMP    = 1 << 2;
+    private static final int BUTTON  = 1 << 3;
+    private static final int RESTART = 1 << 4;
+
+    private final PlayerEntity[]     players = new PlayerEntity[GameServer.CAPACITY]; // by ID
+    private final int                selfId;
+    private final int                peerId;
+    private final PlayerEntity       self;
+    private final PlayerInputSender  sender;
+    private final boolean            isServer;
+    private final Queue<PeerCommand> inbox;
+    private final int                levelId; // so that inputs for another level are never applied to this one
+
+    // every player's input by tick (mod WINDOW), the input that was used for the peer, and the world state each tick
+    // started with, along with if every player was in their portal at the end of it
+    private final byte[][]     inputs;
+    private final byte[]       usedPeerInputs = new byte[WINDOW];
+    private final ByteBuffer[] states         = new ByteBuffer[WINDOW];
+    private final boolean[]    completed      = new boolean[WINDOW];
+
+    /** our inputs by tick (mod WINDOW) as they are sent, so that each is only built once, however often it is resent */
+    private final PlayerProto.PlayerInput[] sentInputs = new PlayerProto.PlayerInput[WINDOW];
+
+    private long    lastPeerTick = -1; // the newest tick we have the peer's input for (they arrive in order)
+    private long    peerAckTick  = -1; // the newest tick the peer has our input for
+    private long    peerLead; // how many ticks the peer was ahead of our input, when it last sent its input
+    private long    rollbackTo   = -1; // the earliest tick that was simulated with the wrong input, or -1 if none
+    private long    checkedTick  = -1; // the newest tick whose completion has been checked
+    private boolean restarting; // host only: if the level restarts with our next input
+
+    public RollbackLevelScene(LevelProto.LevelData level) {
+        super(level);
+        GameHandler.NetworkRole role = GameHandler.getNetworkRole();
+        if (role == GameHandler.NetworkRole.SERVER) {
+            inbox = GameHandler.getServer().inbox;
+        } else if (role == GameHandler.NetworkRole.CLIENT) {
+            inbox = GameHandler.getClient().inbox;
+        } else {
+            throw new IllegalStateException("GameHandler is neither SERVER nor CLIENT, cannot poll peer");
+        }
+
+        isServer = role == GameHandler.NetworkRole.SERVER;
+        selfId = isServer ? GameServer.HOST_ID : GameServer.GUEST_ID;
+        peerId = isServer ? GameServer.GUEST_ID : GameServer.HOST_ID;
+        levelId = LevelCache.put(level).asReadOnlyByteBuffer().getInt();
+        inputs = new byte[players.length][WINDOW];
+
+        float[] peerSpawn = getSpawn(level, getColor(peerId));
+        players[peerId] = new PlayerEntity(peerSpawn[0], peerSpawn[1], getColor(peerId), null);
+        addEntity(players[peerId]);
+
+        sender = new PlayerInputSender(true);
+        float[] selfSpawn = getSpawn(level, getColor(selfId));
+        self = new ControllablePlayerEntity(selfSpawn[0], selfSpawn[1], getColor(selfId), sender);
+        players[selfId] = self;
+        addEntity(self); // render self on top of others, we should always be visible first.
+
+        int size = getStateSize();
+        for (int i = 0; i < WINDOW; i++) states[i] = ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Restarts the level on both peers, on the tick of our next input.
+     */
+    @Override
+    public void restartLevel() {
+        if (isServer) restarting = true;
+        else LOG.warn("Client cannot restart level!");
+    }
+
+    @Override
+    protected LevelScene build(LevelProto.LevelData level) {
+        return new RollbackLevelScene(level);
+    }
+
+    @Override
+    protected boolean switchesLevels() {
+        return isServer; // clients are sent every level by the host
+    }
+
+    @Override
+    protected void broadcastLevel(LevelProto.LevelData level) {
+        if (isServer) {
+            LOG.info("Broadcasting level to peer");
+            GameHandler.getServer().broadcast(
+                    new GamePacket(GamePacket.Type.SRV_GAME_STARTING, LevelTransfer.announce(level)));
+        }
+    }
+
+    /**
+     * Waits for the peer's input once we are {@link RollbackLevelScene#WINDOW} ticks ahead of it, as we could not roll
+     * back far enough if it differed from what we predicted; or while we are further ahead of the peer than it is of
+     * us, e.g. as we started the level first. Our inputs are sent again while we wait, in case they were lost.
+     */
+    @Override
+    protected boolean canTick() {
+        receive();
+        long lead = getTick() - lastPeerTick;
+        if (lead < WINDOW && (lastPeerTick < 0 || lead - peerLead <= MAX_ADVANTAGE)) return true;
+
+        sendInputs(getTick() - 1);
+        flush();
+        return false;
+    }
+
+    @Override
+    protected void onUpdate(float dt) {
+        if (isResimulating()) {
+            simulate(dt);
+            return;
+        }
+
+        // sample our input before rolling back, as rolling back undoes anything our input already did to our player
+        long tick = getTick();
+        PlayerProto.PlayerInput input = sender.sampleInput(tick, self.getMoveDirection());
+        if (restarting) input = input.toBuilder().setRestart(true).build();
+        inputs[selfId][index(tick)] = (byte)(pack(input) | (restarting ? RESTART : 0));
+        sentInputs[index(tick)] = input;
+        restarting = false;
+
+        receive();
+        if (rollbackTo >= 0) {
+            LOG.debug("Rolling back {} tick(s)", tick - rollbackTo);
+            ByteBuffer state = states[index(rollbackTo)];
+            state.rewind();
+            loadState(state);
+            resimulate(tick);
+            rollbackTo = -1;
+        }
+
+        simulate(dt);
+        if (isServer) checkCompleted();
+        sendInputs(tick);
+        flush(); // send everything we queued this tick (e.g. our inputs) to our peer in one write
+    }
+
+    /**
+     * Simulates the current tick with every player's input (predicting the peer's, if it has not arrived yet), after
+     * saving the world state it starts with.
+     */
+    private void simulate(float dt) {
+        long tick = getTick();
+        int i = index(tick);
+        states[i].clear();
+        saveState(states[i]);
+
+        usedPeerInputs[i] = tick <= lastPeerTick ? inputs[peerId][i] : predict();
+        inputs[peerId][i] = usedPeerInputs[i];
+        for (int id = 0; id < players.length; id++) {
+            int input = inputs[id][i];
+            if ((input & RESTART) != 0 && id == GameServer.HOST_ID) resetEntities();
+            int direction = (input & LEFT) != 0 ? -1 : (input & RIGHT) != 0 ? 1 : 0;
+            players[id].applyInput(direction, (input & JUMP) != 0);
+            if ((input & BUTTON) != 0) onButtonPressed();
+        }
+
+        super.onUpdate(dt);
+
+        boolean done = true;
+        for (PlayerEntity p: players) done &= isInOwnPortal(p);
+        completed[i] = done;
+    }
+
+    /**
+     * @return the peer's predicted input for a tick we don't have it for: the same as its last, but without jumping,
+     * pressing or restarting
+     */
+    private byte predict() {
+        return lastPeerTick < 0 ? 0 : (byte)(inputs[peerId][index(lastPeerTick)] & (LEFT | RIGHT));
+    }
+
+    /**
+     * Host only: goes to the next level once every player is in their portal on a tick that we have every input for,
+     * so that it can never be undone by a rollback.
+     */
+    private void checkCompleted() {
+        long confirmed = Math.min(lastPeerTick, getTick());
+        for (long t = checkedTick + 1; t <= confirmed; t++) {
+            checkedTick = t;
+            if (completed[index(t)]) {
+                nextLevel();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Buffers every input from the peer that we don't have yet, and notes the earliest tick that was already simulated
+     * with a different input than the one that arrived for it.
+     */
+    private void receive() {
+        PeerCommand cmd;
+        while ((cmd = inbox.poll()) != null) {
+            if (!(cmd instanceof PeerCommand.PeerInput input) || input.level() != levelId) continue;
+            peerAckTick = Math.max(peerAckTick, input.ackInputTick());
+            if (!input.inputs().isEmpty())
+                peerLead = input.inputs().get(input.inputs().size() - 1).getTick() - (long)input.ackInputTick();
+
+            for (PlayerProto.PlayerInput i: input.inputs()) {
+                long tick = i.getTick();
+                if (tick <= lastPeerTick) continue; // already have it
+                if (tick != lastPeerTick + 1) break; // they are sent in order, so this can only follow a lost packet
+
+                int index = index(tick);
+                inputs[peerId][index] = (byte)(pack(i) | (i.getRestart() ? RESTART : 0));
+                lastPeerTick = tick;
+                if (tick < getTick() && inputs[peerId][index] != usedPeerInputs[index] &&
+                    (rollbackTo < 0 || tick < rollbackTo)) rollbackTo = tick;
+            }
+        }
+    }
+
+    /**
+     * Sends every input of ours that the peer doesn't have yet, oldest first.
+     *
+     * @param newest the tick of our newest input
+     */
+    private void sendInputs(long newest) {
+        long from = Math.max(Math.max(peerAckTick + 1, newest - WINDOW + 1), 0);
+        if (from > newest) return;
+        sender.sendPeerInputs(sentInputs, from, newest, (int)lastPeerTick, levelId, newest);
+    }
+
+    private void flush() {
+        if (isServer) GameHandler.getServer().flush();
+        else GameHandler.getClient().flush();
+    }
+
+    private static int index(long tick) {
+        return (int)(tick % WINDOW);
+    }
+
+    private static int pack(PlayerProto.PlayerInput input) {
+        return (input.getDirection() < 0 ? LEFT : input.getDirection() > 0 ? RIGHT : 0) |
+               (input.getJump() ? JUMP : 0) |
+               (input.getPressButton() ? BUTTON : 0);
+    }
+}
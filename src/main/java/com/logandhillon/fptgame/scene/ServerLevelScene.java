@@ -0,0 +1,186 @@
+package com.logandhillon.fptgame.scene;
+
+import com.google.protobuf.ByteString;
+import com.logandhillon.fptgame.GameHandler;
+import com.logandhillon.fptgame.entity.player.PlayerEntity;
+import com.logandhillon.fptgame.level.LevelCache;
+import com.logandhillon.fptgame.networking.DedicatedServer;
+import com.logandhillon.fptgame.networking.GamePacket;
+import com.logandhillon.fptgame.networking.LevelTransfer;
+import com.logandhillon.fptgame.networking.PeerCommand;
+import com.logandhillon.fptgame.networking.Room;
+import com.logandhillon.fptgame.networking.SnapshotCodec;
+import com.logandhillon.fptgame.networking.proto.LevelProto;
+import com.logandhillon.fptgame.networking.proto.PlayerProto;
+import com.logandhillon.logangamelib.networking.InterestGrid;
+import com.logandhillon.logangamelib.networking.OutboundQueue;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A level that is simulated headlessly in a {@link Room} of a {@link DedicatedServer}, which is authoritative for every
+ * player. Every player is controlled by a client, which plays the level in a {@link DynamicLevelScene} as if the
+ * server was the host: they send their inputs, and are sent snapshots of every player.
+ * <p>
+ * Players are kept in a registry by their ID, and each tick's snapshot is encoded once per distinct baseline and then
+ * written to every recipient as-is, so the cost of an added player is linear.
+ * <p>
+ * Each player is only sent the players they are interested in (see {@link InterestGrid}): those within a screen of them
+ * in every snapshot, those within two screens in every {@link #FAR_SNAPSHOT_INTERVAL}th snapshot, and nobody further
+ * away, so that the bandwidth to each player stays roughly flat as levels grow.
+ *
+ * @author Logan Dhillon
+ * @see com.logandhillon.logangamelib.engine.HeadlessRunner
+ */
+public class ServerLevelScene extends LevelScene {
+    private static final Logger LOG                   = LoggerContext.getContext().getLogger(ServerLevelScene.class);
+    private static final float  NEAR_RADIUS           = GameHandler.CANVAS_WIDTH; // px
+    private static final float  FAR_RADIUS            = 2 * NEAR_RADIUS; // px
+    private static final int    FAR_SNAPSHOT_INTERVAL = 3; // snapshots between those that include far players
+
+    private final Room                  room;
+    private final ReplicatedPlayer[]    players; // by player ID
+    private final int                   snapshotInterval; // ticks between world state snapshots
+    private final SnapshotCodec.Encoder encoder = new SnapshotCodec.Encoder();
+    private final InterestGrid          interest;
+    private       long                  snapshots; // sent so far
+
+    // reused for every snapshot: every player's state and ack, and this tick's frames by encoding
+    private final PlayerProto.PlayerState[]        states;
+    private final int[]                            ackInputTicks;
+    private final Map<byte[], OutboundQueue.Frame> frames = new IdentityHashMap<>();
+
+    public ServerLevelScene(LevelProto.LevelData level, Room room) {
+        super(level);
+        this.room = room;
+        snapshotInterval = Math.max(1, Math.round(1 / (DynamicLevelScene.DEFAULT_SNAPSHOT_RATE * getTickTime())));
+
+        players = new ReplicatedPlayer[room.getCapacity()];
+        states = new PlayerProto.PlayerState[players.length];
+        ackInputTicks = new int[players.length];
+        for (int id = 0; id < players.length; id++) {
+            float[] spawn = getSpawn(level, getColor(id));
+            PlayerEntity player = new PlayerEntity(spawn[0], spawn[1], getColor(id), null);
+            addEntity(player);
+            players[id] = new ReplicatedPlayer(player);
+        }
+
+        interest = new InterestGrid(players.length, NEAR_RADIUS, FAR_RADIUS, new InterestGrid.Listener() {
+            @Override
+            public void onEnter(int observer, int subject) {
+                LOG.debug("Player {} is now interested in player {}", observer, subject);
+            }
+
+            @Override
+            public void onLeave(int observer, int subject) {
+                LOG.debug("Player {} is no longer interested in player {}", observer, subject);
+            }
+        });
+    }
+
+    @Override
+    protected LevelScene build(LevelProto.LevelData level) {
+        return new ServerLevelScene(level, room);
+    }
+
+    @Override
+    protected void broadcastLevel(LevelProto.LevelData level) {
+        LOG.info("Broadcasting level to players");
+        room.broadcast(new GamePacket(GamePacket.Type.SRV_GAME_STARTING, LevelTransfer.announce(level)));
+    }
+
+    @Override
+    protected void broadcastRestart(PeerCommand.Restart restart) {
+        room.broadcast(restart.toPacket());
+    }
+
+    @Override
+    protected void switchTo(LevelProto.LevelData level) {
+        room.setScene(build(level));
+    }
+
+    @Override
+    protected void onLevelsCompleted() {
+        room.endMatch("Every level has been completed!");
+    }
+
+    @Override
+    protected void onUpdate(float dt) {
+        // apply everything the players sent since the last tick, in order, before simulating this tick
+        for (int id = 0; id < players.length; id++) {
+            PeerCommand cmd;
+            while ((cmd = room.poll(id)) != null) apply(id, cmd);
+        }
+        for (ReplicatedPlayer p: players) p.applyNextInput();
+
+        super.onUpdate(dt);
+
+        // every player must be in the portal of their color
+        boolean completed = true;
+        for (ReplicatedPlayer p: players) completed &= isInOwnPortal(p.getEntity());
+        if (completed) nextLevel();
+
+        if (getTick() % snapshotInterval == 0) sendSnapshot();
+
+        // send everything we queued this tick to the players in one write each
+        room.flush();
+    }
+
+    /**
+     * Sends a snapshot of the players each player is interested in to every player. Players that have acknowledged the
+     * same baseline and are interested in the same players are sent the same frame, which is only encoded and
+     * serialized once.
+     */
+    private void sendSnapshot() {
+        for (int id = 0; id < players.length; id++) {
+            PlayerEntity p = players[id].getEntity();
+            states[id] = p.getState();
+            ackInputTicks[id] = players[id].getAckInputTick();
+            interest.move(id, p.getX(), p.getY());
+        }
+        interest.update();
+        encoder.begin(SnapshotCodec.quantize((int)getTick(), states, ackInputTicks));
+        boolean sendFar = snapshots++ % FAR_SNAPSHOT_INTERVAL == 0;
+
+        for (int id = 0; id < players.length; id++) {
+            long self = 1L << id; // we always know about ourselves
+            long interested = interest.getInterest(id) | self;
+            long present = sendFar ? interested : interest.getNear(id) | self;
+
+            var frame = frames.computeIfAbsent(
+                    players[id].encodeSnapshot(encoder, getTick(), interested, present),
+                    s -> OutboundQueue.Frame.of(new GamePacket(GamePacket.Type.SRV_STATE, s)));
+            room.sendUnreliable(id, frame, getTick());
+        }
+        frames.clear();
+    }
+
+    /**
+     * Applies a command from a player to the level.
+     *
+     * @param id  the ID of the player that sent it
+     * @param cmd the command
+     */
+    private void apply(int id, PeerCommand cmd) {
+        if (cmd instanceof PeerCommand.Input input) {
+            players[id].receive(input);
+        } else if (cmd instanceof PeerCommand.PressButton) {
+            onButtonPressed();
+            // every player's level too, including theirs, as they wait for us to press it
+            room.queueAll(new PeerCommand.PressButton((int)getTick()).toPacket(), -1);
+        } else if (cmd instanceof PeerCommand.Hold hold) {
+            players[id].setHeld(hold.held());
+            if (hold.held()) return;
+
+            // they resumed their slot, so they must catch up on what they missed
+            room.send(id, new GamePacket(GamePacket.Type.SRV_RESUMED,
+                                         PlayerProto.Resume.newBuilder()
+                                                           .setLevel(LevelCache.put(getLevel()))
+                                                           .setLevelState(ByteString.copyFrom(saveLevelState()))
+                                                           .build()));
+        }
+    }
+}
@@ -24,10 +24,11 @@ public class LobbyGameContent implements MenuContent {
     private static final Logger LOG         = LoggerContext.getContext().getLogger(LobbyGameContent.class);
     private static final Font   HEADER_FONT = Font.font(Fonts.TREMOLO, FontWeight.MEDIUM, 40);
 
-    private static final int[][] PLAYER_ICON_ARGS = new int[][]{
-            // iconX, iconY, colorIdx, textX, textY
-            { 48, 143, 0 },
-            { 215, 143, 1 } };
+    // players are shown in two columns (red, then blue) by ID, so a lobby of up to 8 players fits above the button
+    private static final int ICON_X       = 48;
+    private static final int ICON_Y       = 143;
+    private static final int COLUMN_WIDTH = 167;
+    private static final int ROW_HEIGHT   = 120;
 
     private final Entity[]        entities;
     private final MenuModalEntity lobbyModal;
@@ -77,14 +78,15 @@ public class LobbyGameContent implements MenuContent {
     /**
      * Adds a player to the list of players
      *
-     * @param name   player name
-     * @param isHost if the player is the host of this lobby
+     * @param name player name
+     * @param id   the player's ID in this lobby (the host is 0), which decides their color and where they are shown
      */
-    public void addPlayer(String name, boolean isHost) {
-        LOG.info("Adding player \"{}\" (host={})", name, isHost);
+    public void addPlayer(String name, int id) {
+        LOG.info("Adding player \"{}\" (id={})", name, id);
         playerCount++;
-        int[] args = PLAYER_ICON_ARGS[isHost ? 0 : 1];
-        lobbyModal.addEntity(new PlayerIconEntity(name, args[0], args[1], args[2]));
+        int color = id % 2;
+        lobbyModal.addEntity(new PlayerIconEntity(name, ICON_X + color * COLUMN_WIDTH, ICON_Y + id / 2 * ROW_HEIGHT,
+                                                  color));
         // host can only start the game when there are exactly 2 players
         LOG.info("{} player(s) in lobby", playerCount);
         if (isHosting) {
@@ -60,10 +60,10 @@ public class MainMenuContent implements MenuContent {
 //                    throw new IllegalStateException("Level creator does not exist");
 //                }),
 
-                new MenuButton(Textures.SETTINGS_ICON, x, y + 3 * dy, 120, 48, 75.84f, 651.17f, 28, 28,
+                new MenuButton(Textures.Images.SETTINGS_ICON, x, y + 3 * dy, 120, 48, 75.84f, 651.17f, 28, 28,
                                () -> menu.setContent(new SettingsMenuContent(menu))),
 
-                new MenuButton(Textures.X_ICON, x + 136, y + 3 * dy, 120, 48, 218, 654, 20, 20,
+                new MenuButton(Textures.Images.X_ICON, x + 136, y + 3 * dy, 120, 48, 218, 654, 20, 20,
                                () -> System.exit(0))
         );
 
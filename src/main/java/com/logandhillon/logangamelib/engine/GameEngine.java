@@ -3,6 +3,7 @@ package com.logandhillon.logangamelib.engine;
 import com.logandhillon.fptgame.GameHandler;
 import com.logandhillon.fptgame.resource.Colors;
 import javafx.animation.FadeTransition;
+import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.layout.Pane;
 import javafx.scene.shape.Rectangle;
@@ -11,6 +12,11 @@ import javafx.util.Duration;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
 /**
  * Provides utility methods for creation of a game engine
  *
@@ -21,6 +27,28 @@ public class GameEngine {
 
     private static final int FADE_TIME = 200;
 
+    private static final ExecutorService PREPARER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "ScenePreparer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Creates and prepares a {@link GameScene} in the background (see {@link GameScene#prepare()}), so that it can
+     * later be shown without stalling the FX thread.
+     *
+     * @param factory creates the scene, e.g. decoding its level and instantiating its entities
+     *
+     * @return the scene, once it has been prepared
+     */
+    public static <T extends GameScene> CompletableFuture<T> prepare(Supplier<T> factory) {
+        return CompletableFuture.supplyAsync(() -> {
+            T scene = factory.get();
+            scene.prepare();
+            return scene;
+        }, PREPARER);
+    }
+
     /**
      * Discards the old {@link GameScene}, builds the new {@link GameScene}, and displays the built scene to the
      * {@link Stage}
@@ -81,4 +109,66 @@ public class GameEngine {
 
         return newScene;
     }
+
+    /**
+     * Fades out of the old {@link GameScene} while the new one is being prepared, then discards the old scene, builds
+     * the new one, and displays it to the {@link Stage}. Only the build is done on the FX thread.
+     *
+     * @param stage    the javafx application stage
+     * @param oldScene the previously active scene that will be discarded
+     * @param newScene the new scene that is being prepared, see {@link GameEngine#prepare(Supplier)}
+     *
+     * @return the new scene, once it is displayed
+     */
+    public static CompletableFuture<GameScene> setScene(GameHandler game, Stage stage, GameScene oldScene,
+                                                        CompletableFuture<? extends GameScene> newScene) {
+        Scene currentScene = stage.getScene();
+        if (currentScene == null) {
+            // no previous scene, just show the new one as soon as it is ready
+            return newScene.thenApplyAsync(scene -> setScene(game, stage, oldScene, scene), Platform::runLater);
+        }
+
+        Pane overlayPane = new Pane();
+        overlayPane.setPrefSize(stage.getWidth(), stage.getHeight());
+
+        Rectangle fadeRect = new Rectangle(stage.getWidth(), stage.getHeight(), Colors.GENERIC_BG);
+        fadeRect.setOpacity(0);
+        overlayPane.getChildren().add(fadeRect);
+        ((Pane)currentScene.getRoot()).getChildren().add(overlayPane);
+
+        CompletableFuture<Void> fadedOut = new CompletableFuture<>();
+        FadeTransition fadeOut = new FadeTransition(Duration.millis(FADE_TIME), fadeRect);
+        fadeOut.setFromValue(0);
+        fadeOut.setToValue(1);
+        fadeOut.setOnFinished(e -> fadedOut.complete(null));
+        fadeOut.play();
+
+        // attach once both the fade and the preparation are done, whichever finishes last
+        return newScene.thenCombine(fadedOut, (scene, v) -> scene).handleAsync((scene, ex) -> {
+            if (ex != null) {
+                LOG.error("Failed to prepare scene", ex);
+                ((Pane)currentScene.getRoot()).getChildren().remove(overlayPane);
+                throw new IllegalStateException("Failed to prepare scene", ex);
+            }
+
+            LOG.info("Switching scene to {}", scene);
+            if (oldScene != null) oldScene.discard(currentScene);
+
+            Scene newFxScene = scene.build(game);
+            stage.setScene(newFxScene);
+
+            ((Pane)newFxScene.getRoot()).getChildren().add(fadeRect);
+            FadeTransition fadeIn = new FadeTransition(Duration.millis(FADE_TIME), fadeRect);
+            fadeIn.setFromValue(1);
+            fadeIn.setToValue(0);
+            fadeIn.setOnFinished(ev -> ((Pane)newFxScene.getRoot()).getChildren().remove(fadeRect));
+            fadeIn.play();
+            return scene;
+        }, GameEngine::runOnFxThread);
+    }
+
+    private static void runOnFxThread(Runnable task) {
+        if (Platform.isFxApplicationThread()) task.run();
+        else Platform.runLater(task);
+    }
 }
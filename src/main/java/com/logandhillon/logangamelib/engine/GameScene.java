@@ -1,8 +1,11 @@
 package com.logandhillon.logangamelib.engine;
 
 import com.logandhillon.fptgame.GameHandler;
+import com.logandhillon.fptgame.resource.Textures;
 import com.logandhillon.logangamelib.entity.Entity;
+import com.logandhillon.logangamelib.entity.Stateful;
 import com.logandhillon.logangamelib.entity.physics.CollisionEntity;
+import com.logandhillon.logangamelib.entity.physics.SpatialHash;
 import javafx.animation.AnimationTimer;
 import javafx.event.Event;
 import javafx.event.EventHandler;
@@ -17,6 +20,7 @@ import javafx.scene.paint.Color;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -35,14 +39,25 @@ import static com.logandhillon.fptgame.GameHandler.*;
 public abstract class GameScene {
     private static final Logger LOG = LoggerContext.getContext().getLogger(GameScene.class);
 
+    public static final  int               DEFAULT_TICK_RATE = 120; // simulation ticks per second
+    private static final float             MAX_FRAME_TIME    = 0.25f; // longest frame (s) simulated, avoids spiraling
+    private static final Predicate<Entity> ALL               = e -> true; // every entity's state
+
     private final List<Entity>          entities          = new ArrayList<>();
     private final List<CollisionEntity> collisionEntities = new ArrayList<>();
     private final List<HandlerRef<?>>   handlers          = new ArrayList<>();
+    private final SpatialHash           collisionHash     = new SpatialHash(Textures.OBJ_SCALE);
 
     private AnimationTimer lifecycle;
     private GameHandler    game;
     private Scene          scene;
 
+    private float   tickTime = 1f / DEFAULT_TICK_RATE; // seconds per simulation tick
+    private long    tick; // number of simulation ticks that have elapsed
+    private double  accumulator; // elapsed time (s) that has not been simulated yet
+    private float   alpha; // how far (0-1) between the last and the next tick the current frame is
+    private boolean resimulating; // if earlier ticks are being simulated again, see resimulate()
+
     public record HandlerRef<T extends Event>(EventType<T> type, EventHandler<? super T> handler) {}
 
     /**
@@ -55,6 +70,10 @@ public abstract class GameScene {
     /**
      * Called every tick for non-graphics-related updates (Entity lifecycle, etc.) This implementation updates all
      * entities.
+     *
+     * @param dt the fixed delta time of one simulation tick (seconds)
+     *
+     * @see GameScene#setTickRate(int)
      */
     protected void onUpdate(float dt) {
         for (Entity e: entities)
@@ -62,9 +81,11 @@ public abstract class GameScene {
     }
 
     /**
-     * Called every tick to render the scene. This implementation renders all entities.
+     * Called every frame to render the scene. This implementation renders all entities.
      *
      * @param g the graphical context to render to.
+     *
+     * @see GameScene#getInterpolationAlpha()
      */
     protected void render(GraphicsContext g) {
         for (Entity e: entities) {
@@ -74,6 +95,169 @@ public abstract class GameScene {
         }
     }
 
+    /**
+     * Advances the simulation by the time that has elapsed since it was last advanced, running as many fixed ticks as
+     * have elapsed (possibly zero), so the simulation is frame-rate independent. This is called every frame once the
+     * scene is built, or by a {@link HeadlessRunner} if it is never built.
+     *
+     * @param frameTime the time that has elapsed (seconds)
+     */
+    public void advance(float frameTime) {
+        // a hitch (e.g. GC pause) is dropped instead of being simulated as one huge step
+        accumulator += Math.min(frameTime, MAX_FRAME_TIME);
+
+        while (accumulator >= tickTime) {
+            if (!canTick()) {
+                accumulator = 0; // wait, instead of catching up afterward
+                break;
+            }
+            for (Entity e: entities) e.storePreviousPosition();
+            onUpdate(tickTime);
+            tick++;
+            accumulator -= tickTime;
+        }
+
+        alpha = (float)(accumulator / tickTime);
+    }
+
+    /**
+     * Checks if the next tick may be simulated, e.g. a scene may wait for its peer. This is checked before every tick,
+     * and no time is accumulated while it is false. This implementation always returns true.
+     *
+     * @return true if the next tick may be simulated
+     */
+    protected boolean canTick() {
+        return true;
+    }
+
+    /**
+     * Immediately simulates ticks until a tick is reached, e.g. to catch back up after restoring an earlier world state
+     * (see {@link GameScene#loadState(ByteBuffer)}). {@link GameScene#isResimulating()} is true while they run, so that
+     * side effects (e.g. sounds) are not repeated.
+     *
+     * @param toTick the tick to stop at, which is not simulated
+     */
+    protected void resimulate(long toTick) {
+        resimulating = true;
+        try {
+            while (tick < toTick) {
+                for (int i = 0; i < entities.size(); i++) entities.get(i).storePreviousPosition();
+                onUpdate(tickTime);
+                tick++;
+            }
+        } finally {
+            resimulating = false;
+        }
+    }
+
+    /**
+     * @return true if the current tick is being re-simulated, see {@link GameScene#resimulate(long)}
+     */
+    public boolean isResimulating() {
+        return resimulating;
+    }
+
+    /**
+     * Does the expensive work of showing this scene ahead of time, on the thread that it is prepared on (see
+     * {@link GameEngine#prepare(java.util.function.Supplier)}), so that it can be attached to the stage without
+     * stalling the FX thread. This implementation prepares every entity, see {@link Entity#prepare()}.
+     */
+    public void prepare() {
+        for (Entity e: entities) e.prepare();
+    }
+
+    /**
+     * Restores every entity to the state it was in when this scene was loaded (see {@link Entity#reset()}), between two
+     * ticks, without rebuilding the scene. Entities are not interpolated from where they were before.
+     */
+    public void resetEntities() {
+        for (int i = 0; i < entities.size(); i++) {
+            Entity e = entities.get(i);
+            e.reset();
+            e.storePreviousPosition();
+        }
+    }
+
+    /**
+     * Gets how large this scene's world state is, so that a buffer can be allocated once and reused for every
+     * {@link GameScene#saveState(ByteBuffer)}. This only changes when entities are added or removed.
+     *
+     * @return the size of the world state, in bytes
+     */
+    public int getStateSize() {
+        return getStateSize(ALL);
+    }
+
+    /**
+     * Gets how large the world state of some of this scene's entities is, see
+     * {@link GameScene#saveState(ByteBuffer, Predicate)}.
+     *
+     * @param which the entities to include
+     *
+     * @return the size of the world state, in bytes
+     */
+    public int getStateSize(Predicate<? super Entity> which) {
+        int size = Long.BYTES; // tick
+        for (int i = 0; i < entities.size(); i++) {
+            Entity e = entities.get(i);
+            if (e instanceof Stateful s && which.test(e)) size += s.getStateSize();
+        }
+        return size;
+    }
+
+    /**
+     * Saves the world state of this scene (the current tick, and the state of every {@link Stateful} entity, in the
+     * order they were added) at the buffer's position, without allocating, so that it may be done every tick.
+     *
+     * @param out the buffer to write to, with at least {@link GameScene#getStateSize()} bytes remaining
+     */
+    public void saveState(ByteBuffer out) {
+        saveState(out, ALL);
+    }
+
+    /**
+     * Saves the world state of only some of this scene's entities (along with the current tick), e.g. those whose state
+     * is not already sent to a peer some other way.
+     *
+     * @param out   the buffer to write to, with at least {@link GameScene#getStateSize(Predicate)} bytes remaining
+     * @param which the entities to include; this must pick the same entities when the state is loaded
+     */
+    public void saveState(ByteBuffer out, Predicate<? super Entity> which) {
+        out.putLong(tick);
+        for (int i = 0; i < entities.size(); i++) {
+            Entity e = entities.get(i);
+            if (e instanceof Stateful s && which.test(e)) s.saveState(out);
+        }
+    }
+
+    /**
+     * Restores this scene to a world state that was saved by {@link GameScene#saveState(ByteBuffer)}, without
+     * allocating. The scene must have the same entities as when it was saved. Entities are not interpolated from where
+     * they were before.
+     *
+     * @param in the buffer to read from, positioned at the start of the world state
+     */
+    public void loadState(ByteBuffer in) {
+        loadState(in, ALL);
+    }
+
+    /**
+     * Restores the tick and some of this scene's entities to a world state that was saved by
+     * {@link GameScene#saveState(ByteBuffer, Predicate)}, possibly by another scene of the same level.
+     *
+     * @param in    the buffer to read from, positioned at the start of the world state
+     * @param which the entities to restore, which must be the ones that were saved
+     */
+    public void loadState(ByteBuffer in, Predicate<? super Entity> which) {
+        tick = in.getLong();
+        for (int i = 0; i < entities.size(); i++) {
+            Entity e = entities.get(i);
+            if (!which.test(e)) continue;
+            if (e instanceof Stateful s) s.loadState(in);
+            e.storePreviousPosition();
+        }
+    }
+
     /**
      * Creates a new JavaFX Scene for this GameScene. This should only be called once, as this method creates a new
      * Scene every time.
@@ -93,10 +277,10 @@ public abstract class GameScene {
             @Override
             public void handle(long now) {
                 if (lastTime[0] == 0) lastTime[0] = now; // set initial value to now
-                float dt = (now - lastTime[0]) / 1_000_000_000f; // nanoseconds to seconds
+                float frameTime = (now - lastTime[0]) / 1_000_000_000f; // nanoseconds to seconds
                 lastTime[0] = now;
 
-                onUpdate(dt);
+                advance(frameTime);
                 render(g);
             }
         };
@@ -147,7 +331,8 @@ public abstract class GameScene {
     /**
      * Called to discard this scene (i.e., stop its lifecycle, etc.)
      *
-     * @param scene the JavaFX scene that is this scene is being removed from. use this for detaching events, etc.
+     * @param scene the JavaFX scene that is this scene is being removed from (or null if it was never built). use this
+     *              for detaching events, etc.
      */
     public void discard(Scene scene) {
         LOG.debug("Discarding scene {}", this);
@@ -155,11 +340,15 @@ public abstract class GameScene {
         // schedule all entities for destruction
         for (Entity e: entities) e.onDestroy();
         entities.clear();
+        collisionEntities.clear();
+        collisionHash.clear();
 
-        lifecycle.stop();
+        // a headless scene was never built, so it has no lifecycle or JavaFX scene to detach from
+        if (lifecycle != null) lifecycle.stop();
 
         // remove all stored event handlers
-        clearAllHandlers();
+        if (this.scene != null) clearAllHandlers();
+        else handlers.clear();
     }
 
     /**
@@ -216,10 +405,24 @@ public abstract class GameScene {
      */
     public void addEntity(Entity e) {
         entities.add(e);
-        if (e instanceof CollisionEntity) collisionEntities.add((CollisionEntity)e);
+        if (e instanceof CollisionEntity c) {
+            collisionEntities.add(c);
+            collisionHash.insert(c);
+        }
         e.onAttach(this);
     }
 
+    /**
+     * Re-indexes a collision entity in this scene's broad-phase after it has moved. This is called automatically when
+     * a {@link CollisionEntity} is moved with {@link Entity#setPosition(float, float)} or
+     * {@link Entity#translate(float, float)}.
+     *
+     * @param e the collision entity that moved
+     */
+    public void updateCollisionEntity(CollisionEntity e) {
+        collisionHash.update(e);
+    }
+
     /**
      * Removes all entities from this modal that match the predicate
      *
@@ -240,6 +443,7 @@ public abstract class GameScene {
             var e = it.next();
             if (predicate.test(e)) {
                 it.remove(); // safe removal
+                collisionHash.remove(e);
                 if (discard) e.onDestroy();
             }
         }
@@ -290,11 +494,9 @@ public abstract class GameScene {
      * @see GameScene#checkCollision(CollisionEntity, CollisionEntity)
      */
     public CollisionEntity getEntityCollision(CollisionEntity caller, Predicate<CollisionEntity> predicate) {
-        for (CollisionEntity e: collisionEntities) {
-            if (e == caller) continue; // skip the caller
-            if (predicate.test(e) && checkCollision(caller, e)) return e; // return if collision is found
-        }
-        return null; // no collision found
+        // only check the entities near the caller; skip the caller itself
+        return collisionHash.query(caller.getX(), caller.getY(), caller.getWidth(), caller.getHeight(),
+                                   e -> e != caller && predicate.test(e) && checkCollision(caller, e));
     }
 
     /**
@@ -307,11 +509,7 @@ public abstract class GameScene {
      * @see GameScene#checkCollision(CollisionEntity, CollisionEntity)
      */
     public CollisionEntity getCollisionAt(float x, float y, float w, float h, CollisionEntity caller) {
-        for (CollisionEntity e: collisionEntities) {
-            if (e == caller) continue; // skip the caller
-            if (checkCollision(x, y, w, h, e)) return e;
-        }
-        return null; // no collision found
+        return collisionHash.query(x, y, w, h, e -> e != caller && checkCollision(x, y, w, h, e));
     }
 
     /**
@@ -327,11 +525,24 @@ public abstract class GameScene {
      */
     public CollisionEntity getCollisionIf(float x, float y, float w, float h, CollisionEntity caller,
                                           Predicate<CollisionEntity> entityPredicate) {
-        for (CollisionEntity e: collisionEntities) {
-            if (e == caller) continue; // skip the caller
-            if (entityPredicate.test(e) && checkCollision(x, y, w, h, e)) return e;
-        }
-        return null; // no collision found
+        return collisionHash.query(x, y, w, h,
+                                   e -> e != caller && entityPredicate.test(e) && checkCollision(x, y, w, h, e));
+    }
+
+    /**
+     * Collects every collision entity near the given area that matches the predicate, for callers that need to run
+     * their own narrow-phase (e.g. a swept collision test). The candidates may not actually overlap the area.
+     *
+     * @param caller          the entity that is checking for collisions (can be null)
+     * @param entityPredicate only collect entities that match this predicate
+     * @param out             list to append the candidates to
+     */
+    public void getCollisionCandidates(float x, float y, float w, float h, CollisionEntity caller,
+                                       Predicate<CollisionEntity> entityPredicate, List<CollisionEntity> out) {
+        collisionHash.query(x, y, w, h, e -> {
+            if (e != caller && entityPredicate.test(e)) out.add(e);
+            return false; // keep going, we want every candidate
+        });
     }
 
     /**
@@ -376,6 +587,40 @@ public abstract class GameScene {
         handlers.clear();
     }
 
+    /**
+     * Sets how many fixed simulation ticks are run per second, independent of the render frame rate.
+     *
+     * @param tickRate ticks per second (e.g. {@link GameScene#DEFAULT_TICK_RATE})
+     */
+    protected void setTickRate(int tickRate) {
+        if (tickRate <= 0) throw new IllegalArgumentException("Tick rate must be positive");
+        this.tickTime = 1f / tickRate;
+    }
+
+    /**
+     * @return the fixed delta time (seconds) that is passed to {@link GameScene#onUpdate(float)} every tick
+     */
+    public float getTickTime() {
+        return tickTime;
+    }
+
+    /**
+     * @return the number of simulation ticks that have elapsed since this scene was built
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Gets how far the current frame is between the previous and the next simulation tick, which should be used to
+     * interpolate rendering between the two.
+     *
+     * @return interpolation alpha, from 0 (previous tick) to 1 (next tick)
+     */
+    public float getInterpolationAlpha() {
+        return alpha;
+    }
+
     protected GameHandler getParent() {
         return game;
     }
@@ -0,0 +1,279 @@
+package com.logandhillon.logangamelib.engine;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * A headless runner runs the simulation of any number of {@link GameScene}s on its own thread, without JavaFX: the
+ * scenes are never built, and nothing is rendered. Each scene is only advanced once per tick, and the thread sleeps in
+ * between, so an idle server costs (almost) nothing.
+ * <p>
+ * A server can run many scenes across a few runners (e.g. one per core); every scene is then only ever touched by the
+ * thread of the runner it is attached to.
+ *
+ * @author Logan Dhillon
+ * @see GameScene#advance(float)
+ */
+public class HeadlessRunner implements Runnable {
+    private static final Logger LOG       = LoggerContext.getContext().getLogger(HeadlessRunner.class);
+    private static final long   IDLE_WAIT = 100_000_000; // ns to sleep for if there are no scenes
+
+    private final List<Handle>  handles  = new ArrayList<>(); // only touched by the runner thread
+    private final Queue<Handle> attached = new ConcurrentLinkedQueue<>(); // attached, but not yet picked up
+    private final AtomicInteger count    = new AtomicInteger();
+
+    private volatile boolean running;
+    private          Thread  thread;
+
+    /**
+     * Starts running scenes on a new thread.
+     *
+     * @param name the name of the thread
+     */
+    public void start(String name) {
+        if (thread != null) throw new IllegalStateException("Headless runner has already been started");
+        running = true;
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /**
+     * Stops running, then discards every scene. If this is not called from the runner's own thread, this waits for
+     * the current tick to finish.
+     */
+    public void stop() {
+        running = false;
+        if (thread == null || thread == Thread.currentThread()) return;
+
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts running a scene on this runner, from its next tick.
+     *
+     * @param scene   the scene to run
+     * @param onCrash called (on the runner thread) if the scene throws, after it has been detached; may be null
+     *
+     * @return the handle to control the scene with
+     */
+    public Handle attach(GameScene scene, Runnable onCrash) {
+        return attach(() -> scene, onCrash);
+    }
+
+    /**
+     * Starts running a scene on this runner, which is built on the runner's thread (so that the caller does not have
+     * to wait for it), then run from its next tick.
+     *
+     * @param factory builds the scene to run
+     * @param onCrash called (on the runner thread) if the scene fails to build or throws, after it has been detached;
+     *                may be null
+     *
+     * @return the handle to control the scene with
+     */
+    public Handle attach(Supplier<? extends GameScene> factory, Runnable onCrash) {
+        Handle h = new Handle(factory, onCrash);
+        count.incrementAndGet();
+        attached.add(h);
+        if (thread != null) LockSupport.unpark(thread);
+        return h;
+    }
+
+    /**
+     * @return how many scenes are attached to this runner
+     */
+    public int getSceneCount() {
+        return count.get();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                Handle added;
+                while ((added = attached.poll()) != null) {
+                    if (!added.detached && !added.build()) continue;
+                    added.last = System.nanoTime();
+                    handles.add(added);
+                }
+
+                long nextDue = Long.MAX_VALUE;
+                for (Iterator<Handle> it = handles.iterator(); it.hasNext(); ) {
+                    Handle h = it.next();
+                    if (h.detached || !h.advance()) {
+                        it.remove();
+                        h.remove();
+                    } else {
+                        nextDue = Math.min(nextDue, h.last + h.tickNanos);
+                    }
+                }
+
+                // sleep until the next tick of any scene is due
+                long wait = nextDue == Long.MAX_VALUE ? IDLE_WAIT : nextDue - System.nanoTime();
+                if (wait > 0) LockSupport.parkNanos(wait);
+            }
+        } finally {
+            for (Handle h: handles) h.remove();
+            handles.clear();
+
+            Handle h;
+            while ((h = attached.poll()) != null) h.remove();
+        }
+    }
+
+    /**
+     * A scene that is attached to a runner, which can be switched or detached from any thread. It also measures how
+     * long the scene takes to simulate.
+     */
+    public final class Handle {
+        private final    Runnable       onCrash;
+        private final    CountDownLatch removed = new CountDownLatch(1);
+        private volatile GameScene      scene; // null until the scene has been built
+        private volatile GameScene      next; // the scene to switch to once the current tick is done, or null
+        private volatile boolean        detached;
+
+        // only touched by the runner thread
+        private Supplier<? extends GameScene> factory; // null once the scene has been built
+        private long                          last; // when the scene was last advanced (ns)
+        private long                          tickNanos;
+
+        private volatile long ticks; // ticks simulated
+        private volatile long busyNanos; // total time spent simulating them
+        private volatile long maxTickNanos; // longest tick since the last call to takeMaxTickNanos()
+
+        private Handle(Supplier<? extends GameScene> factory, Runnable onCrash) {
+            this.factory = factory;
+            this.onCrash = onCrash;
+        }
+
+        /**
+         * Builds the scene, on the runner thread.
+         *
+         * @return false if the scene failed to build, in which case it has been removed
+         */
+        private boolean build() {
+            try {
+                scene = factory.get();
+                factory = null;
+                return true;
+            } catch (RuntimeException e) {
+                LOG.error("Failed to build headless scene", e);
+                detached = true;
+                remove();
+                if (onCrash != null) onCrash.run();
+                return false;
+            }
+        }
+
+        /**
+         * Switches to another scene once the current tick is done, and discards the current scene.
+         *
+         * @param scene the scene to switch to
+         */
+        public void setScene(GameScene scene) {
+            LOG.debug("Switching headless scene to {}", scene);
+            next = scene;
+        }
+
+        /**
+         * Stops running the scene and discards it. If this is not called from the runner's own thread (e.g. by the
+         * scene itself), this waits for the scene's current tick to finish, so the scene is no longer used once this
+         * returns.
+         */
+        public void detach() {
+            detached = true;
+            if (thread == null || thread == Thread.currentThread() || !running) return;
+
+            LockSupport.unpark(thread);
+            try {
+                removed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Advances the scene by the time since it was last advanced.
+         *
+         * @return false if the scene crashed, and must be removed
+         */
+        private boolean advance() {
+            long start = System.nanoTime();
+            GameScene scene = this.scene;
+            long tick = scene.getTick();
+            try {
+                scene.advance((start - last) / 1_000_000_000f);
+            } catch (RuntimeException e) {
+                LOG.error("Headless scene {} crashed", scene, e);
+                detached = true;
+                if (onCrash != null) onCrash.run();
+                return false;
+            }
+            last = start;
+            tickNanos = (long)(scene.getTickTime() * 1_000_000_000L);
+
+            long ran = scene.getTick() - tick;
+            if (ran > 0) {
+                long took = System.nanoTime() - start;
+                ticks += ran;
+                busyNanos += took;
+                maxTickNanos = Math.max(maxTickNanos, took / ran);
+            }
+
+            GameScene next = this.next;
+            if (next != null) {
+                this.next = null;
+                scene.discard(null);
+                this.scene = next;
+            }
+            return true;
+        }
+
+        /**
+         * Discards the scene, and lets anyone waiting in {@link Handle#detach()} know it is gone.
+         */
+        private void remove() {
+            if (removed.getCount() == 0) return;
+            if (scene != null) scene.discard(null);
+            count.decrementAndGet();
+            removed.countDown();
+        }
+
+        /**
+         * @return how many ticks have been simulated
+         */
+        public long getTicks() {
+            return ticks;
+        }
+
+        /**
+         * @return the total time (ns) spent simulating ticks
+         */
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        /**
+         * @return the longest time (ns) a tick has taken since this was last called
+         */
+        public long takeMaxTickNanos() {
+            long max = maxTickNanos;
+            maxTickNanos = 0;
+            return max;
+        }
+    }
+}
@@ -16,6 +16,9 @@ public abstract class Entity implements GameObject {
     protected float     x;
     protected float     y;
 
+    private float prevX; // position at the start of the current tick, for interpolation
+    private float prevY;
+
     /**
      * Creates an entity at the specified position.
      *
@@ -25,6 +28,8 @@ public abstract class Entity implements GameObject {
     public Entity(float x, float y) {
         this.x = x;
         this.y = y;
+        this.prevX = x;
+        this.prevY = y;
     }
 
     /**
@@ -50,7 +55,14 @@ public abstract class Entity implements GameObject {
      * @see Entity#onRender
      */
     public void render(GraphicsContext g) {
-        this.onRender(g, this.x, this.y);
+        if (parent == null) {
+            this.onRender(g, this.x, this.y);
+            return;
+        }
+
+        // interpolate between the last two simulation ticks so movement is smooth at any frame rate
+        float a = parent.getInterpolationAlpha();
+        this.onRender(g, prevX + (x - prevX) * a, prevY + (y - prevY) * a);
     }
 
     /**
@@ -66,6 +78,24 @@ public abstract class Entity implements GameObject {
      */
     protected abstract void onRender(GraphicsContext g, float x, float y);
 
+    /**
+     * Runs once before this entity is first shown, on the thread that its scene is prepared on (which may not be the FX
+     * thread), to do expensive work that would otherwise stall its first frames, such as recoloring its textures. This
+     * implementation does nothing.
+     *
+     * @see GameScene#prepare()
+     */
+    public void prepare() {}
+
+    /**
+     * Restores this entity to the state it was in when its scene was loaded, without recreating it (e.g. to restart a
+     * level in place). This must not allocate, as it may run in the middle of gameplay. This implementation does
+     * nothing.
+     *
+     * @see GameScene#resetEntities()
+     */
+    public void reset() {}
+
     /**
      * Runs when this object is attached to a parent.
      *
@@ -89,6 +119,18 @@ public abstract class Entity implements GameObject {
         this.y = y;
     }
 
+    /**
+     * Immediately moves this entity to a new position without it being interpolated from where it was, e.g. to respawn
+     * it. Otherwise, it would be drawn partway between the two positions for a frame.
+     *
+     * @param x new x-position
+     * @param y new y-position
+     */
+    public void teleport(float x, float y) {
+        setPosition(x, y);
+        storePreviousPosition();
+    }
+
     /**
      * Translates this entity relatively by a set amount of units. To move an entity to an absolute position, use
      * {@link Entity#setPosition(float, float)}
@@ -101,6 +143,15 @@ public abstract class Entity implements GameObject {
         this.y += y;
     }
 
+    /**
+     * Stores the current position as the previous position, which is interpolated from when rendering. Called by the
+     * {@link GameScene} before every simulation tick.
+     */
+    public void storePreviousPosition() {
+        prevX = x;
+        prevY = y;
+    }
+
     public float getY() {
         return y;
     }
@@ -0,0 +1,36 @@
+package com.logandhillon.logangamelib.entity;
+
+import com.logandhillon.logangamelib.engine.GameScene;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Stateful is an {@link Entity} whose mutable state can be saved into (and restored from) a flat buffer, so that a
+ * {@link GameScene}'s whole world state can be captured as one compact value, see {@link GameScene#saveState}.
+ * <p>
+ * An entity's state must always be the same size, and saving or restoring it must not allocate, as it may be done
+ * every tick.
+ *
+ * @author Logan Dhillon
+ */
+public interface Stateful {
+    /**
+     * @return how many bytes {@link Stateful#saveState(ByteBuffer)} writes
+     */
+    int getStateSize();
+
+    /**
+     * Writes this entity's state at the buffer's position, advancing it.
+     *
+     * @param out the buffer to write to
+     */
+    void saveState(ByteBuffer out);
+
+    /**
+     * Restores this entity's state from the buffer's position (as written by {@link Stateful#saveState(ByteBuffer)}),
+     * advancing it.
+     *
+     * @param in the buffer to read from
+     */
+    void loadState(ByteBuffer in);
+}
@@ -26,8 +26,40 @@ public abstract class CollisionEntity extends Entity {
         this.h = h;
     }
 
+    @Override
+    public void setPosition(float x, float y) {
+        super.setPosition(x, y);
+        reindex();
+    }
+
+    @Override
+    public void translate(float x, float y) {
+        super.translate(x, y);
+        reindex();
+    }
+
+    /**
+     * Updates this entity's position in the parent's collision broad-phase. Must be called after {@link Entity#x} or
+     * {@link Entity#y} are changed directly, instead of through {@link Entity#setPosition(float, float)} or
+     * {@link Entity#translate(float, float)}.
+     */
+    protected void reindex() {
+        if (parent != null) parent.updateCollisionEntity(this);
+    }
+
     protected CollisionEntity getCollisionAt(float x, float y, float w, float h, CollisionEntity caller) {
-        return parent.getCollisionAt(x, y, w, h, caller);
+        return parent.getCollisionIf(x, y, w, h, caller, this::collidesWith);
+    }
+
+    /**
+     * Checks if this entity should collide with another entity. By default, entities collide with everything.
+     *
+     * @param other the other entity
+     *
+     * @return true if the two entities should collide
+     */
+    protected boolean collidesWith(CollisionEntity other) {
+        return true;
     }
 
     public float getWidth() {
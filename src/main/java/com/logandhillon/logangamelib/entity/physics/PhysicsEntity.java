@@ -1,6 +1,10 @@
 package com.logandhillon.logangamelib.entity.physics;
 
 import com.logandhillon.logangamelib.entity.Entity;
+import com.logandhillon.logangamelib.entity.Stateful;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 
 /**
  * A physics entity is an {@link Entity} that (a) is affected by gravity, (b) has collisions, and (c) has internal
@@ -8,15 +12,35 @@ import com.logandhillon.logangamelib.entity.Entity;
  *
  * @author Logan Dhillon
  */
-public abstract class PhysicsEntity extends CollisionEntity {
+public abstract class PhysicsEntity extends CollisionEntity implements Stateful {
     public static final float PX_PER_METER = 48; // 1/2 of player height, whereof player is 6'4 (one ross tall)
 
-    private static final float GRAVITY       = 30f * PX_PER_METER; // m/s²
-    private static final float MAX_VEL       = 1000f * PX_PER_METER; // m/s
-    private static final float PROBE_EPSILON = 0.01f; // how far from the obj to check for collisions during movement
+    private static final float GRAVITY          = 30f * PX_PER_METER; // m/s²
+    private static final float MAX_VEL          = 1000f * PX_PER_METER; // m/s
+    private static final float CONTACT_EPSILON  = 0.01f; // how far (px) bodies may overlap and still count as touching
+    private static final int   MAX_SWEEP_PASSES = 4; // max contacts resolved (and slid along) per tick
+
+    /** touching something below (normal points up) */
+    public static final int CONTACT_GROUND  = 1;
+    /** touching something above (normal points down) */
+    public static final int CONTACT_CEILING = 1 << 1;
+    /** touching something to the left (normal points right) */
+    public static final int CONTACT_LEFT    = 1 << 2;
+    /** touching something to the right (normal points left) */
+    public static final int CONTACT_RIGHT   = 1 << 3;
 
     public float vx, vy;
 
+    /**
+     * broad-phase candidates for the current sweep, reused every tick to avoid allocation
+     */
+    private final ArrayList<CollisionEntity> candidates = new ArrayList<>();
+
+    /**
+     * the contact normal of the last {@link PhysicsEntity#timeOfImpact(CollisionEntity, float, float)} hit
+     */
+    private int hitContact;
+
     /**
      * Creates a collidable entity at the specified position with the specified hitbox
      *
@@ -29,21 +53,22 @@ public abstract class PhysicsEntity extends CollisionEntity {
         super(x, y, w, h);
     }
 
-    // Track if entity is on the ground for jumping logic
-    private boolean grounded;
+    // contact normals from the last sweep, grounding is derived from these
+    private int contacts;
 
     /**
      * Updates this physics object:
      * <p>
-     * 1. apply gravity; 2. clamp velocities to not exceed terminal velocity; 3. check for collisions (and resolve if
-     * there is one); 4. handle grounding
+     * 1. apply gravity; 2. clamp velocities to not exceed terminal velocity; 3. sweep along the velocity, resolving
+     * every contact on the way (see {@link PhysicsEntity#sweep(float, float)}); 4. handle grounding from the contact
+     * normals of the sweep
      *
      * @param dt the delta time: change in time (seconds) since the last frame
      */
     @Override
     public void onUpdate(float dt) {
-        // Apply gravity only if not grounded
-        if (!grounded) vy += GRAVITY * dt;
+        // always apply gravity; if we are resting on something, the sweep hits it and zeroes vy again
+        vy += GRAVITY * dt;
 
         // Clamp velocities
         if (vx > MAX_VEL) vx = MAX_VEL;
@@ -51,47 +76,235 @@ public abstract class PhysicsEntity extends CollisionEntity {
         if (vy > MAX_VEL) vy = MAX_VEL;
         if (vy < -MAX_VEL) vy = -MAX_VEL;
 
-        // collision handling
-        float tx = x + vx * dt;
-        float ty = y + vy * dt;
-        var coll = getCollisionAt(tx, ty, w, h, this);
-        if (coll == null) {
-            // move normally, apply velocities
-            x = tx;
-            y = ty;
+        contacts = sweep((vx + getMoveVelocityX()) * dt, vy * dt);
+    }
+
+    /**
+     * Moves this body by (dx, dy) using swept AABB collision, so it cannot tunnel through thin objects no matter how
+     * fast it is moving. Every time a contact is hit, the body stops at the time of impact, its velocity into the
+     * contact is cancelled, and the remaining movement slides along the contact.
+     * <p>
+     * Only one broad-phase query is made per sweep, covering the whole swept area.
+     *
+     * @param dx units to move on the x-axis
+     * @param dy units to move on the y-axis
+     *
+     * @return the contact normals that were hit, as a bitmask of {@code CONTACT_*} flags
+     */
+    protected int sweep(float dx, float dy) {
+        int result = 0;
+
+        candidates.clear();
+        parent.getCollisionCandidates(Math.min(x, x + dx) - CONTACT_EPSILON, Math.min(y, y + dy) - CONTACT_EPSILON,
+                                      w + Math.abs(dx) + 2 * CONTACT_EPSILON, h + Math.abs(dy) + 2 * CONTACT_EPSILON,
+                                      this, this::collidesWith, candidates);
+
+        // get out of anything that we already overlap (e.g. a moving platform moved into us)
+        for (int i = 0; i < candidates.size(); i++) result |= depenetrate(candidates.get(i));
+
+        for (int pass = 0; pass < MAX_SWEEP_PASSES && (dx != 0 || dy != 0); pass++) {
+            // find the earliest contact along the movement
+            float toi = 1;
+            int contact = 0;
+            CollisionEntity hit = null;
+            for (int i = 0; i < candidates.size(); i++) {
+                CollisionEntity e = candidates.get(i);
+                float t = timeOfImpact(e, dx, dy);
+                if (hit == null ? t <= toi : t < toi) {
+                    toi = t;
+                    contact = hitContact;
+                    hit = e;
+                }
+            }
+
+            if (hit == null) {
+                x += dx;
+                y += dy;
+                break;
+            }
+
+            // move up to the contact, snapping flush against it, then slide the rest of the way along it
+            result |= contact;
+            float remaining = 1 - toi;
+            switch (contact) {
+                case CONTACT_GROUND -> {
+                    x += dx * toi;
+                    y = hit.getY() - h;
+                    if (vy > 0) vy = 0;
+                    dx *= remaining;
+                    dy = 0;
+                }
+                case CONTACT_CEILING -> {
+                    x += dx * toi;
+                    y = hit.getY() + hit.getHeight();
+                    if (vy < 0) vy = 0;
+                    dx *= remaining;
+                    dy = 0;
+                }
+                case CONTACT_RIGHT -> {
+                    x = hit.getX() - w;
+                    y += dy * toi;
+                    if (vx > 0) vx = 0;
+                    dx = 0;
+                    dy *= remaining;
+                }
+                case CONTACT_LEFT -> {
+                    x = hit.getX() + hit.getWidth();
+                    y += dy * toi;
+                    if (vx < 0) vx = 0;
+                    dx = 0;
+                    dy *= remaining;
+                }
+            }
+        }
+
+        reindex();
+        return result;
+    }
+
+    /**
+     * Calculates when (as a fraction of the movement) this body would hit another entity if it moved by (dx, dy), and
+     * stores the normal of that contact in {@link PhysicsEntity#hitContact}.
+     *
+     * @return time of impact from 0 to 1, or {@link Float#POSITIVE_INFINITY} if they do not touch during the movement
+     */
+    private float timeOfImpact(CollisionEntity e, float dx, float dy) {
+        float ex = e.getX(), ey = e.getY(), ew = e.getWidth(), eh = e.getHeight();
+        float xEntry, xExit, yEntry, yExit;
+
+        if (dx > 0) {
+            xEntry = entryTime(ex - (x + w), dx);
+            xExit = (ex + ew - x) / dx;
+        } else if (dx < 0) {
+            xEntry = entryTime(x - (ex + ew), -dx);
+            xExit = (x + w - ex) / -dx;
         } else {
-            // try to resolve collision by moving to the nearest edge
-            float ld = Math.abs((tx + w) - coll.getX()); // distance from left edge
-            float rd = Math.abs(tx - (coll.getX() + coll.getWidth())); // right
-            float td = Math.abs((ty + h) - coll.getY()); // top
-            float bd = Math.abs(ty - (coll.getY() + coll.getHeight())); // bottom
-
-            // closest axis to resolve
-            if (Math.min(ld, rd) < Math.min(td, bd)) {
-                // x
-                if (ld < rd) x += coll.getX() - (x + w);
-                else x += (coll.getX() + coll.getWidth()) - x;
-                vx = 0;
-                y = ty;
-            } else {
-                // y
-                if (td < bd) y += coll.getY() - (y + h);
-                else y += (coll.getY() + coll.getHeight()) - y;
-                vy = 0;
-                x = tx;
+            if (x + w <= ex + CONTACT_EPSILON || x >= ex + ew - CONTACT_EPSILON) return Float.POSITIVE_INFINITY;
+            xEntry = Float.NEGATIVE_INFINITY;
+            xExit = Float.POSITIVE_INFINITY;
+        }
+
+        if (dy > 0) {
+            yEntry = entryTime(ey - (y + h), dy);
+            yExit = (ey + eh - y) / dy;
+        } else if (dy < 0) {
+            yEntry = entryTime(y - (ey + eh), -dy);
+            yExit = (y + h - ey) / -dy;
+        } else {
+            if (y + h <= ey + CONTACT_EPSILON || y >= ey + eh - CONTACT_EPSILON) return Float.POSITIVE_INFINITY;
+            yEntry = Float.NEGATIVE_INFINITY;
+            yExit = Float.POSITIVE_INFINITY;
+        }
+
+        float entry = Math.max(xEntry, yEntry);
+        float exit = Math.min(xExit, yExit);
+
+        // no contact if: we miss it, we are already inside it (depenetration handles that), or it is too far away
+        if (entry >= exit || entry < 0 || entry > 1) return Float.POSITIVE_INFINITY;
+
+        if (xEntry > yEntry) hitContact = dx > 0 ? CONTACT_RIGHT : CONTACT_LEFT;
+        else hitContact = dy > 0 ? CONTACT_GROUND : CONTACT_CEILING;
+        return entry;
+    }
+
+    /**
+     * @param gap      distance to the other entity along the axis of movement (negative if overlapping)
+     * @param distance distance that will be moved along the axis (positive)
+     *
+     * @return the time at which the gap will be closed, treating a tiny overlap as touching
+     */
+    private static float entryTime(float gap, float distance) {
+        if (gap < 0 && gap > -CONTACT_EPSILON) return 0;
+        return gap / distance;
+    }
+
+    /**
+     * If this body overlaps another entity, pushes it out along the axis with the least penetration.
+     *
+     * @return the contact that was resolved, or 0 if they were not overlapping
+     */
+    private int depenetrate(CollisionEntity e) {
+        float ld = (x + w) - e.getX(); // penetration from the left edge
+        float rd = (e.getX() + e.getWidth()) - x; // right
+        float td = (y + h) - e.getY(); // top
+        float bd = (e.getY() + e.getHeight()) - y; // bottom
+        if (ld <= CONTACT_EPSILON || rd <= CONTACT_EPSILON || td <= CONTACT_EPSILON || bd <= CONTACT_EPSILON) return 0;
+
+        // closest axis to resolve
+        if (Math.min(ld, rd) < Math.min(td, bd)) {
+            if (ld < rd) {
+                x -= ld;
+                if (vx > 0) vx = 0;
+                return CONTACT_RIGHT;
             }
+            x += rd;
+            if (vx < 0) vx = 0;
+            return CONTACT_LEFT;
         }
 
-        // check if grounded and reset vy if it is
-        var e = getCollisionAt(x, y + PROBE_EPSILON, w, h, this);
-        grounded = e != null;
-        if (grounded) vy = 0;
+        if (td < bd) {
+            y -= td;
+            if (vy > 0) vy = 0;
+            return CONTACT_GROUND;
+        }
+        y += bd;
+        if (vy < 0) vy = 0;
+        return CONTACT_CEILING;
+    }
+
+    /**
+     * Gets the velocity this body is moving at by its own will (e.g. walking), which is swept along with
+     * {@link PhysicsEntity#vx} but is not affected by collisions.
+     *
+     * @return velocity on the x-axis, in px/s
+     */
+    protected float getMoveVelocityX() {
+        return 0;
+    }
+
+    /**
+     * @return the size of this body's state: its position, velocity and contacts
+     */
+    @Override
+    public int getStateSize() {
+        return 4 * Float.BYTES + Integer.BYTES;
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+        out.putFloat(x).putFloat(y).putFloat(vx).putFloat(vy).putInt(contacts);
+    }
+
+    @Override
+    public void loadState(ByteBuffer in) {
+        x = in.getFloat();
+        y = in.getFloat();
+        vx = in.getFloat();
+        vy = in.getFloat();
+        contacts = in.getInt();
+        reindex();
+    }
+
+    /**
+     * Stops this body in place: cancels its velocity, and forgets its contacts until it is next swept.
+     */
+    public void stop() {
+        vx = 0;
+        vy = 0;
+        contacts = 0;
+    }
+
+    /**
+     * @return the contact normals from the last tick, as a bitmask of {@code CONTACT_*} flags
+     */
+    public int getContacts() {
+        return contacts;
     }
 
     /**
      * @return if this object is grounded
      */
     public boolean isGrounded() {
-        return grounded;
+        return (contacts & CONTACT_GROUND) != 0;
     }
 }
@@ -0,0 +1,194 @@
+package com.logandhillon.logangamelib.entity.physics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A spatial hash is a uniform grid that buckets {@link CollisionEntity}s by the cells that their hitbox overlaps. This
+ * is used as a broad-phase for collision queries, so that only the entities near the queried area are checked instead
+ * of every entity in the scene.
+ * <p>
+ * Entities must be re-indexed with {@link SpatialHash#update(CollisionEntity)} whenever they move.
+ *
+ * @author Logan Dhillon
+ */
+public class SpatialHash {
+    private final float                                   cellSize;
+    private final HashMap<Long, List<Entry>>              cells   = new HashMap<>();
+    private final IdentityHashMap<CollisionEntity, Entry> entries = new IdentityHashMap<>();
+
+    /**
+     * incremented every query, used to visit entities that span multiple cells only once per query.
+     */
+    private int queryStamp;
+
+    /**
+     * An indexed entity, along with the range of cells it was last inserted into.
+     */
+    private static final class Entry {
+        private final CollisionEntity entity;
+        private       int             minCx, minCy, maxCx, maxCy;
+        private       int             stamp;
+
+        private Entry(CollisionEntity entity) {
+            this.entity = entity;
+        }
+    }
+
+    /**
+     * Creates an empty spatial hash.
+     *
+     * @param cellSize width and height (px) of each cell in the grid
+     */
+    public SpatialHash(float cellSize) {
+        if (cellSize <= 0) throw new IllegalArgumentException("Cell size must be positive");
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Indexes an entity into every cell its hitbox overlaps. Does nothing if the entity is already indexed.
+     *
+     * @param e the entity to index
+     */
+    public void insert(CollisionEntity e) {
+        if (entries.containsKey(e)) return;
+
+        Entry entry = new Entry(e);
+        entries.put(e, entry);
+        setBounds(entry);
+        addToCells(entry);
+    }
+
+    /**
+     * Re-indexes an entity after it has moved. This is cheap if the entity is still within the same cells.
+     *
+     * @param e the entity that moved
+     */
+    public void update(CollisionEntity e) {
+        Entry entry = entries.get(e);
+        if (entry == null) return; // not indexed (yet)
+
+        int minCx = cell(e.getX());
+        int minCy = cell(e.getY());
+        int maxCx = cell(e.getX() + e.getWidth());
+        int maxCy = cell(e.getY() + e.getHeight());
+        if (minCx == entry.minCx && minCy == entry.minCy && maxCx == entry.maxCx && maxCy == entry.maxCy) return;
+
+        removeFromCells(entry);
+        setBounds(entry);
+        addToCells(entry);
+    }
+
+    /**
+     * Removes an entity from this spatial hash.
+     *
+     * @param e the entity to remove
+     */
+    public void remove(CollisionEntity e) {
+        Entry entry = entries.remove(e);
+        if (entry != null) removeFromCells(entry);
+    }
+
+    /**
+     * Removes every entity from this spatial hash.
+     */
+    public void clear() {
+        cells.clear();
+        entries.clear();
+    }
+
+    /**
+     * Finds the first indexed entity that is in the cells overlapped by the given area and matches the predicate.
+     *
+     * @param x         x pos of area
+     * @param y         y pos of area
+     * @param w         width of area
+     * @param h         height of area
+     * @param predicate narrow-phase check for each candidate (e.g. an exact hitbox check)
+     *
+     * @return first matching entity, or null
+     *
+     * @apiNote the predicate must not query this spatial hash again.
+     */
+    public CollisionEntity query(float x, float y, float w, float h, Predicate<CollisionEntity> predicate) {
+        int stamp = ++queryStamp;
+        int maxCx = cell(x + w);
+        int maxCy = cell(y + h);
+
+        for (int cx = cell(x); cx <= maxCx; cx++) {
+            for (int cy = cell(y); cy <= maxCy; cy++) {
+                List<Entry> bucket = cells.get(key(cx, cy));
+                if (bucket == null) continue;
+
+                for (int i = 0; i < bucket.size(); i++) {
+                    Entry entry = bucket.get(i);
+                    if (entry.stamp == stamp) continue; // already visited in another cell
+                    entry.stamp = stamp;
+                    if (predicate.test(entry.entity)) return entry.entity;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collects every indexed entity that is in the cells overlapped by the given area. These are only candidates, and
+     * may not actually overlap the area.
+     *
+     * @param x   x pos of area
+     * @param y   y pos of area
+     * @param w   width of area
+     * @param h   height of area
+     * @param out list to append the candidates to
+     */
+    public void query(float x, float y, float w, float h, List<CollisionEntity> out) {
+        query(x, y, w, h, e -> {
+            out.add(e);
+            return false;
+        });
+    }
+
+    /**
+     * @return the number of entities in this spatial hash
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private void setBounds(Entry entry) {
+        CollisionEntity e = entry.entity;
+        entry.minCx = cell(e.getX());
+        entry.minCy = cell(e.getY());
+        entry.maxCx = cell(e.getX() + e.getWidth());
+        entry.maxCy = cell(e.getY() + e.getHeight());
+    }
+
+    private void addToCells(Entry entry) {
+        for (int cx = entry.minCx; cx <= entry.maxCx; cx++)
+            for (int cy = entry.minCy; cy <= entry.maxCy; cy++)
+                cells.computeIfAbsent(key(cx, cy), k -> new ArrayList<>()).add(entry);
+    }
+
+    private void removeFromCells(Entry entry) {
+        for (int cx = entry.minCx; cx <= entry.maxCx; cx++) {
+            for (int cy = entry.minCy; cy <= entry.maxCy; cy++) {
+                long key = key(cx, cy);
+                List<Entry> bucket = cells.get(key);
+                if (bucket == null) continue;
+                bucket.remove(entry);
+                if (bucket.isEmpty()) cells.remove(key);
+            }
+        }
+    }
+
+    private int cell(float pos) {
+        return (int)Math.floor(pos / cellSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long)cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+}
@@ -44,6 +44,38 @@ public class AnimationSequence {
         animTimer = 0;
     }
 
+    /**
+     * Goes back to the first frame of this instance.
+     */
+    public void restart() {
+        setFrame(0, 0);
+    }
+
+    /**
+     * Jumps to a frame of this instance, e.g. to restore a saved state.
+     *
+     * @param frame the frame's index in the sequence
+     * @param timer how long (seconds) the frame has already been shown for
+     */
+    public void setFrame(int frame, float timer) {
+        if (!isInstance) throw new IllegalStateException("cannot set the frame of a static AnimationSequence. " +
+                                                         "use instance() on the sequence to get a new instance.");
+        if (frame < 0 || frame > maxFrame) throw new IndexOutOfBoundsException("No frame " + frame + " in sequence");
+        this.frame = frame;
+        this.animTimer = timer;
+    }
+
+    public int getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return how long (seconds) the current frame has been shown for
+     */
+    public float getTimer() {
+        return animTimer;
+    }
+
     public void onUpdate(float dt) {
         animTimer += dt;
         if (animTimer >= frameTime) nextFrame();
@@ -63,6 +95,15 @@ public class AnimationSequence {
         atlas.draw(g, frames[frame * 2], frames[frame * 2 + 1], x, y, w, h, color);
     }
 
+    /**
+     * Recolors every frame of this sequence ahead of time, so that drawing it with that color later does not need to.
+     *
+     * @param color color to recolor the frames with
+     */
+    public void warm(Color color) {
+        for (int i = 0; i < frames.length; i += 2) atlas.warm(frames[i], frames[i + 1], color);
+    }
+
     public AnimationSequence instance() {
         return new AnimationSequence(atlas, frameTime, true, frames);
     }
@@ -61,6 +61,15 @@ public class AtlasTile implements ProtoSerializable<LevelProto.AtlasTile> {
         else atlas.draw(g, row, col, x, y, w, h, color);
     }
 
+    /**
+     * Recolors this image ahead of time, so that drawing it with that color later does not need to.
+     *
+     * @param color color to recolor the image with, or null for none
+     */
+    public void warm(Color color) {
+        if (color != null) atlas.warm(row, col, color);
+    }
+
     @Override
     public LevelProto.AtlasTile serialize() {
         return LevelProto.AtlasTile.newBuilder()
@@ -0,0 +1,146 @@
+package com.logandhillon.logangamelib.gfx;
+
+import com.logandhillon.logangamelib.entity.Entity;
+import com.logandhillon.logangamelib.entity.Renderable;
+import com.logandhillon.logangamelib.entity.Stateful;
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A baked layer draws static content (that would otherwise be redrawn every frame) once to an offscreen image, and
+ * then draws that image every frame with a single draw call.
+ * <p>
+ * The layer may have multiple states (e.g. normal and inverted colors), each of which is baked the first time it is
+ * shown and then kept until {@link BakedLayer#invalidate()} is called.
+ *
+ * @author Logan Dhillon
+ * @apiNote this is an entity, and thus should not be referenced statically.
+ */
+public class BakedLayer extends Entity implements Stateful {
+    private static final Logger LOG = LoggerContext.getContext().getLogger(BakedLayer.class);
+
+    private final int                          width;
+    private final int                          height;
+    private final List<Renderable.RenderAgent> agents = new ArrayList<>();
+    private final WritableImage[]              cache;
+
+    private int state;
+
+    /**
+     * Creates a new, empty baked layer at (0, 0).
+     *
+     * @param width  width of the baked image
+     * @param height height of the baked image
+     * @param states how many different states this layer can be baked in
+     */
+    public BakedLayer(int width, int height, int states) {
+        super(0, 0);
+        this.width = width;
+        this.height = height;
+        this.cache = new WritableImage[states];
+    }
+
+    /**
+     * Adds static content to this layer, which will be drawn (in the order it was added) whenever the layer is baked.
+     *
+     * @param agent the renderer of the static content, called with the position of this layer
+     */
+    public void add(Renderable.RenderAgent agent) {
+        agents.add(agent);
+        invalidate();
+    }
+
+    /**
+     * Switches the state of this layer, baking the new state on the next render if it has not been baked yet.
+     *
+     * @param state the index of the state to show
+     */
+    public void setState(int state) {
+        if (state < 0 || state >= cache.length)
+            throw new IllegalArgumentException("State must be within 0 and " + (cache.length - 1));
+        this.state = state;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Shows the first state again; every baked state is kept.
+     */
+    @Override
+    public void reset() {
+        state = 0;
+    }
+
+    @Override
+    public int getStateSize() {
+        return Integer.BYTES;
+    }
+
+    @Override
+    public void saveState(ByteBuffer out) {
+        out.putInt(state);
+    }
+
+    @Override
+    public void loadState(ByteBuffer in) {
+        setState(in.getInt());
+    }
+
+    /**
+     * Discards every baked state, so they will all be baked again when they are next shown.
+     */
+    public void invalidate() {
+        for (int i = 0; i < cache.length; i++) cache[i] = null;
+    }
+
+    @Override
+    protected void onRender(GraphicsContext g, float x, float y) {
+        if (cache[state] == null) cache[state] = bake();
+
+        g.setImageSmoothing(false);
+        g.drawImage(cache[state], x, y);
+    }
+
+    /**
+     * Draws all static content to an offscreen canvas and snapshots it.
+     *
+     * @return the baked image
+     *
+     * @apiNote this must be called on the FX thread.
+     */
+    private WritableImage bake() {
+        LOG.debug("Baking {} static renderer(s) for state {}", agents.size(), state);
+
+        Canvas canvas = new Canvas(width, height);
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        for (Renderable.RenderAgent agent: agents) {
+            g.save();
+            agent.render(g, 0, 0);
+            g.restore();
+        }
+
+        SnapshotParameters params = new SnapshotParameters();
+        params.setFill(Color.TRANSPARENT);
+        return canvas.snapshot(params, new WritableImage(width, height));
+    }
+
+    @Override
+    public void onUpdate(float dt) {
+    }
+
+    @Override
+    public void onDestroy() {
+        invalidate();
+    }
+}
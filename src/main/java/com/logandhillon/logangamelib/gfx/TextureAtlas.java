@@ -9,7 +9,6 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -27,25 +26,27 @@ public class TextureAtlas {
 
     /**
      * Stores all loaded textures in runtime, so they can be accessed via the {@link TextureAtlas#path} at {@code O(1)}
-     * time.
+     * time. Textures may be loaded off the FX thread, while a scene is being prepared.
      */
-    private static final Map<String, TextureAtlas> LOADED_TEXTURES = new HashMap<>();
+    private static final Map<String, TextureAtlas> LOADED_TEXTURES = new ConcurrentHashMap<>();
 
-    protected final Image    image;
     protected final Metadata meta;
     protected final String   path;
 
+    // loaded the first time this atlas is drawn, as loading an image starts the JavaFX toolkit, which must not be
+    // started when running headlessly (e.g. on a dedicated server)
+    private volatile Image                  image;
+    private          ImageResource.Region[] cells; // each cell as a region that can be recolored, by row then col
+
     /**
-     * Creates a new texture atlas, loading the {@code gfx/{image.png}} and the {@code gfx/{image.png}.atlas} files.
+     * Creates a new texture atlas, loading the {@code gfx/{image.png}.atlas} file. The {@code gfx/{image.png}} file is
+     * only loaded once the atlas is first drawn.
      *
      * @param path the name of the image (and atlas file) in the gfx folder.
      */
     private TextureAtlas(String path) {
         LOG.info("Computing new texture atlas for '{}'", path);
-        try (var img = new ImageResource(path);
-             var meta = new TextResource("gfx/" + path + ".atlas")
-        ) {
-            this.image = img.load();
+        try (var meta = new TextResource("gfx/" + path + ".atlas")) {
             this.meta = Metadata.fromString(meta.load());
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -53,6 +54,37 @@ public class TextureAtlas {
         this.path = path;
     }
 
+    /**
+     * Gets this atlas's image, loading it (and the regions of its cells) if it has not been loaded yet.
+     *
+     * @return the image
+     */
+    private Image getImage() {
+        Image image = this.image;
+        if (image != null) return image;
+
+        synchronized (this) {
+            if (this.image != null) return this.image;
+
+            LOG.info("Loading image for texture atlas '{}'", path);
+            try (var img = new ImageResource(path)) {
+                image = img.load();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            cells = new ImageResource.Region[meta.rows * meta.cols];
+            for (int row = 0; row < meta.rows; row++) {
+                for (int col = 0; col < meta.cols; col++) {
+                    cells[row * meta.cols + col] = new ImageResource.Region(
+                            image, row * meta.cellWidth, col * meta.cellHeight, meta.cellWidth, meta.cellHeight);
+                }
+            }
+            this.image = image; // published last, so the cells are visible to anyone who sees it
+            return image;
+        }
+    }
+
     /**
      * Tries to load the correct {@link TextureAtlas} from runtime memory, or creates a new one if it has not been
      * created already.
@@ -70,19 +102,21 @@ public class TextureAtlas {
      *
      * @param g     javafx graphics context from the engine's canvas
      * @param image static image to draw
-     * @param row   row of image in atlas
-     * @param col   col of image in atlas
+     * @param sx    x-pos of the source region in the image
+     * @param sy    y-pos of the source region in the image
      * @param x     x-pos to draw at
      * @param y     y-pos to draw at
      * @param w     width of image that will be drawn
      * @param h     height of image that will be drawn
      */
-    private void draw(GraphicsContext g, Image image, int row, int col, float x, float y, float w, float h) {
-        if (row < 0 || row > meta.rows || col < 0 || col > meta.cols)
-            throw new IllegalArgumentException("row/col must be within 0 and the number of rows/cols in this atlas");
-
+    private void draw(GraphicsContext g, Image image, float sx, float sy, float x, float y, float w, float h) {
         g.setImageSmoothing(false);
-        g.drawImage(image, row * meta.cellWidth, col * meta.cellHeight, meta.cellWidth, meta.cellHeight, x, y, w, h);
+        g.drawImage(image, sx, sy, meta.cellWidth, meta.cellHeight, x, y, w, h);
+    }
+
+    private void checkBounds(int row, int col) {
+        if (row < 0 || row >= meta.rows || col < 0 || col >= meta.cols)
+            throw new IllegalArgumentException("row/col must be within 0 and the number of rows/cols in this atlas");
     }
 
     /**
@@ -97,7 +131,8 @@ public class TextureAtlas {
      * @param h   height of image that will be drawn
      */
     public void draw(GraphicsContext g, int row, int col, float x, float y, float w, float h) {
-        draw(g, image, row, col, x, y, w, h);
+        checkBounds(row, col);
+        draw(g, getImage(), row * meta.cellWidth, col * meta.cellHeight, x, y, w, h);
     }
 
     /**
@@ -112,10 +147,39 @@ public class TextureAtlas {
      * @param h     height of image that will be drawn
      * @param color color to recolor the image with
      *
-     * @see ImageResource#recolor(Image, Color)
+     * @see ImageResource#recolor(ImageResource.Region, Color)
      */
     public void draw(GraphicsContext g, int row, int col, float x, float y, float w, float h, Color color) {
-        draw(g, ImageResource.recolor(image, color), row, col, x, y, w, h);
+        // only recolor the cell that is being drawn, not the entire atlas
+        draw(g, ImageResource.recolor(getCell(row, col), color), 0, 0, x, y, w, h);
+    }
+
+    /**
+     * Recolors one cell of this atlas ahead of time, so that drawing it with that color later does not need to; unless
+     * the recolor cache is full, see {@link ImageResource#warm(ImageResource.Region, Color)}.
+     *
+     * @param row   row of image in atlas
+     * @param col   col of image in atlas
+     * @param color color to recolor the image with
+     *
+     * @see TextureAtlas#draw(GraphicsContext, int, int, float, float, float, float, Color)
+     */
+    public void warm(int row, int col, Color color) {
+        ImageResource.warm(getCell(row, col), color);
+    }
+
+    /**
+     * Gets one cell of this atlas as a region that can be recolored, which is always the same for the same cell.
+     *
+     * @param row row of image in atlas
+     * @param col col of image in atlas
+     *
+     * @return the cell's region
+     */
+    public ImageResource.Region getCell(int row, int col) {
+        checkBounds(row, col);
+        getImage();
+        return cells[row * meta.cols + col];
     }
 
     /**
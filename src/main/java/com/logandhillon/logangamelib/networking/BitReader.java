@@ -0,0 +1,59 @@
+package com.logandhillon.logangamelib.networking;
+
+/**
+ * A bit reader reads values that were packed by a {@link BitWriter}.
+ *
+ * @author Logan Dhillon
+ * @see BitWriter
+ */
+public class BitReader {
+    private final byte[] buf;
+    private       int    bitPos;
+
+    /**
+     * Creates a bit reader at the start of a byte array.
+     *
+     * @param buf the packed bytes
+     */
+    public BitReader(byte[] buf) {
+        this.buf = buf;
+    }
+
+    /**
+     * Reads an unsigned value.
+     *
+     * @param bits how many bits the value was written with (0-64)
+     *
+     * @return the value
+     *
+     * @throws IllegalStateException if there are not enough bits left
+     */
+    public long read(int bits) {
+        if (bits < 0 || bits > 64) throw new IllegalArgumentException("Bits must be within 0 and 64");
+        if (bitPos + bits > buf.length * 8) throw new IllegalStateException("Read past the end of the buffer");
+
+        long value = 0;
+        for (int i = 0; i < bits; i++) {
+            if ((buf[bitPos >>> 3] >>> (bitPos & 7) & 1) != 0) value |= 1L << i;
+            bitPos++;
+        }
+        return value;
+    }
+
+    /**
+     * @return a single bit
+     */
+    public boolean readBool() {
+        return read(1) != 0;
+    }
+
+    /**
+     * @return a signed integer written by {@link BitWriter#writeSigned(int)}
+     */
+    public int readSigned() {
+        int bits = (int)read(6);
+        if (bits > 32) throw new IllegalStateException("Invalid signed integer length " + bits);
+        int zigzag = (int)read(bits);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
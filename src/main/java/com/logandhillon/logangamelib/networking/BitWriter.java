@@ -0,0 +1,83 @@
+package com.logandhillon.logangamelib.networking;
+
+import java.util.Arrays;
+
+/**
+ * A bit writer packs values into a byte array using only as many bits as each value needs, for compact network
+ * messages. Bits are written least-significant first.
+ *
+ * @author Logan Dhillon
+ * @see BitReader
+ */
+public class BitWriter {
+    private byte[] buf;
+    private int    bitPos;
+
+    /**
+     * Creates an empty bit writer.
+     *
+     * @param capacity initial capacity, in bytes (grows as needed)
+     */
+    public BitWriter(int capacity) {
+        buf = new byte[Math.max(1, capacity)];
+    }
+
+    /**
+     * Writes the lowest bits of a value.
+     *
+     * @param value the value to write
+     * @param bits  how many bits of the value to write (0-64)
+     */
+    public void write(long value, int bits) {
+        if (bits < 0 || bits > 64) throw new IllegalArgumentException("Bits must be within 0 and 64");
+        ensureCapacity(bitPos + bits);
+
+        for (int i = 0; i < bits; i++) {
+            if ((value >>> i & 1) != 0) buf[bitPos >>> 3] |= (byte)(1 << (bitPos & 7));
+            bitPos++;
+        }
+    }
+
+    /**
+     * Writes a single bit.
+     *
+     * @param value the value to write
+     */
+    public void writeBool(boolean value) {
+        write(value ? 1 : 0, 1);
+    }
+
+    /**
+     * Writes a signed integer using as few bits as its magnitude needs: a 6-bit length, then the zig-zag encoded value.
+     *
+     * @param value the value to write
+     *
+     * @see BitReader#readSigned()
+     */
+    public void writeSigned(int value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+        int bits = 32 - Integer.numberOfLeadingZeros(zigzag);
+        write(bits, 6);
+        write(Integer.toUnsignedLong(zigzag), bits);
+    }
+
+    /**
+     * @return a copy of everything written so far, padded with zero bits to a whole byte
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, (bitPos + 7) >>> 3);
+    }
+
+    /**
+     * Discards everything written so far, so this writer can be reused.
+     */
+    public void reset() {
+        Arrays.fill(buf, 0, (bitPos + 7) >>> 3, (byte)0);
+        bitPos = 0;
+    }
+
+    private void ensureCapacity(int bits) {
+        int bytes = (bits + 7) >>> 3;
+        if (bytes > buf.length) buf = Arrays.copyOf(buf, Math.max(bytes, buf.length * 2));
+    }
+}
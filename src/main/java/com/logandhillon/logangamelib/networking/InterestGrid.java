@@ -0,0 +1,162 @@
+package com.logandhillon.logangamelib.networking;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An interest grid decides which subjects (e.g. players) each observer is interested in, so that a server only
+ * replicates what is near each client instead of everything to everyone.
+ * <p>
+ * Subjects are bucketed into a uniform grid of cells as large as the far radius, so finding what is near an observer
+ * only looks at the 3x3 cells around it, no matter how large the level is. Every subject is also an observer (a player
+ * observes from where it is). An observer is interested in a subject within the far radius, and the subjects within the
+ * near radius are also tracked separately, so that they can be replicated more often.
+ * <p>
+ * When a subject starts or stops being of interest to an observer, the {@link Listener} is told; interest is tracked as
+ * a bitmask by subject ID, so there may be up to 64 subjects.
+ *
+ * @author Logan Dhillon
+ */
+public class InterestGrid {
+    public static final int MAX_SUBJECTS = Long.SIZE;
+
+    private final float           cellSize;
+    private final float           nearRadiusSq, farRadiusSq;
+    private final Listener        listener;
+    private final float[]         xs, ys;
+    private final long[]          cellOf; // the key of the cell each subject is in
+    private final Map<Long, Long> cells = new HashMap<>(); // subjects in each occupied cell, by cell key
+    private final long[]          near, interest; // by observer
+
+    /**
+     * Listens for changes in what observers are interested in.
+     */
+    public interface Listener {
+        /**
+         * Called when a subject comes within an observer's far radius.
+         *
+         * @param observer the observer's ID
+         * @param subject  the subject's ID
+         */
+        void onEnter(int observer, int subject);
+
+        /**
+         * Called when a subject leaves an observer's far radius.
+         *
+         * @param observer the observer's ID
+         * @param subject  the subject's ID
+         */
+        void onLeave(int observer, int subject);
+    }
+
+    /**
+     * Creates an interest grid where every subject is at the origin, and nobody is interested in anything yet; see
+     * {@link InterestGrid#update()}.
+     *
+     * @param subjects   how many subjects (and observers) there are, with IDs from 0
+     * @param nearRadius the distance that a subject is near an observer within (px)
+     * @param farRadius  the distance that an observer is interested in subjects within (px)
+     * @param listener   the listener to tell when interest changes, or null
+     */
+    public InterestGrid(int subjects, float nearRadius, float farRadius, Listener listener) {
+        if (subjects > MAX_SUBJECTS) throw new IllegalArgumentException("At most " + MAX_SUBJECTS + " subjects");
+        if (nearRadius > farRadius) throw new IllegalArgumentException("Near radius is beyond the far radius");
+        this.cellSize = farRadius;
+        this.nearRadiusSq = nearRadius * nearRadius;
+        this.farRadiusSq = farRadius * farRadius;
+        this.listener = listener;
+
+        xs = new float[subjects];
+        ys = new float[subjects];
+        cellOf = new long[subjects];
+        near = new long[subjects];
+        interest = new long[subjects];
+        for (int id = 0; id < subjects; id++) cells.merge(cellOf[id] = key(0, 0), 1L << id, (a, b) -> a | b);
+    }
+
+    /**
+     * Moves a subject, and the grid cell it is bucketed in.
+     *
+     * @param id the subject's ID
+     * @param x  the subject's x position (px)
+     * @param y  the subject's y position (px)
+     */
+    public void move(int id, float x, float y) {
+        xs[id] = x;
+        ys[id] = y;
+
+        long cell = key(x, y);
+        if (cell == cellOf[id]) return;
+
+        long bit = 1L << id;
+        cells.computeIfPresent(cellOf[id], (k, mask) -> (mask & ~bit) == 0 ? null : mask & ~bit);
+        cells.merge(cell, bit, (a, b) -> a | b);
+        cellOf[id] = cell;
+    }
+
+    /**
+     * Recomputes what every observer is interested in from where everything is now, telling the listener about every
+     * subject that entered or left an observer's interest. This should be called after every subject has been moved.
+     */
+    public void update() {
+        for (int observer = 0; observer < xs.length; observer++) {
+            int cx = cell(xs[observer]), cy = cell(ys[observer]);
+            long candidates = 0;
+            for (int dx = -1; dx <= 1; dx++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    Long mask = cells.get(pack(cx + dx, cy + dy));
+                    if (mask != null) candidates |= mask;
+                }
+            }
+
+            long nowNear = 0, nowInterest = 0;
+            for (long m = candidates; m != 0; m &= m - 1) {
+                int subject = Long.numberOfTrailingZeros(m);
+                float dx = xs[subject] - xs[observer], dy = ys[subject] - ys[observer];
+                float distSq = dx * dx + dy * dy;
+                if (distSq <= farRadiusSq) nowInterest |= 1L << subject;
+                if (distSq <= nearRadiusSq) nowNear |= 1L << subject;
+            }
+
+            long before = interest[observer];
+            near[observer] = nowNear;
+            interest[observer] = nowInterest;
+            if (listener == null) continue;
+
+            for (long m = nowInterest & ~before; m != 0; m &= m - 1)
+                listener.onEnter(observer, Long.numberOfTrailingZeros(m));
+            for (long m = before & ~nowInterest; m != 0; m &= m - 1)
+                listener.onLeave(observer, Long.numberOfTrailingZeros(m));
+        }
+    }
+
+    /**
+     * @param observer the observer's ID
+     *
+     * @return the subjects within the observer's near radius, as a bitmask by subject ID (including itself)
+     */
+    public long getNear(int observer) {
+        return near[observer];
+    }
+
+    /**
+     * @param observer the observer's ID
+     *
+     * @return the subjects the observer is interested in, as a bitmask by subject ID (including itself)
+     */
+    public long getInterest(int observer) {
+        return interest[observer];
+    }
+
+    private int cell(float v) {
+        return (int)Math.floor(v / cellSize);
+    }
+
+    private long key(float x, float y) {
+        return pack(cell(x), cell(y));
+    }
+
+    private static long pack(int cx, int cy) {
+        return ((long)cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,157 @@
+package com.logandhillon.logangamelib.networking;
+
+import com.logandhillon.fptgame.networking.GamePacket;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * An outbound queue holds the packets waiting to be written to one connection.
+ * <p>
+ * Packets are first {@link OutboundQueue#queue(GamePacket) queued} (e.g. during a tick) and are only handed to the
+ * writer once they are {@link OutboundQueue#flush() flushed}, so that everything produced in one tick is written with
+ * a single gather write. Queueing never blocks, and is safe from any thread.
+ * <p>
+ * The backlog is bounded: if the connection falls behind, the oldest droppable packets (see
+ * {@link GamePacket.Type#isDroppable()}) are discarded first. Reliable packets are never dropped.
+ *
+ * @author Logan Dhillon
+ */
+public class OutboundQueue {
+    private static final Logger LOG = LoggerContext.getContext().getLogger(OutboundQueue.class);
+
+    private final int               maxBacklog;
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+
+    /** how many frames at the head of the queue have been flushed, and may be written */
+    private int ready;
+
+    /** the gather write that is in progress; only touched by the writing thread */
+    private ByteBuffer[] writing;
+    private int          writingOffset;
+
+    /**
+     * A packet that has been serialized and length-prefixed, ready to be written. A frame may be queued to any number
+     * of connections, which all write the same buffer, so a packet that is sent to many recipients is only serialized
+     * once.
+     *
+     * @param droppable if the packet may be discarded when the connection falls behind
+     * @param data      the length-prefixed packet; its position and limit are never changed
+     */
+    public record Frame(boolean droppable, ByteBuffer data) {
+        /**
+         * Serializes a packet into a frame.
+         *
+         * @param packet the packet
+         *
+         * @return the frame
+         */
+        public static Frame of(GamePacket packet) {
+            byte[] data = packet.serialize();
+            return new Frame(packet.type().isDroppable(),
+                             ByteBuffer.allocate(4 + data.length).putInt(data.length).put(data).flip());
+        }
+
+        /**
+         * @return the serialized packet, without its length prefix (i.e. for a datagram)
+         */
+        public ByteBuffer packet() {
+            return data.duplicate().position(4).slice();
+        }
+    }
+
+    /**
+     * Creates an empty outbound queue.
+     *
+     * @param maxBacklog how many packets may be waiting before droppable packets start getting discarded
+     */
+    public OutboundQueue(int maxBacklog) {
+        if (maxBacklog <= 0) throw new IllegalArgumentException("Backlog must be positive");
+        this.maxBacklog = maxBacklog;
+    }
+
+    /**
+     * Serializes and adds a packet to the queue, without flushing it.
+     *
+     * @param packet the packet to send
+     */
+    public void queue(GamePacket packet) {
+        queue(Frame.of(packet));
+    }
+
+    /**
+     * Adds an already serialized packet to the queue, without flushing it. The frame itself is not modified, so it may
+     * be queued to other connections too.
+     *
+     * @param frame the packet to send
+     */
+    public synchronized void queue(Frame frame) {
+        frames.add(new Frame(frame.droppable, frame.data.duplicate())); // each queue writes its own view of the buffer
+        if (frames.size() > maxBacklog) trim();
+    }
+
+    /**
+     * Marks every queued packet as ready to be written.
+     */
+    public synchronized void flush() {
+        ready = frames.size();
+    }
+
+    /**
+     * @return true if there are flushed packets that have not been completely written yet
+     */
+    public synchronized boolean hasReady() {
+        return ready > 0 || writing != null;
+    }
+
+    /**
+     * Writes as many flushed packets to the channel as it accepts, gathering them into as few writes as possible.
+     *
+     * @param channel the channel to write to; if it is non-blocking, this may return before everything is written
+     *
+     * @return true if every flushed packet has been written
+     *
+     * @throws IOException if the channel fails to write
+     * @apiNote only one thread may write a queue at a time.
+     */
+    public boolean write(GatheringByteChannel channel) throws IOException {
+        while (true) {
+            if (writing == null) {
+                synchronized (this) {
+                    if (ready == 0) return true;
+                    writing = new ByteBuffer[ready];
+                    for (int i = 0; i < writing.length; i++) writing[i] = frames.poll().data;
+                    writingOffset = 0;
+                    ready = 0;
+                }
+            }
+
+            while (writingOffset < writing.length) {
+                long n = channel.write(writing, writingOffset, writing.length - writingOffset);
+                while (writingOffset < writing.length && !writing[writingOffset].hasRemaining()) writingOffset++;
+                if (n == 0 && writingOffset < writing.length) return false; // socket buffer is full
+            }
+            writing = null;
+        }
+    }
+
+    /**
+     * Discards the oldest droppable packet that has not started writing.
+     */
+    private void trim() {
+        int i = 0;
+        for (Iterator<Frame> it = frames.iterator(); it.hasNext(); i++) {
+            if (it.next().droppable) {
+                it.remove();
+                if (i < ready) ready--;
+                return;
+            }
+        }
+        LOG.warn("Outbound backlog is over {} packets, but none of them can be dropped", maxBacklog);
+    }
+}
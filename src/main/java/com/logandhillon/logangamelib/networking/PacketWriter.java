@@ -4,51 +4,53 @@ import com.logandhillon.fptgame.networking.GamePacket;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.nio.channels.SocketChannel;
 
 /**
- * A packet writer internally uses a {@link PrintWriter}, but instead of using Strings to communicate, it uses a
- * {@link GamePacket}.
+ * A packet writer sends {@link GamePacket}s over a blocking {@link SocketChannel} from its own writer thread, so that
+ * sending a packet never blocks the caller (e.g. the game loop).
  * <p>
- * Such packet is then serialized and written to the output stream {using {@link PacketWriter#send(GamePacket)}}
+ * Packets may either be sent immediately with {@link PacketWriter#send(GamePacket)}, or
+ * {@link PacketWriter#queue(GamePacket) queued} and then {@link PacketWriter#flush() flushed} together, which writes
+ * every queued packet with a single gather write. See {@link OutboundQueue}.
  * <p>
  * This class it {@link AutoCloseable}, and should be used with a try-with-resources statement.
  *
  * @author Logan Dhillon
  */
 public class PacketWriter implements AutoCloseable {
-    private static final Logger LOG = LoggerContext.getContext().getLogger(PacketWriter.class);
+    private static final Logger LOG           = LoggerContext.getContext().getLogger(PacketWriter.class);
+    private static final int    MAX_BACKLOG   = 256; // packets
+    private static final long   CLOSE_TIMEOUT = 500; // ms to wait for queued packets to flush when closing
 
-    private final DataOutputStream out;
+    private final SocketChannel channel;
+    private final OutboundQueue out = new OutboundQueue(MAX_BACKLOG);
+    private final Thread        writer;
+
+    private volatile boolean closed;
 
     /**
-     * Creates the internal print writer from an output stream
+     * Creates a packet writer and starts its writer thread.
      *
-     * @param out the output stream to write to
+     * @param channel the connected, blocking channel to write to
      */
-    public PacketWriter(OutputStream out) {
-        this.out = new DataOutputStream(out);
+    public PacketWriter(SocketChannel channel) {
+        this.channel = channel;
+        this.writer = new Thread(this::writeLoop, "PacketWriter");
+        writer.setDaemon(true);
+        writer.start();
     }
 
     /**
-     * Serializes and writes a packet to the output stream, effectively "sending" it.
+     * Queues and flushes a packet, effectively "sending" it. This does not block.
      *
      * @param packet the {@link GamePacket} to send.
      */
     public void send(GamePacket packet) {
         LOG.debug("Sending {} packet", packet.type());
-
-        try {
-            byte[] data = packet.serialize();
-            out.writeInt(data.length);
-            out.write(data);
-            out.flush();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        out.queue(packet);
+        flush();
     }
 
     /**
@@ -61,12 +63,59 @@ public class PacketWriter implements AutoCloseable {
     }
 
     /**
-     * Closes the internal {@link PrintWriter}.
+     * Queues a packet to be sent on the next {@link PacketWriter#flush()}. This does not block.
+     *
+     * @param packet the {@link GamePacket} to queue.
+     */
+    public void queue(GamePacket packet) {
+        LOG.debug("Queueing {} packet", packet.type());
+        out.queue(packet);
+    }
+
+    /**
+     * Sends every queued packet in one write.
+     */
+    public void flush() {
+        out.flush();
+        synchronized (out) {
+            out.notify();
+        }
+    }
+
+    /**
+     * Writes flushed packets to the channel until this writer is closed.
+     */
+    private void writeLoop() {
+        try {
+            while (true) {
+                synchronized (out) {
+                    while (!out.hasReady() && !closed) out.wait();
+                }
+                if (!out.hasReady()) break; // closed and everything is written
+                out.write(channel);
+            }
+        } catch (IOException e) {
+            if (!closed) LOG.error("Failed to write to channel", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits (briefly) for flushed packets to be written, then closes the channel.
      */
     @Override
     public void close() {
+        closed = true;
+        flush();
+        try {
+            writer.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
         try {
-            out.close();
+            channel.close();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
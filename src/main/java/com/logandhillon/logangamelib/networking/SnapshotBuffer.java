@@ -0,0 +1,138 @@
+package com.logandhillon.logangamelib.networking;
+
+/**
+ * A snapshot buffer holds the most recent time-stamped positions of a remote entity, so that it can be rendered
+ * slightly in the past by interpolating between the two snapshots around that time, instead of teleporting whenever a
+ * snapshot arrives. If snapshots stop arriving, the entity is extrapolated along its last velocity for a bounded time.
+ * <p>
+ * The render delay adapts to the measured interval between snapshots and the jitter in their arrival times.
+ *
+ * @param <T> the type of extra (non-interpolated) data attached to each snapshot
+ *
+ * @author Logan Dhillon
+ */
+public class SnapshotBuffer<T> {
+    private static final int    CAPACITY          = 32;
+    private static final double MIN_DELAY         = 0.05; // s
+    private static final double MAX_DELAY         = 0.5; // s
+    private static final double MAX_EXTRAPOLATION = 0.25; // s
+    private static final double SMOOTHING         = 0.1; // weight of each new sample in the running estimates
+
+    private final double[] times = new double[CAPACITY]; // remote time of each snapshot
+    private final float[]  xs    = new float[CAPACITY];
+    private final float[]  ys    = new float[CAPACITY];
+    private final Object[] data  = new Object[CAPACITY];
+    private       int      head, size;
+
+    // running estimates: local - remote clock offset, its deviation, and the time between snapshots
+    private boolean hasEstimates;
+    private double  offset, jitter, interval;
+
+    // velocity between the two newest snapshots, for extrapolation
+    private float vx, vy;
+
+    /**
+     * Adds a snapshot to this buffer. Snapshots that are not newer than the newest one are ignored.
+     *
+     * @param remoteTime the time (seconds) on the remote's clock that the snapshot is from
+     * @param localTime  the time (seconds) on our clock that the snapshot arrived
+     * @param x          x pos of the entity
+     * @param y          y pos of the entity
+     * @param extra      extra data to return with the snapshot when it is sampled
+     */
+    public void add(double remoteTime, double localTime, float x, float y, T extra) {
+        if (size > 0) {
+            int newest = index(size - 1);
+            double dt = remoteTime - times[newest];
+            if (dt <= 0) return;
+
+            vx = (float)((x - xs[newest]) / dt);
+            vy = (float)((y - ys[newest]) / dt);
+            interval += (dt - interval) * SMOOTHING;
+        }
+
+        double sampleOffset = localTime - remoteTime;
+        if (!hasEstimates) {
+            offset = sampleOffset;
+            interval = MIN_DELAY;
+            hasEstimates = true;
+        } else {
+            double deviation = sampleOffset - offset;
+            jitter += (Math.abs(deviation) - jitter) * SMOOTHING;
+            offset += deviation * SMOOTHING;
+        }
+
+        if (size == CAPACITY) {
+            head = index(1);
+            size--;
+        }
+        int i = index(size++);
+        times[i] = remoteTime;
+        xs[i] = x;
+        ys[i] = y;
+        data[i] = extra;
+    }
+
+    /**
+     * Samples the position of the entity at the render time, which is the given time minus the render delay.
+     *
+     * @param localTime the current time (seconds) on our clock
+     * @param out       array that the sampled x and y pos are written to
+     *
+     * @return the extra data of the newest snapshot at or before the render time, or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T sample(double localTime, float[] out) {
+        if (size == 0) return null;
+        double renderTime = localTime - offset - getDelay();
+
+        // discard snapshots that we have rendered past, keeping the one just before the render time
+        while (size >= 2 && times[index(1)] <= renderTime) {
+            data[head] = null;
+            head = index(1);
+            size--;
+        }
+
+        int a = head;
+        if (renderTime <= times[a]) {
+            // we are still before the oldest snapshot
+            out[0] = xs[a];
+            out[1] = ys[a];
+        } else if (size >= 2) {
+            // interpolate between the two snapshots around the render time
+            int b = index(1);
+            float t = (float)((renderTime - times[a]) / (times[b] - times[a]));
+            out[0] = xs[a] + (xs[b] - xs[a]) * t;
+            out[1] = ys[a] + (ys[b] - ys[a]) * t;
+        } else {
+            // we have run out of snapshots, so carry on along the last velocity for a while
+            float t = (float)Math.min(renderTime - times[a], MAX_EXTRAPOLATION);
+            out[0] = xs[a] + vx * t;
+            out[1] = ys[a] + vy * t;
+        }
+        return (T)data[a];
+    }
+
+    /**
+     * @return how far (seconds) in the past the entity is rendered, which covers the interval between snapshots and
+     * twice the jitter in their arrival
+     */
+    public double getDelay() {
+        return Math.max(MIN_DELAY, Math.min(MAX_DELAY, interval + 2 * jitter));
+    }
+
+    /**
+     * Removes every snapshot and resets the running estimates.
+     */
+    public void clear() {
+        for (int i = 0; i < CAPACITY; i++) data[i] = null;
+        head = size = 0;
+        hasEstimates = false;
+        jitter = 0;
+        vx = vy = 0;
+    }
+
+    private int index(int i) {
+        return (head + i) % CAPACITY;
+    }
+}
@@ -1,6 +1,7 @@
 package com.logandhillon.logangamelib.resource;
 
 import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import org.apache.logging.log4j.Logger;
@@ -8,7 +9,13 @@ import org.apache.logging.log4j.core.LoggerContext;
 
 import java.io.FileNotFoundException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Loads a resource from the /gfx/ folder as an {@link Image}
@@ -18,11 +25,79 @@ import java.util.HashMap;
 public class ImageResource extends Resource<Image> {
     private static final Logger LOG = LoggerContext.getContext().getLogger(ImageResource.class);
 
+    private static final long CACHE_BUDGET = 16L * 1024 * 1024; // max bytes of recolored pixels to keep in memory
+
+    /**
+     * Every cached recolor, for evicting the least recently used. Cache hits don't touch this (or its lock), so that
+     * drawing is never blocked by another thread's recolor; it is only locked to add or evict recolors.
+     */
+    private static final List<Recolor> CACHED_RECOLORS = new ArrayList<>();
+
+    /**
+     * The region of each image that was recolored as a whole, see {@link ImageResource#recolor(Image, Color)}.
+     */
+    private static final Map<Image, Region> WHOLE_IMAGES = new ConcurrentHashMap<>();
+
+    private static final AtomicLong USES = new AtomicLong(); // counts cache lookups, to order recolors by last use
+
+    private static volatile long cachedBytes; // total size of all images in the cache, only changed under its lock
+
     /**
-     * A hash-based cache of all recolored images, mapped to their {@link Object#hashCode()} (from the image + the
-     * tint)
+     * A region of an image (such as one cell of a texture atlas) that may be recolored, which holds its own recolors.
+     * <p>
+     * Callers should create a region once and keep it, so that looking up a cached recolor does not need to allocate a
+     * key each time it is drawn. Two regions of the same area of an image are cached separately.
      */
-    private static final HashMap<Integer, Image> CACHED_RECOLORS = new HashMap<>();
+    public static final class Region {
+        private final Image src;
+        private final int   x;
+        private final int   y;
+        private final int   w;
+        private final int   h;
+
+        private final Map<Color, Recolor> tints = new ConcurrentHashMap<>(4);
+
+        /**
+         * @param src the source image
+         * @param x   x-pos of the region in the source image
+         * @param y   y-pos of the region in the source image
+         * @param w   width of the region
+         * @param h   height of the region
+         */
+        public Region(Image src, int x, int y, int w, int h) {
+            this.src = src;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+
+        private long getBytes() {
+            return w * h * 4L;
+        }
+    }
+
+    /**
+     * One cached recolor of a region.
+     */
+    private static final class Recolor {
+        private final Region region;
+        private final Color  tint;
+        private final Image  image;
+
+        private volatile long lastUsed = USES.incrementAndGet();
+
+        private Recolor(Region region, Color tint, Image image) {
+            this.region = region;
+            this.tint = tint;
+            this.image = image;
+        }
+    }
+
+    /**
+     * When a cached recolor was last used, as of when it was taken, since hits keep updating it without the lock.
+     */
+    private record Use(Recolor recolor, long lastUsed) {}
 
     /**
      * Creates a new resource and opens an {@link InputStream} for it.
@@ -36,47 +111,147 @@ public class ImageResource extends Resource<Image> {
     }
 
     /**
-     * Utility method for efficiently recoloring (and caching) an {@link Image}
-     * <p>
-     * If the image was previously recolored, it will be immediately pulled from cache; otherwise it will calculate on
-     * the spot.
+     * Utility method for efficiently recoloring (and caching) an entire {@link Image}
      *
      * @param src  the source image
      * @param tint the color to recolor with
      *
      * @return the recolored image
+     *
+     * @see ImageResource#recolor(Region, Color)
      */
     public static Image recolor(Image src, Color tint) {
+        return recolor(WHOLE_IMAGES.computeIfAbsent(src, ImageResource::whole), tint);
+    }
+
+    private static Region whole(Image src) {
+        return new Region(src, 0, 0, (int)src.getWidth(), (int)src.getHeight());
+    }
+
+    /**
+     * Utility method for efficiently recoloring (and caching) a region of an {@link Image}, such as one cell of a
+     * texture atlas. This may be called from any thread.
+     * <p>
+     * If the region was previously recolored, it will be immediately pulled from cache (without locking or
+     * allocating); otherwise it will calculate on the spot. The least recently used recolors are evicted once the
+     * cache is over its memory budget.
+     *
+     * @param region the region of the source image
+     * @param tint   the color to recolor with
+     *
+     * @return a new image (of the region's size) that is the recolored region
+     */
+    public static Image recolor(Region region, Color tint) {
         // first try getting from cache
-        int hash = src.hashCode() + tint.hashCode();
-        Image cache = CACHED_RECOLORS.get(hash);
-        if (cache != null) return cache;
+        Recolor cache = region.tints.get(tint);
+        if (cache != null) {
+            cache.lastUsed = USES.incrementAndGet();
+            return cache.image;
+        }
 
-        LOG.debug("Recolored image not cached, calculating for color #{}", tint.toString().substring(2));
+        Recolor recolor = new Recolor(region, tint, compute(region, tint));
+        synchronized (CACHED_RECOLORS) {
+            Recolor raced = region.tints.putIfAbsent(tint, recolor);
+            if (raced != null) return raced.image; // another thread recolored it at the same time
 
-        int w = (int)src.getWidth();
-        int h = (int)src.getHeight();
-        WritableImage output = new WritableImage(w, h);
+            CACHED_RECOLORS.add(recolor);
+            cachedBytes += region.getBytes();
+            if (cachedBytes > CACHE_BUDGET) evict(recolor);
+        }
+        return recolor.image;
+    }
+
+    /**
+     * Recolors a region ahead of time, so that recoloring it later is a cache hit, but only if it fits in the cache's
+     * memory budget: warming never evicts anything, as what is already cached may still be in use.
+     *
+     * @param region the region of the source image
+     * @param tint   the color to recolor with
+     *
+     * @see ImageResource#recolor(Region, Color)
+     */
+    public static void warm(Region region, Color tint) {
+        if (region.tints.containsKey(tint)) return;
+        if (cachedBytes + region.getBytes() > CACHE_BUDGET) {
+            LOG.debug("Recolor cache is full, not warming region");
+            return;
+        }
 
-        // iterate through each pixel and recolor it
-        for (int ix = 0; ix < w; ix++) {
-            for (int iy = 0; iy < h; iy++) {
-                Color base = src.getPixelReader().getColor(ix, iy);
-                // calculate new color by base * tint; use original opacity
-                output.getPixelWriter().setColor(ix, iy, new Color(
-                        base.getRed() * tint.getRed(),
-                        base.getGreen() * tint.getGreen(),
-                        base.getBlue() * tint.getBlue(),
-                        base.getOpacity()
-                ));
+        Recolor recolor = new Recolor(region, tint, compute(region, tint));
+        synchronized (CACHED_RECOLORS) {
+            if (cachedBytes + region.getBytes() > CACHE_BUDGET || region.tints.putIfAbsent(tint, recolor) != null)
+                return;
+            CACHED_RECOLORS.add(recolor);
+            cachedBytes += region.getBytes();
+        }
+    }
+
+    /**
+     * Evicts the least recently used recolors until the cache is within its memory budget. This must be called while
+     * holding the lock on {@link ImageResource#CACHED_RECOLORS}.
+     *
+     * @param keep a recolor that must not be evicted (i.e. the one that was just added)
+     */
+    private static void evict(Recolor keep) {
+        // sort a snapshot of when each was used, so that the order cannot change while it is being sorted
+        Use[] uses = new Use[CACHED_RECOLORS.size()];
+        for (int i = 0; i < uses.length; i++) {
+            Recolor r = CACHED_RECOLORS.get(i);
+            uses[i] = new Use(r, r.lastUsed);
+        }
+        Arrays.sort(uses, Comparator.comparingLong(Use::lastUsed));
+
+        CACHED_RECOLORS.clear();
+        for (Use use: uses) {
+            Recolor r = use.recolor;
+            if (cachedBytes <= CACHE_BUDGET || r == keep) {
+                CACHED_RECOLORS.add(r); // kept, least recently used first
+                continue;
             }
+            r.region.tints.remove(r.tint, r);
+            cachedBytes -= r.region.getBytes();
         }
+    }
+
+    /**
+     * Recolors a region into a new image, without caching it.
+     */
+    private static Image compute(Region region, Color tint) {
+        LOG.debug("Recolored image not cached, calculating for color #{}", tint.toString().substring(2));
+
+        int w = region.w, h = region.h, size = w * h;
+        int[] buffer = new int[size];
 
-        // store in cache
-        CACHED_RECOLORS.put(hash, output);
+        // read the whole region at once, tint it in place, then write it all at once
+        region.src.getPixelReader().getPixels(region.x, region.y, w, h, PixelFormat.getIntArgbInstance(), buffer, 0, w);
+        tint(buffer, size, tint);
+        WritableImage output = new WritableImage(w, h);
+        output.getPixelWriter().setPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), buffer, 0, w);
         return output;
     }
 
+    /**
+     * Multiplies every ARGB pixel by the tint, keeping the original opacity.
+     *
+     * @param argb pixels to tint (in place)
+     * @param size number of pixels to tint
+     * @param tint the color to multiply by
+     */
+    private static void tint(int[] argb, int size, Color tint) {
+        int tr = (int)Math.round(tint.getRed() * 255);
+        int tg = (int)Math.round(tint.getGreen() * 255);
+        int tb = (int)Math.round(tint.getBlue() * 255);
+
+        for (int i = 0; i < size; i++) {
+            int p = argb[i];
+            // new color = base * tint (rounded); use original opacity
+            int r = (((p >> 16) & 0xFF) * tr + 127) / 255;
+            int g = (((p >> 8) & 0xFF) * tg + 127) / 255;
+            int b = ((p & 0xFF) * tb + 127) / 255;
+            argb[i] = (p & 0xFF000000) | (r << 16) | (g << 8) | b;
+        }
+    }
+
     @Override
     public Image load() {
         assert this.stream != null;
@@ -0,0 +1,33 @@
+package com.logandhillon.logangamelib.resource;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loads a binary resource file as a read-only {@link ByteBuffer}, which is memory-mapped if the resource is a file on
+ * disk, so that only the parts of it that are read are ever paged in. A resource that is not a file (e.g. one inside a
+ * JAR or runtime image) is read into memory instead.
+ *
+ * @author Logan Dhillon
+ */
+public class MappedResource extends Resource<ByteBuffer> {
+    public MappedResource(String filename) throws FileNotFoundException {
+        super(filename);
+    }
+
+    public ByteBuffer load() throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try (FileChannel file = FileChannel.open(Path.of(url.toURI()), StandardOpenOption.READ)) {
+                return file.map(FileChannel.MapMode.READ_ONLY, 0, file.size()); // stays mapped after closing
+            } catch (URISyntaxException e) {
+                throw new IOException("Invalid resource URL " + url, e);
+            }
+        }
+        return ByteBuffer.wrap(stream.readAllBytes()).asReadOnlyBuffer();
+    }
+}